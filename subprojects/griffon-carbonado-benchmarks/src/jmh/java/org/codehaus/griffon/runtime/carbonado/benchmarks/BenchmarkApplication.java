@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado.benchmarks;
+
+import griffon.core.ApplicationBootstrapper;
+import griffon.core.GriffonApplication;
+import org.codehaus.griffon.runtime.core.DefaultApplicationBootstrapper;
+import org.codehaus.griffon.runtime.core.DefaultGriffonApplication;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Boots a headless application with the Carbonado plugin on its classpath.
+ *
+ * @author Andres Almiray
+ */
+final class BenchmarkApplication {
+    private final GriffonApplication application;
+
+    BenchmarkApplication() throws Exception {
+        application = new DefaultGriffonApplication(new String[0]);
+        ApplicationBootstrapper bootstrapper = new DefaultApplicationBootstrapper(application);
+        bootstrapper.bootstrap();
+        bootstrapper.run();
+    }
+
+    @Nonnull
+    <T> T getInstance(@Nonnull Class<T> type) {
+        return application.getInjector().getInstance(type);
+    }
+
+    void shutdown() {
+        application.shutdown();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado.benchmarks;
+
+import com.amazon.carbonado.Repository;
+import griffon.plugins.carbonado.CarbonadoHandler;
+import griffon.plugins.carbonado.RepositoryCallback;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost {@code withCarbonado} adds on top of invoking a callback directly.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HandlerDispatchBenchmark {
+    private static final String REPOSITORY_NAME = "map";
+    private static final RepositoryCallback<String> CALLBACK = (repositoryName, repository) -> repositoryName;
+
+    private BenchmarkApplication application;
+    private CarbonadoHandler carbonadoHandler;
+    private Repository repository;
+
+    @Setup
+    public void setup() throws Exception {
+        application = new BenchmarkApplication();
+        carbonadoHandler = application.getInstance(CarbonadoHandler.class);
+        repository = carbonadoHandler.withCarbonado(REPOSITORY_NAME, (repositoryName, repository) -> repository);
+    }
+
+    @TearDown
+    public void tearDown() {
+        application.shutdown();
+    }
+
+    @Benchmark
+    public String baseline() {
+        return CALLBACK.handle(REPOSITORY_NAME, repository);
+    }
+
+    @Benchmark
+    public String withCarbonado() {
+        return carbonadoHandler.withCarbonado(REPOSITORY_NAME, CALLBACK);
+    }
+
+    @Benchmark
+    public String withCarbonadoTransaction() {
+        return carbonadoHandler.withCarbonadoTransaction(REPOSITORY_NAME, CALLBACK);
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado.benchmarks;
+
+import com.amazon.carbonado.Index;
+import com.amazon.carbonado.Indexes;
+import com.amazon.carbonado.PrimaryKey;
+import com.amazon.carbonado.Storable;
+
+/**
+ * @author Andres Almiray
+ */
+@PrimaryKey("id")
+@Indexes(@Index("name"))
+public abstract class Item implements Storable {
+    public abstract long getId();
+
+    public abstract void setId(long id);
+
+    public abstract String getName();
+
+    public abstract void setName(String name);
+
+    public abstract int getPrice();
+
+    public abstract void setPrice(int price);
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado.benchmarks;
+
+import com.amazon.carbonado.Repository;
+import griffon.plugins.carbonado.RepositoryFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to open a repository from scratch, including its datasource when needed.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RepositoryCreationBenchmark {
+    @Param({"map", "bdb", "jdbc"})
+    public String type;
+
+    private BenchmarkApplication application;
+    private RepositoryFactory repositoryFactory;
+    private Repository repository;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        application = new BenchmarkApplication();
+        repositoryFactory = application.getInstance(RepositoryFactory.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        application.shutdown();
+    }
+
+    @TearDown(Level.Invocation)
+    public void destroy() {
+        if (repository != null) {
+            repositoryFactory.destroy(type, repository);
+            repository = null;
+        }
+    }
+
+    @Benchmark
+    public Repository create() {
+        repository = repositoryFactory.create(type);
+        return repository;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado.benchmarks;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storage;
+import griffon.exceptions.GriffonException;
+import griffon.plugins.carbonado.CarbonadoHandler;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the heap footprint of {@code map} and {@code offheap} repositories holding the same Storables. The heap
+ * retained by the loaded Storables is reported as the {@code retainedHeapKb} secondary result of each benchmark. Run
+ * it with the {@code gc} profiler to compare the allocation rate and collections caused by lookups and queries.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class RepositoryFootprintBenchmark {
+    private static final int BATCH_SIZE = 10000;
+    private static final int NAME_COUNT = 100;
+
+    @Param({"map", "offheap"})
+    public String type;
+
+    @Param({"500000"})
+    public int itemCount;
+
+    private BenchmarkApplication application;
+    private CarbonadoHandler carbonadoHandler;
+    private long retainedHeap;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        application = new BenchmarkApplication();
+        carbonadoHandler = application.getInstance(CarbonadoHandler.class);
+        carbonadoHandler.withCarbonado(type, (repositoryName, repository) -> {
+            try {
+                repository.storageFor(Item.class).truncate();
+            } catch (RepositoryException e) {
+                throw new GriffonException(e);
+            }
+            return null;
+        });
+
+        long baseline = usedHeap();
+        for (int start = 0; start < itemCount; start += BATCH_SIZE) {
+            int first = start;
+            int last = Math.min(itemCount, start + BATCH_SIZE);
+            carbonadoHandler.withCarbonadoTransaction(type, (repositoryName, repository) -> {
+                try {
+                    Storage<Item> items = repository.storageFor(Item.class);
+                    for (int id = first; id < last; id++) {
+                        Item item = items.prepare();
+                        item.setId(id);
+                        item.setName(nameFor(id % NAME_COUNT));
+                        item.setPrice(id % 1000);
+                        item.insert();
+                    }
+                } catch (RepositoryException e) {
+                    throw new GriffonException(e);
+                }
+                return null;
+            });
+        }
+        retainedHeap = usedHeap() - baseline;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        application.shutdown();
+    }
+
+    @Benchmark
+    public Item load(Footprint footprint) {
+        long id = ThreadLocalRandom.current().nextLong(itemCount);
+        return carbonadoHandler.withCarbonado(type, (repositoryName, repository) -> {
+            try {
+                Item item = repository.storageFor(Item.class).prepare();
+                item.setId(id);
+                item.load();
+                return item;
+            } catch (RepositoryException e) {
+                throw new GriffonException(e);
+            }
+        });
+    }
+
+    @Benchmark
+    public void query(Footprint footprint, Blackhole blackhole) {
+        String name = nameFor(ThreadLocalRandom.current().nextInt(NAME_COUNT));
+        carbonadoHandler.withCarbonado(type, (repositoryName, repository) -> {
+            try {
+                Cursor<Item> cursor = repository.storageFor(Item.class).query("name = ?").with(name).fetch();
+                try {
+                    // the first page is enough to compare the garbage each query leaves behind
+                    for (int i = 0; i < 100 && cursor.hasNext(); i++) {
+                        blackhole.consume(cursor.next());
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } catch (RepositoryException e) {
+                throw new GriffonException(e);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Publishes the heap retained by the loaded Storables as a secondary result, so it lands next to the throughput
+     * in the JSON report.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long retainedHeapKb;
+
+        @Setup(Level.Iteration)
+        public void setup(RepositoryFootprintBenchmark benchmark) {
+            retainedHeapKb = benchmark.retainedHeap / 1024;
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static String nameFor(long index) {
+        return "item-" + index;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado.benchmarks;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storage;
+import griffon.exceptions.GriffonException;
+import griffon.plugins.carbonado.CarbonadoHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Insert, primary key load and secondary key query throughput through {@code withCarbonado}.
+ * Nested subclasses run the same benchmarks with a different number of threads.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public abstract class RepositoryThroughputBenchmark {
+    private static final int ITEM_COUNT = 10000;
+    private static final int NAME_COUNT = 100;
+
+    @Param({"map", "bdb", "jdbc"})
+    public String type;
+
+    private BenchmarkApplication application;
+    private CarbonadoHandler carbonadoHandler;
+    private final AtomicLong nextId = new AtomicLong();
+
+    @Setup
+    public void setup() throws Exception {
+        application = new BenchmarkApplication();
+        carbonadoHandler = application.getInstance(CarbonadoHandler.class);
+        carbonadoHandler.withCarbonadoTransaction(type, (repositoryName, repository) -> {
+            try {
+                Storage<Item> items = repository.storageFor(Item.class);
+                items.truncate();
+                for (int i = 0; i < ITEM_COUNT; i++) {
+                    insert(items, i);
+                }
+            } catch (RepositoryException e) {
+                throw new GriffonException(e);
+            }
+            return null;
+        });
+        nextId.set(ITEM_COUNT);
+    }
+
+    @TearDown
+    public void tearDown() {
+        application.shutdown();
+    }
+
+    @Benchmark
+    public Item insert() {
+        long id = nextId.getAndIncrement();
+        return carbonadoHandler.withCarbonado(type, (repositoryName, repository) -> {
+            try {
+                return insert(repository.storageFor(Item.class), id);
+            } catch (RepositoryException e) {
+                throw new GriffonException(e);
+            }
+        });
+    }
+
+    @Benchmark
+    public Item load() {
+        long id = ThreadLocalRandom.current().nextLong(ITEM_COUNT);
+        return carbonadoHandler.withCarbonado(type, (repositoryName, repository) -> {
+            try {
+                Item item = repository.storageFor(Item.class).prepare();
+                item.setId(id);
+                item.load();
+                return item;
+            } catch (RepositoryException e) {
+                throw new GriffonException(e);
+            }
+        });
+    }
+
+    @Benchmark
+    public void query(Blackhole blackhole) {
+        String name = nameFor(ThreadLocalRandom.current().nextInt(NAME_COUNT));
+        carbonadoHandler.withCarbonado(type, (repositoryName, repository) -> {
+            try {
+                Cursor<Item> cursor = repository.storageFor(Item.class).query("name = ?").with(name).fetch();
+                try {
+                    while (cursor.hasNext()) {
+                        blackhole.consume(cursor.next());
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } catch (RepositoryException e) {
+                throw new GriffonException(e);
+            }
+            return null;
+        });
+    }
+
+    private static Item insert(Storage<Item> items, long id) throws PersistException {
+        Item item = items.prepare();
+        item.setId(id);
+        item.setName(nameFor(id % NAME_COUNT));
+        item.setPrice((int) (id % 1000));
+        item.insert();
+        return item;
+    }
+
+    private static String nameFor(long index) {
+        return "item-" + index;
+    }
+
+    @Threads(1)
+    public static class SingleThread extends RepositoryThroughputBenchmark {
+    }
+
+    @Threads(4)
+    public static class FourThreads extends RepositoryThroughputBenchmark {
+    }
+
+    @Threads(16)
+    public static class SixteenThreads extends RepositoryThroughputBenchmark {
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.Storable;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Groups writes of the same Storable type into a single transaction per batch.
+ * Returned futures complete once the batch holding the write has been committed.
+ *
+ * @author Andres Almiray
+ */
+public interface CarbonadoBatchWriter {
+    // tag::methods[]
+    @Nonnull
+    <S extends Storable> CompletableFuture<S> insert(@Nonnull String repositoryName, @Nonnull S storable);
+
+    @Nonnull
+    <S extends Storable> CompletableFuture<S> update(@Nonnull String repositoryName, @Nonnull S storable);
+
+    @Nonnull
+    <S extends Storable> CompletableFuture<S> delete(@Nonnull String repositoryName, @Nonnull S storable);
+
+    @Nonnull
+    CompletableFuture<Void> flush(@Nonnull String repositoryName);
+
+    /**
+     * Drops the queues of a repository that has been closed, failing the writes that are still queued.
+     */
+    void remove(@Nonnull String repositoryName);
+
+    void shutdown();
+    // end::methods[]
+}
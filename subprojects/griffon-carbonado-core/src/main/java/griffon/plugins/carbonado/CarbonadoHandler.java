@@ -15,8 +15,13 @@
  */
 package griffon.plugins.carbonado;
 
+import com.amazon.carbonado.IsolationLevel;
+import com.amazon.carbonado.Storable;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 /**
  * @author Andres Almiray
@@ -29,6 +34,33 @@ public interface CarbonadoHandler {
     @Nullable
     <R> R withCarbonado(@Nonnull String repositoryName, @Nonnull RepositoryCallback<R> callback);
 
+    @Nonnull
+    <R> CompletableFuture<R> withCarbonadoAsync(@Nonnull RepositoryCallback<R> callback);
+
+    @Nonnull
+    <R> CompletableFuture<R> withCarbonadoAsync(@Nonnull String repositoryName, @Nonnull RepositoryCallback<R> callback);
+
+    @Nullable
+    <R> R withCarbonadoTransaction(@Nonnull RepositoryCallback<R> callback);
+
+    @Nullable
+    <R> R withCarbonadoTransaction(@Nonnull String repositoryName, @Nonnull RepositoryCallback<R> callback);
+
+    @Nullable
+    <R> R withCarbonadoTransaction(@Nonnull String repositoryName, @Nullable IsolationLevel isolationLevel, @Nonnull RepositoryCallback<R> callback);
+
+    @Nullable
+    <R> R withCarbonadoReadOnly(@Nonnull RepositoryCallback<R> callback);
+
+    @Nullable
+    <R> R withCarbonadoReadOnly(@Nonnull String repositoryName, @Nonnull RepositoryCallback<R> callback);
+
+    @Nonnull
+    <S extends Storable> Stream<S> streamCarbonado(@Nonnull QueryCallback<S> callback);
+
+    @Nonnull
+    <S extends Storable> Stream<S> streamCarbonado(@Nonnull String repositoryName, @Nonnull QueryCallback<S> callback);
+
     void closeCarbonado();
 
     void closeCarbonado(@Nonnull String repositoryName);
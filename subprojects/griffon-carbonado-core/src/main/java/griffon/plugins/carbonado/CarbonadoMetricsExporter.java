@@ -0,0 +1,42 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Receives storage timings as they are recorded. Every binding of this type found in the injector is
+ * notified; exporters that report themselves as disabled are skipped. All durations are given in nanoseconds.
+ * Implementations are called on the thread that performed the operation and should return quickly.
+ *
+ * @author Andres Almiray
+ */
+public interface CarbonadoMetricsExporter {
+    default boolean isEnabled() {
+        return true;
+    }
+
+    void onCallback(@Nonnull String repositoryName, long duration, @Nullable Throwable failure);
+
+    void onTransaction(@Nonnull String repositoryName, long duration, int attempts, @Nullable Throwable failure);
+
+    void onRepositoryCreated(@Nonnull String repositoryName, long duration);
+
+    void onRepositoryDestroyed(@Nonnull String repositoryName, long duration);
+
+    void onQuery(@Nonnull String repositoryName, @Nonnull String query, long duration, @Nullable Throwable failure);
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import javax.annotation.Nonnull;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Moves every configured Storable type of a repository in bulk, either to and from a binary archive or
+ * straight into another repository. Archives hold length-prefixed records written by {@code Storable.writeTo},
+ * optionally compressed. Imports are committed in batches, one transaction per batch.
+ * Every method returns the number of transferred storables per Storable type.
+ *
+ * @author Andres Almiray
+ */
+public interface CarbonadoTransfer {
+    // tag::methods[]
+    @Nonnull
+    Map<String, Long> exportTo(@Nonnull String repositoryName, @Nonnull WritableByteChannel channel);
+
+    @Nonnull
+    Map<String, Long> exportTo(@Nonnull String repositoryName, @Nonnull Path file);
+
+    @Nonnull
+    Map<String, Long> importFrom(@Nonnull String repositoryName, @Nonnull ReadableByteChannel channel);
+
+    @Nonnull
+    Map<String, Long> importFrom(@Nonnull String repositoryName, @Nonnull Path file);
+
+    @Nonnull
+    Map<String, Long> copy(@Nonnull String sourceRepositoryName, @Nonnull String targetRepositoryName);
+    // end::methods[]
+}
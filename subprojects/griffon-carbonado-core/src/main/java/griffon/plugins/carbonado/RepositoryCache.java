@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.Storable;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Set;
+
+/**
+ * Read-through cache of Storables loaded by primary key from a single repository.
+ *
+ * @author Andres Almiray
+ */
+public interface RepositoryCache {
+    /**
+     * Loads a Storable by primary key, serving it from the cache when possible.
+     *
+     * @param key a Storable with all of its primary key properties set
+     *
+     * @return a copy of the matching Storable, or {@code null} if there is no match
+     */
+    @Nullable
+    <S extends Storable> S load(@Nonnull S key);
+
+    boolean isCached(@Nonnull Class<?> storableType);
+
+    @Nonnull
+    Set<Class<?>> getStorableTypes();
+
+    void invalidate(@Nonnull Storable storable);
+
+    void clear();
+
+    int getSize();
+
+    int getMaxEntries();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getEvictionCount();
+
+    long getInvalidationCount();
+}
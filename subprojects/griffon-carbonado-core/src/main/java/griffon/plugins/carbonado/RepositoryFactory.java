@@ -19,6 +19,7 @@ import com.amazon.carbonado.Repository;
 import griffon.core.storage.ObjectFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.Map;
 import java.util.Set;
 
@@ -31,4 +32,10 @@ public interface RepositoryFactory extends ObjectFactory<Repository> {
 
     @Nonnull
     Map<String, Object> getConfigurationFor(@Nonnull String repositoryName);
+
+    /**
+     * Returns the pattern of the template a repository is created from, or {@code null} if it is configured by name.
+     */
+    @Nullable
+    String getTemplateFor(@Nonnull String repositoryName);
 }
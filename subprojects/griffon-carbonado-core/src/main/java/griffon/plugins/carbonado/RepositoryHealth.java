@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Health of a single repository as seen by its background health checker. A repository becomes unavailable
+ * when a probe fails and stays so until it has been rebuilt and probed successfully.
+ *
+ * @author Andres Almiray
+ */
+public interface RepositoryHealth {
+    @Nonnull
+    String getRepositoryName();
+
+    boolean isEnabled();
+
+    boolean isAvailable();
+
+    /**
+     * Returns the time in milliseconds between probes.
+     */
+    long getInterval();
+
+    long getCheckCount();
+
+    long getFailureCount();
+
+    long getReconnectCount();
+
+    /**
+     * Returns the number of failed probes or reconnect attempts since the repository was last available.
+     */
+    int getConsecutiveFailures();
+
+    /**
+     * Returns the time in milliseconds since the epoch of the last probe, or {@code 0} if none has run yet.
+     */
+    long getLastCheckTime();
+
+    /**
+     * Returns the time in milliseconds since the epoch when the repository became unavailable, or {@code 0} if available.
+     */
+    long getUnavailableSince();
+
+    @Nullable
+    Throwable getLastFailure();
+}
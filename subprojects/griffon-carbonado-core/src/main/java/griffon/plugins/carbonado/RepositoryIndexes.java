@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.Repository;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Secondary indexes declared for the Storables of a single repository, along with their build statistics.
+ *
+ * @author Andres Almiray
+ */
+public interface RepositoryIndexes {
+    @Nonnull
+    String getRepositoryName();
+
+    /**
+     * Returns the declared indexes per Storable type. Each index is given as a comma separated list of
+     * property names, optionally prefixed with {@code +} or {@code -}.
+     */
+    @Nonnull
+    Map<Class<?>, List<String>> getDeclaredIndexes();
+
+    /**
+     * Validates the declared indexes against the repository and builds any missing index entries.
+     *
+     * @param repository the repository that owns the indexes
+     */
+    void build(@Nonnull Repository repository);
+
+    void reset();
+
+    int getIndexCount();
+
+    long getIndexEntryCount();
+
+    /**
+     * Returns the time in milliseconds spent opening the storages of the indexed types, which is when missing
+     * index entries are built. Counting entries is not included.
+     */
+    long getBuildTime();
+
+    @Nonnull
+    List<String> getIndexReport();
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Map;
+
+/**
+ * Collects runtime statistics of a single repository.
+ *
+ * @author Andres Almiray
+ */
+public interface RepositoryMetrics {
+    @Nonnull
+    String getRepositoryName();
+
+    /**
+     * Marks the start of a callback.
+     *
+     * @return a timestamp to be handed back to {@link #recordCallbackEnd(long, Throwable)}
+     */
+    long recordCallbackStart();
+
+    /**
+     * Marks the end of a callback.
+     *
+     * @param start   the value returned by {@link #recordCallbackStart()}
+     * @param failure the exception thrown by the callback, if any
+     */
+    void recordCallbackEnd(long start, @Nullable Throwable failure);
+
+    /**
+     * @param duration time in nanoseconds it took to open the repository
+     */
+    void recordRepositoryOpen(long duration);
+
+    /**
+     * @param duration time in nanoseconds it took to close the repository
+     */
+    void recordRepositoryClose(long duration);
+
+    void recordRepositoryEviction();
+
+    /**
+     * @param query    the statement that was executed
+     * @param duration time in nanoseconds it took to execute the query
+     * @param failure  the exception thrown by the query, if any
+     */
+    void recordQuery(@Nonnull String query, long duration, @Nullable Throwable failure);
+
+    /**
+     * Records the outcome of a transactional callback, including all of its attempts.
+     *
+     * @param duration time in nanoseconds spent on all attempts
+     * @param attempts number of attempts made
+     * @param failure  the exception that caused the last attempt to fail, if any
+     */
+    void recordTransaction(long duration, int attempts, @Nullable Throwable failure);
+
+    /**
+     * @param storableType the class name of the Storable
+     * @param duration     time in nanoseconds it took to prepare its storage
+     */
+    void recordStoragePreparation(@Nonnull String storableType, long duration);
+
+    void recordTransactionAttempt();
+
+    void recordTransactionCommit(int attempts);
+
+    void recordTransactionRollback(@Nonnull Throwable cause);
+
+    void recordTransactionRetry(@Nonnull Throwable cause);
+
+    long getCallbackCount();
+
+    long getCallbackErrorCount();
+
+    long getInFlightCallbacks();
+
+    /**
+     * Returns the callback latency in microseconds at the given percentile, between {@code 0} and {@code 100}.
+     */
+    long getCallbackLatency(double percentile);
+
+    long getCallbackMaxLatency();
+
+    /**
+     * Returns the number of exceptions thrown by callbacks, keyed by exception class name.
+     */
+    @Nonnull
+    Map<String, Long> getExceptionCounts();
+
+    long getOpenCount();
+
+    /**
+     * Returns the time in milliseconds it took to open the repository the last time.
+     */
+    long getLastOpenTime();
+
+    long getCloseCount();
+
+    /**
+     * Returns how many times the repository was closed after being idle for longer than its {@code idleTimeout}.
+     */
+    long getEvictionCount();
+
+    /**
+     * Returns the time in milliseconds it took to close the repository the last time.
+     */
+    long getLastCloseTime();
+
+    /**
+     * Returns the number of statements executed by a {@code jdbc} repository. Statements are only counted while
+     * timings are exported or the slow operation log is enabled.
+     */
+    long getQueryCount();
+
+    /**
+     * Returns whether timings are forwarded to at least one exporter.
+     */
+    boolean isExporting();
+
+    /**
+     * Returns the time in milliseconds it took to prepare the storage of each Storable, keyed by class name.
+     */
+    @Nonnull
+    Map<String, Long> getStoragePreparationTimes();
+
+    long getTransactionAttemptCount();
+
+    long getTransactionCommitCount();
+
+    long getTransactionRollbackCount();
+
+    long getTransactionRetryCount();
+
+    int getTransactionMaxAttempts();
+}
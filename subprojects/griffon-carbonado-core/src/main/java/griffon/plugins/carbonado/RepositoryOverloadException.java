@@ -0,0 +1,35 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import griffon.exceptions.GriffonException;
+
+import javax.annotation.Nonnull;
+
+/**
+ * @author Andres Almiray
+ */
+public class RepositoryOverloadException extends GriffonException {
+    private static final long serialVersionUID = 6251383419725427254L;
+
+    public RepositoryOverloadException(@Nonnull String message) {
+        super(message);
+    }
+
+    public RepositoryOverloadException(@Nonnull String message, @Nonnull Throwable cause) {
+        super(message, cause);
+    }
+}
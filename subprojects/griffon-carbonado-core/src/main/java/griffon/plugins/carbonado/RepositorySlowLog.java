@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * Logs callbacks of a single repository that exceed a time threshold and keeps the most recent ones.
+ *
+ * @author Andres Almiray
+ */
+public interface RepositorySlowLog {
+    @Nonnull
+    String getRepositoryName();
+
+    boolean isEnabled();
+
+    /**
+     * Returns the threshold in milliseconds. A value of {@code 0} or less disables the log.
+     */
+    long getThreshold();
+
+    void setThreshold(long threshold);
+
+    int getCapacity();
+
+    /**
+     * Records a callback if its duration exceeds the threshold.
+     *
+     * @param callbackType the class name of the callback
+     * @param duration     time in nanoseconds the callback took
+     * @param statements   SQL statements executed by the callback
+     * @param failure      the exception thrown by the callback, if any
+     */
+    void record(@Nonnull String callbackType, long duration, @Nonnull List<String> statements, @Nullable Throwable failure);
+
+    /**
+     * Returns the recorded slow operations, oldest first.
+     */
+    @Nonnull
+    List<SlowOperation> getSlowOperations();
+
+    long getSlowOperationCount();
+
+    void clear();
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+/**
+ * Limits the number of callbacks that may run concurrently against a single repository.
+ *
+ * @author Andres Almiray
+ */
+public interface RepositoryThrottle {
+    /**
+     * Waits for an execution slot.
+     *
+     * @throws RepositoryOverloadException if the wait queue is full or no slot became available in time
+     */
+    void acquire();
+
+    void release();
+
+    int getMaxConcurrent();
+
+    int getQueueSize();
+
+    long getAcquireTimeout();
+
+    int getActiveCount();
+
+    int getQueueDepth();
+
+    long getRejectedCount();
+
+    long getTimeoutCount();
+}
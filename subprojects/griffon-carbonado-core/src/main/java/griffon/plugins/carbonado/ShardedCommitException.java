@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.PersistException;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown when the commit of a {@link ShardedRepository} transaction fails after some of its shards committed.
+ * The writes of those shards are not rolled back, the remaining shards roll back once the transaction exits.
+ *
+ * @author Andres Almiray
+ */
+public class ShardedCommitException extends PersistException {
+    private static final long serialVersionUID = -4127039125416372861L;
+
+    private final List<Integer> committedShards;
+
+    public ShardedCommitException(@Nonnull String message, @Nonnull Throwable cause, @Nonnull List<Integer> committedShards) {
+        super(message, cause);
+        this.committedShards = Collections.unmodifiableList(new ArrayList<>(committedShards));
+    }
+
+    /**
+     * Returns the indexes of the shards that committed before the commit failed.
+     */
+    @Nonnull
+    public List<Integer> getCommittedShards() {
+        return committedShards;
+    }
+}
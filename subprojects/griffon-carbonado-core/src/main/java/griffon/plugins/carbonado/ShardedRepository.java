@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+
+/**
+ * A repository of {@code type = 'sharded'}, which hash-partitions every Storable by its primary key across a fixed
+ * number of child repositories. Storables are bound to the shard that prepared them, hence writes and key lookups go
+ * through {@link #route(Storable)} while queries are fanned out to every shard with {@link #query(QueryCallback, String...)}.
+ * Transactions span all shards but commit one shard after another; a commit that fails once some shards committed
+ * throws a {@link ShardedCommitException}.
+ *
+ * @author Andres Almiray
+ */
+public interface ShardedRepository extends Repository {
+    int getShardCount();
+
+    @Nonnull
+    Repository getShard(int index);
+
+    @Nonnull
+    List<Repository> getShards();
+
+    /**
+     * Returns the index of the shard owning the primary key of the given Storable.
+     */
+    int shardIndexOf(@Nonnull Storable storable);
+
+    @Nonnull
+    Repository shardFor(@Nonnull Storable storable);
+
+    /**
+     * Prepares an instance whose primary key may be set before it is handed to {@link #route(Storable)}.
+     */
+    @Nonnull
+    <S extends Storable> S prepare(@Nonnull Class<S> type) throws RepositoryException;
+
+    /**
+     * Returns the given Storable if it already belongs to the shard owning its primary key, or a copy prepared by that shard.
+     */
+    @Nonnull
+    <S extends Storable> S route(@Nonnull S storable) throws RepositoryException;
+
+    /**
+     * Runs the query built by the callback on every shard in parallel and reads all of its results, see {@link #fetch(QueryCallback, String...)}.
+     */
+    @Nonnull
+    <S extends Storable> List<S> query(@Nonnull QueryCallback<S> callback, @Nonnull String... orderBy) throws FetchException;
+
+    /**
+     * Runs the query built by the callback on every shard in parallel, or one shard after another on the calling
+     * thread while it is in a transaction, so that the query sees its writes. Each shard orders its results by the given
+     * properties and the returned cursor merges the shard cursors as it is read, holding one Storable per shard.
+     * Results are concatenated in shard order when no ordering is given. The cursor must be closed.
+     */
+    @Nonnull
+    <S extends Storable> Cursor<S> fetch(@Nonnull QueryCallback<S> callback, @Nonnull String... orderBy) throws FetchException;
+
+    <S extends Storable> long count(@Nonnull QueryCallback<S> callback) throws FetchException;
+}
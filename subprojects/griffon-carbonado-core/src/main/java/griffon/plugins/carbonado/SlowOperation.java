@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A callback that took longer than the slow operation threshold of its repository.
+ *
+ * @author Andres Almiray
+ */
+public final class SlowOperation {
+    private final String repositoryName;
+    private final String callbackType;
+    private final long timestamp;
+    private final long duration;
+    private final List<String> statements;
+    private final String failure;
+
+    public SlowOperation(@Nonnull String repositoryName, @Nonnull String callbackType, long timestamp, long duration, @Nonnull List<String> statements, @Nullable String failure) {
+        this.repositoryName = requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        this.callbackType = requireNonBlank(callbackType, "Argument 'callbackType' must not be blank");
+        this.timestamp = timestamp;
+        this.duration = duration;
+        this.statements = Collections.unmodifiableList(new ArrayList<>(requireNonNull(statements, "Argument 'statements' must not be null")));
+        this.failure = failure;
+    }
+
+    @Nonnull
+    public String getRepositoryName() {
+        return repositoryName;
+    }
+
+    /**
+     * Returns the class name of the callback.
+     */
+    @Nonnull
+    public String getCallbackType() {
+        return callbackType;
+    }
+
+    /**
+     * Returns the time at which the callback finished, in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the time in milliseconds the callback took.
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Returns the SQL statements executed by the callback. Always empty for non JDBC repositories.
+     */
+    @Nonnull
+    public List<String> getStatements() {
+        return statements;
+    }
+
+    /**
+     * Returns the class name of the exception thrown by the callback, if any.
+     */
+    @Nullable
+    public String getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder()
+            .append(repositoryName).append(' ')
+            .append(callbackType).append(' ')
+            .append(duration).append(" ms");
+        if (failure != null) {
+            b.append(" failed with ").append(failure);
+        }
+        if (!statements.isEmpty()) {
+            b.append(' ').append(statements);
+        }
+        return b.toString();
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import com.amazon.carbonado.repo.sleepycat.BDBRepositoryBuilder;
+import com.sleepycat.je.EnvironmentConfig;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static griffon.util.ConfigUtils.getConfigValue;
+import static griffon.util.ConfigUtils.getConfigValueAsString;
+import static griffon.util.GriffonClassUtils.setProperties;
+import static java.util.Arrays.asList;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Applies the {@code bdb} block of a repository to a {@code BDBRepositoryBuilder}. A named {@code profile} supplies
+ * defaults for builder properties and BDB-JE environment parameters; explicit builder properties and entries of the
+ * {@code environment} block take precedence. Unknown builder properties, profiles and environment parameters are
+ * rejected instead of being ignored. Members of a shared environment take their cache settings from it.
+ *
+ * @author Andres Almiray
+ */
+final class BDBTuning {
+    static final String KEY_PROFILE = "profile";
+    static final String KEY_ENVIRONMENT = "environment";
+    static final String KEY_SHARED_ENVIRONMENT = "sharedEnvironment";
+    static final String PARAM_SHARED_CACHE = "je.sharedCache";
+    static final String PARAM_MAX_MEMORY = "je.maxMemory";
+    static final String PARAM_MAX_MEMORY_PERCENT = "je.maxMemoryPercent";
+    private static final String KEY_CACHE_SIZE = "cacheSize";
+    private static final String KEY_CACHE_PERCENT = "cachePercent";
+    private static final String KEY_PRODUCT = "product";
+    private static final String PRODUCT_JE = "JE";
+    private static final List<String> RESERVED_KEYS = asList(KEY_PROFILE, KEY_ENVIRONMENT, KEY_SHARED_ENVIRONMENT);
+    private static final Map<String, Profile> PROFILES = new LinkedHashMap<>();
+
+    static {
+        PROFILES.put("write-heavy", new Profile()
+            .property("transactionWriteNoSync", true)
+            .property("logFileMaxSize", 100 * 1024 * 1024)
+            .param(PARAM_MAX_MEMORY_PERCENT, 60)
+            .param("je.cleaner.threads", 4)
+            .param("je.log.bufferSize", 1024 * 1024)
+            .param("je.checkpointer.bytesInterval", 100 * 1024 * 1024));
+        PROFILES.put("read-mostly", new Profile()
+            .property("logFileMaxSize", 50 * 1024 * 1024)
+            .param(PARAM_MAX_MEMORY_PERCENT, 80)
+            .param("je.cleaner.threads", 1));
+        PROFILES.put("low-memory", new Profile()
+            .property(KEY_CACHE_SIZE, 16L * 1024 * 1024)
+            .property("logFileMaxSize", 10 * 1024 * 1024)
+            .param("je.cleaner.threads", 1)
+            .param("je.log.numBuffers", 2)
+            .param("je.log.bufferSize", 256 * 1024));
+    }
+
+    private BDBTuning() {
+        // prevent instantiation
+    }
+
+    /**
+     * @param shared the parameters of the shared environment the repository joins, if any.
+     */
+    static void configure(@Nonnull BDBRepositoryBuilder builder, @Nonnull String name, @Nonnull Map<String, Object> config, @Nullable Map<String, String> shared) {
+        requireNonNull(builder, "Argument 'builder' must not be null");
+        requireNonNull(config, "Argument 'config' must not be null");
+
+        Map<String, Object> properties = new LinkedHashMap<>();
+        Map<String, String> params = new LinkedHashMap<>();
+        String profileName = getConfigValueAsString(config, KEY_PROFILE, null);
+        if (profileName != null) {
+            Profile profile = PROFILES.get(profileName);
+            if (profile == null) {
+                throw new IllegalArgumentException("Unknown bdb profile '" + profileName + "' for repository '" + name + "'. Valid values are " + PROFILES.keySet());
+            }
+            properties.putAll(profile.properties);
+            params.putAll(profile.params);
+        }
+
+        Map<String, String> environment = environmentParams(getConfigValue(config, KEY_ENVIRONMENT, Collections.<String, Object>emptyMap()));
+        if (shared != null) {
+            for (String key : asList(KEY_CACHE_SIZE, KEY_CACHE_PERCENT)) {
+                if (config.containsKey(key)) {
+                    throw sharedCacheConflict(name, key, config);
+                }
+            }
+            for (String key : asList(PARAM_SHARED_CACHE, PARAM_MAX_MEMORY, PARAM_MAX_MEMORY_PERCENT)) {
+                if (environment.containsKey(key)) {
+                    throw sharedCacheConflict(name, key, config);
+                }
+            }
+            properties.remove(KEY_CACHE_SIZE);
+            params.remove(PARAM_MAX_MEMORY_PERCENT);
+            params.putAll(shared);
+        }
+
+        for (Map.Entry<String, Object> e : config.entrySet()) {
+            if (!RESERVED_KEYS.contains(e.getKey())) {
+                properties.put(e.getKey(), e.getValue());
+            }
+        }
+        params.putAll(environment);
+
+        Set<String> validProperties = writableProperties(builder);
+        for (String property : properties.keySet()) {
+            if (!validProperties.contains(property)) {
+                throw new IllegalArgumentException("Unknown bdb property '" + property + "' for repository '" + name + "'. Valid properties are " + validProperties);
+            }
+        }
+        setProperties(builder, properties);
+
+        if (params.isEmpty()) {
+            return;
+        }
+        if (!PRODUCT_JE.equalsIgnoreCase(getConfigValueAsString(properties, KEY_PRODUCT, PRODUCT_JE))) {
+            throw new IllegalArgumentException("Repository '" + name + "' uses bdb product '" + properties.get(KEY_PRODUCT) + "'. Tuning profiles and environment parameters require product " + PRODUCT_JE);
+        }
+
+        Object initial = builder.getInitialEnvironmentConfig();
+        EnvironmentConfig environmentConfig = initial instanceof EnvironmentConfig ? (EnvironmentConfig) initial : new EnvironmentConfig();
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            try {
+                environmentConfig.setConfigParam(param.getKey(), param.getValue());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid bdb environment parameter '" + param.getKey() + "' for repository '" + name + "'. " + e.getMessage(), e);
+            }
+        }
+        builder.setInitialEnvironmentConfig(environmentConfig);
+    }
+
+    @Nonnull
+    private static IllegalArgumentException sharedCacheConflict(@Nonnull String name, @Nonnull String key, @Nonnull Map<String, Object> config) {
+        return new IllegalArgumentException("Repository '" + name + "' can not set '" + key + "' as it uses the cache of shared environment '" + config.get(KEY_SHARED_ENVIRONMENT) + "'");
+    }
+
+    /**
+     * Flattens nested blocks into dotted BDB-JE parameter names, e.g. {@code je { cleaner { threads = 2 } } }
+     * becomes {@code je.cleaner.threads}.
+     */
+    @Nonnull
+    static Map<String, String> environmentParams(@Nonnull Map<String, Object> environment) {
+        Map<String, String> params = new LinkedHashMap<>();
+        flatten("", environment, params);
+        return params;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void flatten(@Nonnull String prefix, @Nonnull Map<String, Object> source, @Nonnull Map<String, String> target) {
+        for (Map.Entry<String, Object> e : source.entrySet()) {
+            String key = prefix + e.getKey();
+            if (e.getValue() instanceof Map) {
+                flatten(key + ".", (Map<String, Object>) e.getValue(), target);
+            } else {
+                target.put(key, String.valueOf(e.getValue()));
+            }
+        }
+    }
+
+    @Nonnull
+    private static Set<String> writableProperties(@Nonnull Object bean) {
+        Set<String> names = new TreeSet<>();
+        try {
+            for (PropertyDescriptor descriptor : Introspector.getBeanInfo(bean.getClass()).getPropertyDescriptors()) {
+                if (descriptor.getWriteMethod() != null) {
+                    names.add(descriptor.getName());
+                }
+            }
+        } catch (IntrospectionException e) {
+            throw new IllegalStateException("Cannot introspect " + bean.getClass().getName(), e);
+        }
+        return names;
+    }
+
+    private static final class Profile {
+        private final Map<String, Object> properties = new LinkedHashMap<>();
+        private final Map<String, String> params = new LinkedHashMap<>();
+
+        private Profile property(@Nonnull String name, @Nonnull Object value) {
+            properties.put(name, value);
+            return this;
+        }
+
+        private Profile param(@Nonnull String name, @Nonnull Object value) {
+            params.put(name, String.valueOf(value));
+            return this;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Actions deferred until the outermost callback run by the handler on the current thread has finished, by which
+ * time every transaction entered by the callback has committed or rolled back.
+ *
+ * @author Andres Almiray
+ */
+final class CallbackCompletion {
+    private static final Logger LOG = LoggerFactory.getLogger(CallbackCompletion.class);
+    private static final ThreadLocal<Map<Object, Runnable>> ACTIONS = new ThreadLocal<>();
+
+    private CallbackCompletion() {
+        // prevent instantiation
+    }
+
+    /**
+     * @return {@code true} if this is the outermost callback, which must hand the value back to {@link #exit(boolean)}.
+     */
+    static boolean enter() {
+        if (ACTIONS.get() != null) {
+            return false;
+        }
+        ACTIONS.set(new LinkedHashMap<>());
+        return true;
+    }
+
+    static void exit(boolean outermost) {
+        if (!outermost) {
+            return;
+        }
+        Map<Object, Runnable> actions = ACTIONS.get();
+        ACTIONS.remove();
+        for (Runnable action : actions.values()) {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                LOG.warn("Could not run completion action {}", action, e);
+            }
+        }
+    }
+
+    /**
+     * Defers the given action unless one with an equal key is deferred already.
+     *
+     * @return {@code false} if no callback is running on the current thread.
+     */
+    static boolean defer(@Nonnull Object key, @Nonnull Runnable action) {
+        Map<Object, Runnable> actions = ACTIONS.get();
+        if (actions == null) {
+            return false;
+        }
+        actions.putIfAbsent(key, action);
+        return true;
+    }
+}
@@ -16,23 +16,57 @@
 package org.codehaus.griffon.runtime.carbonado;
 
 import com.amazon.carbonado.Repository;
+import griffon.core.Configuration;
 import griffon.core.GriffonApplication;
 import griffon.core.env.Metadata;
+import griffon.exceptions.GriffonException;
 import griffon.inject.DependsOn;
+import griffon.plugins.carbonado.CarbonadoBatchWriter;
+import griffon.plugins.carbonado.CarbonadoCacheProvider;
+import griffon.plugins.carbonado.CarbonadoExecutorProvider;
 import griffon.plugins.carbonado.CarbonadoHandler;
+import griffon.plugins.carbonado.CarbonadoHealthProvider;
+import griffon.plugins.carbonado.CarbonadoIndexProvider;
+import griffon.plugins.carbonado.CarbonadoMetricsProvider;
+import griffon.plugins.carbonado.CarbonadoSlowLogProvider;
+import griffon.plugins.carbonado.CarbonadoThrottleProvider;
 import griffon.plugins.carbonado.RepositoryCallback;
 import griffon.plugins.carbonado.RepositoryFactory;
 import griffon.plugins.carbonado.RepositoryStorage;
 import griffon.plugins.monitor.MBeanManager;
 import org.codehaus.griffon.runtime.core.addon.AbstractGriffonAddon;
+import org.codehaus.griffon.runtime.jmx.RepositoryCacheMonitor;
+import org.codehaus.griffon.runtime.jmx.RepositoryEnvironmentMonitor;
+import org.codehaus.griffon.runtime.jmx.RepositoryHealthMonitor;
+import org.codehaus.griffon.runtime.jmx.RepositoryIndexesMonitor;
+import org.codehaus.griffon.runtime.jmx.RepositoryMetricsMonitor;
+import org.codehaus.griffon.runtime.jmx.RepositorySlowLogMonitor;
 import org.codehaus.griffon.runtime.jmx.RepositoryStorageMonitor;
+import org.codehaus.griffon.runtime.jmx.RepositoryThrottleMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static griffon.util.ConfigUtils.getConfigValueAsBoolean;
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static griffon.util.ConfigUtils.getConfigValueAsString;
+import static java.util.Arrays.asList;
 
 /**
  * @author Andres Almiray
@@ -40,9 +74,38 @@ import static griffon.util.ConfigUtils.getConfigValueAsBoolean;
 @DependsOn("datasource")
 @Named("carbonado")
 public class CarbonadoAddon extends AbstractGriffonAddon {
+    private static final Logger LOG = LoggerFactory.getLogger(CarbonadoAddon.class);
+    private static final String KEY_STARTUP = "startup";
+    private static final String STARTUP_MODE_BLOCKING = "blocking";
+    private static final String STARTUP_MODE_BACKGROUND = "background";
+
     @Inject
     private CarbonadoHandler carbonadoHandler;
 
+    @Inject
+    private CarbonadoExecutorProvider executorProvider;
+
+    @Inject
+    private CarbonadoBatchWriter batchWriter;
+
+    @Inject
+    private CarbonadoCacheProvider cacheProvider;
+
+    @Inject
+    private CarbonadoIndexProvider indexProvider;
+
+    @Inject
+    private CarbonadoSlowLogProvider slowLogProvider;
+
+    @Inject
+    private CarbonadoThrottleProvider throttleProvider;
+
+    @Inject
+    private CarbonadoMetricsProvider metricsProvider;
+
+    @Inject
+    private CarbonadoHealthProvider healthProvider;
+
     @Inject
     private RepositoryFactory repositoryFactory;
 
@@ -55,28 +118,131 @@ public class CarbonadoAddon extends AbstractGriffonAddon {
     @Inject
     private Metadata metadata;
 
+    @Inject
+    @Named("carbonado")
+    private Configuration configuration;
+
+    private ExecutorService warmupExecutor;
+
     @Override
     public void init(@Nonnull GriffonApplication application) {
-        mbeanManager.registerMBean(new RepositoryStorageMonitor(metadata, repositoryStorage));
+        mbeanManager.registerMBean(new RepositoryStorageMonitor(metadata, repositoryStorage, metricsProvider));
+        for (String repositoryName : repositoryFactory.getRepositoryNames()) {
+            mbeanManager.registerMBean(new RepositoryThrottleMonitor(metadata, repositoryName, throttleProvider));
+            mbeanManager.registerMBean(new RepositoryMetricsMonitor(metadata, repositoryName, metricsProvider));
+            mbeanManager.registerMBean(new RepositorySlowLogMonitor(metadata, repositoryName, slowLogProvider));
+            mbeanManager.registerMBean(new RepositoryCacheMonitor(metadata, repositoryName, cacheProvider));
+            mbeanManager.registerMBean(new RepositoryIndexesMonitor(metadata, repositoryName, indexProvider));
+            mbeanManager.registerMBean(new RepositoryHealthMonitor(metadata, repositoryName, healthProvider));
+            String type = getConfigValueAsString(repositoryFactory.getConfigurationFor(repositoryName), "type", "map");
+            // replicated repositories expose the environment of a bdb replica
+            if ("bdb".equalsIgnoreCase(type) || "offheap".equalsIgnoreCase(type) || "replicated".equalsIgnoreCase(type)) {
+                mbeanManager.registerMBean(new RepositoryEnvironmentMonitor(metadata, repositoryName, repositoryStorage));
+            }
+        }
     }
 
     public void onStartupStart(@Nonnull GriffonApplication application) {
+        List<String> repositoryNames = new ArrayList<>();
         for (String repositoryName : repositoryFactory.getRepositoryNames()) {
             Map<String, Object> config = repositoryFactory.getConfigurationFor(repositoryName);
             if (getConfigValueAsBoolean(config, "connect_on_startup", false)) {
-                carbonadoHandler.withCarbonado(new RepositoryCallback<Object>() {
-                    @Override
-                    public Object handle(@Nonnull String repositoryName, @Nonnull Repository repository) {
-                        return null;
-                    }
-                });
+                repositoryNames.add(repositoryName);
             }
         }
+
+        if (!repositoryNames.isEmpty()) {
+            warmup(application, repositoryNames, configuration.get(KEY_STARTUP, Collections.<String, Object>emptyMap()));
+        }
+    }
+
+    /**
+     * Connects the given repositories in parallel. Blocks until all of them are connected unless the startup mode is background.
+     */
+    @Nonnull
+    CompletableFuture<Void> warmup(@Nonnull GriffonApplication application, @Nonnull List<String> repositoryNames, @Nonnull Map<String, Object> startup) {
+        String mode = getConfigValueAsString(startup, "mode", STARTUP_MODE_BLOCKING);
+        if (!STARTUP_MODE_BLOCKING.equalsIgnoreCase(mode) && !STARTUP_MODE_BACKGROUND.equalsIgnoreCase(mode)) {
+            throw new IllegalArgumentException("Unknown startup mode '" + mode + "'. Valid values are " + STARTUP_MODE_BLOCKING + ", " + STARTUP_MODE_BACKGROUND);
+        }
+        int poolSize = getConfigValueAsInt(startup, "poolSize", Runtime.getRuntime().availableProcessors());
+        poolSize = Math.max(1, Math.min(poolSize, repositoryNames.size()));
+        long timeout = getConfigValueAsLong(startup, "timeout", 0L);
+
+        warmupExecutor = Executors.newFixedThreadPool(poolSize, new DaemonThreadFactory("carbonado-warmup"));
+        List<CompletableFuture<Void>> warmups = new ArrayList<>();
+        for (final String repositoryName : repositoryNames) {
+            warmups.add(CompletableFuture.runAsync(new Runnable() {
+                @Override
+                public void run() {
+                    warmupRepository(application, repositoryName);
+                }
+            }, warmupExecutor));
+        }
+
+        final ExecutorService executor = warmupExecutor;
+        CompletableFuture<Void> all = CompletableFuture.allOf(warmups.toArray(new CompletableFuture[warmups.size()]));
+        all.whenComplete((result, throwable) -> executor.shutdown());
+
+        if (STARTUP_MODE_BLOCKING.equalsIgnoreCase(mode)) {
+            awaitWarmup(all, timeout);
+        }
+        return all;
     }
 
     public void onShutdownStart(@Nonnull GriffonApplication application) {
-        for (String repositoryName : repositoryFactory.getRepositoryNames()) {
+        if (warmupExecutor != null) {
+            warmupExecutor.shutdownNow();
+        }
+
+        if (carbonadoHandler instanceof RepositoryLifecycle) {
+            ((RepositoryLifecycle) carbonadoHandler).shutdown();
+        }
+        healthProvider.shutdown();
+        batchWriter.shutdown();
+        executorProvider.shutdown();
+        // includes repositories opened on demand from a template
+        Set<String> repositoryNames = new LinkedHashSet<>(repositoryFactory.getRepositoryNames());
+        repositoryNames.addAll(repositoryStorage.getKeys());
+        for (String repositoryName : repositoryNames) {
             carbonadoHandler.closeCarbonado(repositoryName);
         }
     }
+
+    private void warmupRepository(@Nonnull GriffonApplication application, @Nonnull String repositoryName) {
+        application.getEventRouter().publishEvent("CarbonadoWarmupStart", asList(repositoryName));
+        long start = System.nanoTime();
+        try {
+            carbonadoHandler.withCarbonado(repositoryName, new RepositoryCallback<Object>() {
+                @Override
+                public Object handle(@Nonnull String repositoryName, @Nonnull Repository repository) {
+                    return null;
+                }
+            });
+        } catch (RuntimeException e) {
+            LOG.warn("Could not connect to carbonado '{}' on startup", repositoryName, e);
+            application.getEventRouter().publishEvent("CarbonadoWarmupError", asList(repositoryName, e));
+            throw e;
+        }
+        long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        LOG.debug("Connected to carbonado '{}' in {} ms", repositoryName, duration);
+        application.getEventRouter().publishEvent("CarbonadoWarmupEnd", asList(repositoryName, duration));
+    }
+
+    private static void awaitWarmup(@Nonnull CompletableFuture<Void> warmup, long timeout) {
+        try {
+            if (timeout > 0) {
+                warmup.get(timeout, TimeUnit.MILLISECONDS);
+            } else {
+                warmup.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GriffonException("Interrupted while connecting carbonado repositories on startup", e);
+        } catch (ExecutionException e) {
+            throw new GriffonException("Could not connect carbonado repositories on startup", e.getCause());
+        } catch (TimeoutException e) {
+            throw new GriffonException("Timed out after " + timeout + " ms while connecting carbonado repositories on startup", e);
+        }
+    }
 }
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Trigger;
+import griffon.exceptions.GriffonException;
+import griffon.plugins.carbonado.CarbonadoBootstrap;
+import griffon.plugins.carbonado.CarbonadoCacheProvider;
+import griffon.plugins.carbonado.RepositoryCache;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import java.util.AbstractMap.SimpleImmutableEntry;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Registers triggers that invalidate cached Storables whenever they are written through their repository. Triggers
+ * run before the enclosing transaction commits, so a concurrent load may still cache the previous row; writes made
+ * within a handler callback invalidate their keys once more after the callback has finished.
+ *
+ * @author Andres Almiray
+ */
+public class CarbonadoCacheBootstrap implements CarbonadoBootstrap {
+    private final CarbonadoCacheProvider cacheProvider;
+
+    @Inject
+    public CarbonadoCacheBootstrap(@Nonnull CarbonadoCacheProvider cacheProvider) {
+        this.cacheProvider = requireNonNull(cacheProvider, "Argument 'cacheProvider' must not be null");
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void init(@Nonnull String repositoryName, @Nonnull Repository repository) {
+        RepositoryCache cache = cacheProvider.getCache(repositoryName);
+        cache.clear();
+        for (Class<?> type : cache.getStorableTypes()) {
+            try {
+                repository.storageFor((Class<Storable>) type).addTrigger(new InvalidatingTrigger(cache));
+            } catch (RepositoryException e) {
+                throw new GriffonException("Could not enable caching of " + type.getName() + " in repository '" + repositoryName + "'", e);
+            }
+        }
+    }
+
+    @Override
+    public void destroy(@Nonnull String repositoryName, @Nonnull Repository repository) {
+        cacheProvider.getCache(repositoryName).clear();
+    }
+
+    private static final class InvalidatingTrigger extends Trigger<Storable> {
+        private final RepositoryCache cache;
+
+        private InvalidatingTrigger(@Nonnull RepositoryCache cache) {
+            this.cache = cache;
+        }
+
+        private void invalidate(@Nonnull Storable storable) {
+            cache.invalidate(storable);
+            Storable key = storable.copy();
+            CallbackCompletion.defer(new SimpleImmutableEntry<>(cache, storable.toStringKeyOnly()), () -> cache.invalidate(key));
+        }
+
+        @Override
+        public Object beforeInsert(Storable storable) throws PersistException {
+            cache.invalidate(storable);
+            return null;
+        }
+
+        @Override
+        public Object beforeTryInsert(Storable storable) throws PersistException {
+            cache.invalidate(storable);
+            return null;
+        }
+
+        @Override
+        public void afterInsert(Storable storable, Object state) throws PersistException {
+            invalidate(storable);
+        }
+
+        @Override
+        public void afterTryInsert(Storable storable, Object state) throws PersistException {
+            invalidate(storable);
+        }
+
+        @Override
+        public Object beforeUpdate(Storable storable) throws PersistException {
+            cache.invalidate(storable);
+            return null;
+        }
+
+        @Override
+        public Object beforeTryUpdate(Storable storable) throws PersistException {
+            cache.invalidate(storable);
+            return null;
+        }
+
+        @Override
+        public void afterUpdate(Storable storable, Object state) throws PersistException {
+            invalidate(storable);
+        }
+
+        @Override
+        public void afterTryUpdate(Storable storable, Object state) throws PersistException {
+            invalidate(storable);
+        }
+
+        @Override
+        public Object beforeDelete(Storable storable) throws PersistException {
+            cache.invalidate(storable);
+            return null;
+        }
+
+        @Override
+        public Object beforeTryDelete(Storable storable) throws PersistException {
+            cache.invalidate(storable);
+            return null;
+        }
+
+        @Override
+        public void afterDelete(Storable storable, Object state) throws PersistException {
+            invalidate(storable);
+        }
+
+        @Override
+        public void afterTryDelete(Storable storable, Object state) throws PersistException {
+            invalidate(storable);
+        }
+    }
+}
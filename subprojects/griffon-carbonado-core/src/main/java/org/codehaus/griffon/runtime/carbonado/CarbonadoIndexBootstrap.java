@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import com.amazon.carbonado.Repository;
+import griffon.core.GriffonApplication;
+import griffon.plugins.carbonado.CarbonadoBootstrap;
+import griffon.plugins.carbonado.CarbonadoIndexProvider;
+import griffon.plugins.carbonado.RepositoryIndexes;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+
+import static java.util.Arrays.asList;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Builds the declared indexes of a repository as soon as it is opened.
+ *
+ * @author Andres Almiray
+ */
+public class CarbonadoIndexBootstrap implements CarbonadoBootstrap {
+    private final CarbonadoIndexProvider indexProvider;
+    private final GriffonApplication application;
+
+    @Inject
+    public CarbonadoIndexBootstrap(@Nonnull CarbonadoIndexProvider indexProvider, @Nonnull GriffonApplication application) {
+        this.indexProvider = requireNonNull(indexProvider, "Argument 'indexProvider' must not be null");
+        this.application = requireNonNull(application, "Argument 'application' must not be null");
+    }
+
+    @Override
+    public void init(@Nonnull String repositoryName, @Nonnull Repository repository) {
+        RepositoryIndexes indexes = indexProvider.getIndexes(repositoryName);
+        if (indexes.getDeclaredIndexes().isEmpty()) {
+            return;
+        }
+
+        indexes.build(repository);
+        application.getEventRouter().publishEvent("CarbonadoIndexBuild", asList(repositoryName, indexes.getIndexCount(), indexes.getIndexEntryCount(), indexes.getBuildTime()));
+    }
+
+    @Override
+    public void destroy(@Nonnull String repositoryName, @Nonnull Repository repository) {
+        indexProvider.getIndexes(repositoryName).reset();
+    }
+}
@@ -19,7 +19,18 @@ import griffon.core.Configuration;
 import griffon.core.addon.GriffonAddon;
 import griffon.core.injection.Module;
 import griffon.inject.DependsOn;
+import griffon.plugins.carbonado.CarbonadoBatchWriter;
+import griffon.plugins.carbonado.CarbonadoBootstrap;
+import griffon.plugins.carbonado.CarbonadoCacheProvider;
+import griffon.plugins.carbonado.CarbonadoExecutorProvider;
 import griffon.plugins.carbonado.CarbonadoHandler;
+import griffon.plugins.carbonado.CarbonadoHealthProvider;
+import griffon.plugins.carbonado.CarbonadoIndexProvider;
+import griffon.plugins.carbonado.CarbonadoMetricsExporter;
+import griffon.plugins.carbonado.CarbonadoMetricsProvider;
+import griffon.plugins.carbonado.CarbonadoSlowLogProvider;
+import griffon.plugins.carbonado.CarbonadoThrottleProvider;
+import griffon.plugins.carbonado.CarbonadoTransfer;
 import griffon.plugins.carbonado.RepositoryFactory;
 import griffon.plugins.carbonado.RepositoryStorage;
 import org.codehaus.griffon.runtime.core.injection.AbstractModule;
@@ -59,10 +70,61 @@ public class CarbonadoModule extends AbstractModule {
             .to(DefaultRepositoryFactory.class)
             .asSingleton();
 
+        bind(CarbonadoExecutorProvider.class)
+            .to(DefaultCarbonadoExecutorProvider.class)
+            .asSingleton();
+
+        bind(CarbonadoThrottleProvider.class)
+            .to(DefaultCarbonadoThrottleProvider.class)
+            .asSingleton();
+
+        bind(CarbonadoMetricsProvider.class)
+            .to(DefaultCarbonadoMetricsProvider.class)
+            .asSingleton();
+
+        bind(CarbonadoMetricsExporter.class)
+            .withClassifier(named("carbonado-in-memory"))
+            .to(InMemoryCarbonadoMetricsExporter.class)
+            .asSingleton();
+
+        bind(CarbonadoSlowLogProvider.class)
+            .to(DefaultCarbonadoSlowLogProvider.class)
+            .asSingleton();
+
+        bind(CarbonadoHealthProvider.class)
+            .to(DefaultCarbonadoHealthProvider.class)
+            .asSingleton();
+
         bind(CarbonadoHandler.class)
             .to(DefaultCarbonadoHandler.class)
             .asSingleton();
 
+        bind(CarbonadoCacheProvider.class)
+            .to(DefaultCarbonadoCacheProvider.class)
+            .asSingleton();
+
+        bind(CarbonadoBootstrap.class)
+            .withClassifier(named("carbonado-cache"))
+            .to(CarbonadoCacheBootstrap.class)
+            .asSingleton();
+
+        bind(CarbonadoIndexProvider.class)
+            .to(DefaultCarbonadoIndexProvider.class)
+            .asSingleton();
+
+        bind(CarbonadoBootstrap.class)
+            .withClassifier(named("carbonado-indexes"))
+            .to(CarbonadoIndexBootstrap.class)
+            .asSingleton();
+
+        bind(CarbonadoBatchWriter.class)
+            .to(DefaultCarbonadoBatchWriter.class)
+            .asSingleton();
+
+        bind(CarbonadoTransfer.class)
+            .to(DefaultCarbonadoTransfer.class)
+            .asSingleton();
+
         bind(GriffonAddon.class)
             .to(CarbonadoAddon.class)
             .asSingleton();
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.FetchException;
+import griffon.exceptions.GriffonException;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Reads a {@code Cursor} in chunks of {@code chunkSize} elements. Splitting hands the current chunk over
+ * to another spliterator, which lets parallel streams process chunks concurrently while only one thread
+ * at a time reads from the cursor. The cursor is closed once exhausted or when {@link #close()} is called,
+ * after which {@code onClose} runs exactly once.
+ *
+ * @author Andres Almiray
+ */
+final class CursorSpliterator<S> implements Spliterator<S> {
+    private static final int CHARACTERISTICS = ORDERED | NONNULL;
+
+    private final Cursor<S> cursor;
+    private final int chunkSize;
+    private final Runnable onClose;
+    private List<S> chunk = Collections.emptyList();
+    private int index;
+    private boolean exhausted;
+    private boolean closed;
+
+    CursorSpliterator(@Nonnull Cursor<S> cursor, int chunkSize, @Nonnull Runnable onClose) {
+        this.cursor = requireNonNull(cursor, "Argument 'cursor' must not be null");
+        this.chunkSize = Math.max(1, chunkSize);
+        this.onClose = requireNonNull(onClose, "Argument 'onClose' must not be null");
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super S> action) {
+        requireNonNull(action, "Argument 'action' must not be null");
+        if (!fill()) {
+            return false;
+        }
+        action.accept(chunk.get(index++));
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super S> action) {
+        requireNonNull(action, "Argument 'action' must not be null");
+        while (fill()) {
+            for (int size = chunk.size(); index < size; index++) {
+                action.accept(chunk.get(index));
+            }
+        }
+    }
+
+    @Override
+    public Spliterator<S> trySplit() {
+        if (!fill()) {
+            return null;
+        }
+        Object[] prefix = chunk.subList(index, chunk.size()).toArray();
+        chunk = Collections.emptyList();
+        index = 0;
+        return Spliterators.spliterator(prefix, CHARACTERISTICS);
+    }
+
+    @Override
+    public long estimateSize() {
+        return exhausted ? chunk.size() - index : Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return CHARACTERISTICS;
+    }
+
+    void close() {
+        chunk = Collections.emptyList();
+        index = 0;
+        closeCursor();
+    }
+
+    private boolean fill() {
+        if (index < chunk.size()) {
+            return true;
+        }
+        if (exhausted) {
+            return false;
+        }
+
+        List<S> next = new ArrayList<>(chunkSize);
+        try {
+            cursor.copyInto(next, chunkSize);
+        } catch (FetchException e) {
+            close();
+            throw new GriffonException("Could not fetch next " + chunkSize + " elements", e);
+        }
+        chunk = next;
+        index = 0;
+        if (next.size() < chunkSize) {
+            closeCursor();
+        }
+        return !next.isEmpty();
+    }
+
+    private void closeCursor() {
+        exhausted = true;
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            cursor.close();
+        } catch (FetchException e) {
+            throw new GriffonException("Could not close cursor", e);
+        } finally {
+            onClose.run();
+        }
+    }
+}
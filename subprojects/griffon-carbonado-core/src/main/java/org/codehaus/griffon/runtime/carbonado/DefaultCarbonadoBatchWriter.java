@@ -0,0 +1,359 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Storage;
+import griffon.exceptions.GriffonException;
+import griffon.plugins.carbonado.CarbonadoBatchWriter;
+import griffon.plugins.carbonado.CarbonadoHandler;
+import griffon.plugins.carbonado.RepositoryCallback;
+import griffon.plugins.carbonado.RepositoryFactory;
+import griffon.plugins.carbonado.RepositoryOverloadException;
+import griffon.plugins.carbonado.ShardedRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static griffon.util.ConfigUtils.getConfigValue;
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Queued Storables are copied into an instance prepared by the repository that is open when their batch is written,
+ * hence writes survive the repository being evicted, reconnected or closed and opened again in the meantime.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultCarbonadoBatchWriter implements CarbonadoBatchWriter {
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultCarbonadoBatchWriter.class);
+    private static final String ERROR_REPOSITORY_NAME_BLANK = "Argument 'repositoryName' must not be blank";
+    private static final String ERROR_STORABLE_NULL = "Argument 'storable' must not be null";
+
+    private final CarbonadoHandler carbonadoHandler;
+    private final RepositoryFactory repositoryFactory;
+    private final ConcurrentMap<String, ConcurrentMap<Class<?>, BatchQueue>> queues = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private volatile boolean shutdown;
+
+    @Inject
+    public DefaultCarbonadoBatchWriter(@Nonnull CarbonadoHandler carbonadoHandler, @Nonnull RepositoryFactory repositoryFactory) {
+        this.carbonadoHandler = requireNonNull(carbonadoHandler, "Argument 'carbonadoHandler' must not be null");
+        this.repositoryFactory = requireNonNull(repositoryFactory, "Argument 'repositoryFactory' must not be null");
+        this.scheduler = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), new DaemonThreadFactory("carbonado-batch"));
+    }
+
+    @Nonnull
+    @Override
+    public <S extends Storable> CompletableFuture<S> insert(@Nonnull String repositoryName, @Nonnull S storable) {
+        return enqueue(repositoryName, storable, WriteKind.INSERT);
+    }
+
+    @Nonnull
+    @Override
+    public <S extends Storable> CompletableFuture<S> update(@Nonnull String repositoryName, @Nonnull S storable) {
+        return enqueue(repositoryName, storable, WriteKind.UPDATE);
+    }
+
+    @Nonnull
+    @Override
+    public <S extends Storable> CompletableFuture<S> delete(@Nonnull String repositoryName, @Nonnull S storable) {
+        return enqueue(repositoryName, storable, WriteKind.DELETE);
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<Void> flush(@Nonnull String repositoryName) {
+        requireNonBlank(repositoryName, ERROR_REPOSITORY_NAME_BLANK);
+        requireRunning();
+        ConcurrentMap<Class<?>, BatchQueue> repositoryQueues = queues.get(repositoryName);
+        if (repositoryQueues == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        List<CompletableFuture<Void>> flushes = new ArrayList<>();
+        for (BatchQueue queue : repositoryQueues.values()) {
+            flushes.add(CompletableFuture.runAsync(queue::drain, scheduler));
+        }
+        return CompletableFuture.allOf(flushes.toArray(new CompletableFuture[flushes.size()]));
+    }
+
+    @Override
+    public void remove(@Nonnull String repositoryName) {
+        requireNonBlank(repositoryName, ERROR_REPOSITORY_NAME_BLANK);
+        Map<Class<?>, BatchQueue> repositoryQueues = queues.remove(repositoryName);
+        if (repositoryQueues != null) {
+            for (BatchQueue queue : repositoryQueues.values()) {
+                queue.close();
+                queue.discard();
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        for (Map<Class<?>, BatchQueue> repositoryQueues : queues.values()) {
+            for (BatchQueue queue : repositoryQueues.values()) {
+                queue.close();
+                queue.drain();
+            }
+        }
+        queues.clear();
+        scheduler.shutdown();
+    }
+
+    @Nonnull
+    private <S extends Storable> CompletableFuture<S> enqueue(@Nonnull String repositoryName, @Nonnull S storable, @Nonnull WriteKind kind) {
+        requireNonBlank(repositoryName, ERROR_REPOSITORY_NAME_BLANK);
+        requireNonNull(storable, ERROR_STORABLE_NULL);
+        requireRunning();
+
+        CompletableFuture<S> future = new CompletableFuture<>();
+        getQueue(repositoryName, storable.storableType()).offer(new PendingWrite(kind, storable, future));
+        return future;
+    }
+
+    private void requireRunning() {
+        if (shutdown) {
+            throw new IllegalStateException("Batch writer has been shut down");
+        }
+    }
+
+    @Nonnull
+    private BatchQueue getQueue(@Nonnull String repositoryName, @Nonnull Class<?> storableType) {
+        ConcurrentMap<Class<?>, BatchQueue> repositoryQueues = queues.computeIfAbsent(repositoryName, k -> new ConcurrentHashMap<>());
+        BatchQueue queue = repositoryQueues.get(storableType);
+        if (queue == null) {
+            queue = repositoryQueues.computeIfAbsent(storableType, type -> createQueue(repositoryName));
+        }
+        return queue;
+    }
+
+    @Nonnull
+    private BatchQueue createQueue(@Nonnull String repositoryName) {
+        Map<String, Object> config = getConfigValue(repositoryFactory.getConfigurationFor(repositoryName), "batch", Collections.<String, Object>emptyMap());
+        return new BatchQueue(repositoryName,
+            Math.max(1, getConfigValueAsInt(config, "maxBatchSize", 500)),
+            Math.max(1, getConfigValueAsInt(config, "queueCapacity", 10000)),
+            Math.max(1L, getConfigValueAsLong(config, "flushInterval", 50L)),
+            getConfigValueAsLong(config, "offerTimeout", 0L));
+    }
+
+    private enum WriteKind {
+        INSERT, UPDATE, DELETE
+    }
+
+    private static final class PendingWrite {
+        private final WriteKind kind;
+        private final CompletableFuture future;
+        private Storable storable;
+
+        private PendingWrite(@Nonnull WriteKind kind, @Nonnull Storable storable, @Nonnull CompletableFuture<?> future) {
+            this.kind = kind;
+            this.storable = storable;
+            this.future = future;
+        }
+
+        private void apply(@Nonnull Repository repository) throws RepositoryException {
+            storable = bind(repository, storable);
+            switch (kind) {
+                case INSERT:
+                    storable.insert();
+                    break;
+                case UPDATE:
+                    storable.update();
+                    break;
+                case DELETE:
+                    storable.delete();
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown write " + kind);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void complete() {
+            future.complete(storable);
+        }
+
+        private void fail(@Nonnull Throwable throwable) {
+            future.completeExceptionally(throwable);
+        }
+    }
+
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    private static Storable bind(@Nonnull Repository repository, @Nonnull Storable storable) throws RepositoryException {
+        if (repository instanceof ShardedRepository) {
+            return ((ShardedRepository) repository).route(storable);
+        }
+        Storage<Storable> storage = repository.storageFor((Class<Storable>) storable.storableType());
+        if (storable.storage() == storage) {
+            return storable;
+        }
+        Storable bound = storage.prepare();
+        storable.copyAllProperties(bound);
+        return bound;
+    }
+
+    private final class BatchQueue {
+        private final String repositoryName;
+        private final int maxBatchSize;
+        private final long offerTimeout;
+        private final BlockingQueue<PendingWrite> pending;
+        private final AtomicBoolean flushRequested = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final Object flushLock = new Object();
+        private final ScheduledFuture<?> periodicFlush;
+
+        private BatchQueue(@Nonnull String repositoryName, int maxBatchSize, int queueCapacity, long flushInterval, long offerTimeout) {
+            this.repositoryName = repositoryName;
+            this.maxBatchSize = maxBatchSize;
+            this.offerTimeout = offerTimeout;
+            this.pending = new ArrayBlockingQueue<>(queueCapacity);
+            this.periodicFlush = scheduler.scheduleWithFixedDelay(this::drain, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }
+
+        private void offer(@Nonnull PendingWrite write) {
+            if (closed.get()) {
+                throw new IllegalStateException("Batch writer for repository '" + repositoryName + "' has been shut down");
+            }
+
+            boolean accepted;
+            try {
+                if (offerTimeout > 0) {
+                    accepted = pending.offer(write, offerTimeout, TimeUnit.MILLISECONDS);
+                } else {
+                    pending.put(write);
+                    accepted = true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RepositoryOverloadException("Interrupted while queueing a write for repository '" + repositoryName + "'", e);
+            }
+
+            if (!accepted) {
+                throw new RepositoryOverloadException("Write queue of repository '" + repositoryName + "' is full");
+            }
+            if (closed.get() && pending.remove(write)) {
+                // the queue was removed while the write was being queued, nothing would ever drain it
+                throw new IllegalStateException("Batch writer for repository '" + repositoryName + "' has been shut down");
+            }
+
+            if (pending.size() >= maxBatchSize && flushRequested.compareAndSet(false, true)) {
+                scheduler.execute(this::drain);
+            }
+        }
+
+        private void close() {
+            closed.set(true);
+            periodicFlush.cancel(false);
+        }
+
+        private void discard() {
+            List<PendingWrite> discarded = new ArrayList<>();
+            pending.drainTo(discarded);
+            for (PendingWrite write : discarded) {
+                write.fail(new IllegalStateException("Repository '" + repositoryName + "' was closed before the write could be flushed"));
+            }
+        }
+
+        private void drain() {
+            // a single flush per queue at a time keeps writes of the same type in submission order
+            synchronized (flushLock) {
+                flushRequested.set(false);
+                List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+                while (pending.drainTo(batch, maxBatchSize) > 0) {
+                    write(batch);
+                    batch.clear();
+                }
+            }
+        }
+
+        private void write(@Nonnull final List<PendingWrite> batch) {
+            try {
+                carbonadoHandler.withCarbonadoTransaction(repositoryName, new RepositoryCallback<Void>() {
+                    @Override
+                    public Void handle(@Nonnull String repositoryName, @Nonnull Repository repository) {
+                        for (PendingWrite write : batch) {
+                            try {
+                                write.apply(repository);
+                            } catch (RepositoryException e) {
+                                throw new BatchWriteException(e);
+                            }
+                        }
+                        return null;
+                    }
+                });
+                for (PendingWrite write : batch) {
+                    write.complete();
+                }
+            } catch (RuntimeException e) {
+                if (batch.size() == 1 || !isPersistFailure(e)) {
+                    // overload and availability errors would fail every single write again
+                    Throwable failure = unwrap(e);
+                    for (PendingWrite write : batch) {
+                        write.fail(failure);
+                    }
+                } else {
+                    LOG.debug("Batch of {} writes on carbonado '{}' failed. Retrying writes one at a time", batch.size(), repositoryName, e);
+                    for (PendingWrite write : batch) {
+                        write(Collections.singletonList(write));
+                    }
+                }
+            }
+        }
+
+        private boolean isPersistFailure(@Nonnull RuntimeException e) {
+            return e instanceof BatchWriteException || (e instanceof GriffonException && e.getCause() instanceof PersistException);
+        }
+
+        @Nonnull
+        private Throwable unwrap(@Nonnull RuntimeException e) {
+            return e instanceof BatchWriteException ? e.getCause() : e;
+        }
+    }
+
+    private static final class BatchWriteException extends RuntimeException {
+        private static final long serialVersionUID = -1597213376316215307L;
+
+        private BatchWriteException(@Nonnull RepositoryException cause) {
+            super(cause);
+        }
+    }
+}
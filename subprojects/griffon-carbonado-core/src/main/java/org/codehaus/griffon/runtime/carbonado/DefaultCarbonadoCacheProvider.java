@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import com.amazon.carbonado.Storable;
+import griffon.core.GriffonApplication;
+import griffon.plugins.carbonado.CarbonadoCacheProvider;
+import griffon.plugins.carbonado.CarbonadoHandler;
+import griffon.plugins.carbonado.RepositoryCache;
+import griffon.plugins.carbonado.RepositoryFactory;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static griffon.util.ConfigUtils.getConfigValue;
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class DefaultCarbonadoCacheProvider implements CarbonadoCacheProvider {
+    private final CarbonadoHandler carbonadoHandler;
+    private final RepositoryFactory repositoryFactory;
+    private final GriffonApplication application;
+    private final ConcurrentMap<String, RepositoryCache> caches = new ConcurrentHashMap<>();
+
+    @Inject
+    public DefaultCarbonadoCacheProvider(@Nonnull CarbonadoHandler carbonadoHandler, @Nonnull RepositoryFactory repositoryFactory, @Nonnull GriffonApplication application) {
+        this.carbonadoHandler = requireNonNull(carbonadoHandler, "Argument 'carbonadoHandler' must not be null");
+        this.repositoryFactory = requireNonNull(repositoryFactory, "Argument 'repositoryFactory' must not be null");
+        this.application = requireNonNull(application, "Argument 'application' must not be null");
+    }
+
+    @Nonnull
+    @Override
+    public RepositoryCache getCache(@Nonnull String repositoryName) {
+        requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        RepositoryCache cache = caches.get(repositoryName);
+        if (cache == null) {
+            cache = caches.computeIfAbsent(repositoryName, this::createCache);
+        }
+        return cache;
+    }
+
+    @Override
+    public void remove(@Nonnull String repositoryName) {
+        requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        RepositoryCache cache = caches.remove(repositoryName);
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    @Nonnull
+    private RepositoryCache createCache(@Nonnull String repositoryName) {
+        Map<String, Object> config = getConfigValue(repositoryFactory.getConfigurationFor(repositoryName), "cache", Collections.<String, Object>emptyMap());
+        Set<Class<?>> storableTypes = new LinkedHashSet<>();
+        for (Class<? extends Storable> type : StorableTypes.resolve(getConfigValue(config, "storables", Collections.emptyList()), application.getResourceHandler().classloader())) {
+            storableTypes.add(type);
+        }
+
+        return new DefaultRepositoryCache(repositoryName,
+            carbonadoHandler,
+            storableTypes.isEmpty() ? 0 : getConfigValueAsInt(config, "maxEntries", 10000),
+            getConfigValueAsLong(config, "expireAfterWrite", 0L),
+            storableTypes);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import griffon.plugins.carbonado.CarbonadoExecutorProvider;
+import griffon.plugins.carbonado.RepositoryFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static griffon.util.ConfigUtils.getConfigValue;
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsString;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class DefaultCarbonadoExecutorProvider implements CarbonadoExecutorProvider {
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultCarbonadoExecutorProvider.class);
+    private static final String ERROR_REPOSITORY_NAME_BLANK = "Argument 'repositoryName' must not be blank";
+    private static final String TYPE_FIXED = "fixed";
+    private static final String TYPE_CACHED = "cached";
+    private static final String TYPE_VIRTUAL = "virtual";
+
+    private final RepositoryFactory repositoryFactory;
+    private final ConcurrentMap<String, ExecutorService> executors = new ConcurrentHashMap<>();
+
+    @Inject
+    public DefaultCarbonadoExecutorProvider(@Nonnull RepositoryFactory repositoryFactory) {
+        this.repositoryFactory = requireNonNull(repositoryFactory, "Argument 'repositoryFactory' must not be null");
+    }
+
+    @Nonnull
+    @Override
+    public ExecutorService getExecutorService(@Nonnull String repositoryName) {
+        requireNonBlank(repositoryName, ERROR_REPOSITORY_NAME_BLANK);
+        ExecutorService executorService = executors.get(repositoryName);
+        if (executorService == null) {
+            requireConfigured(repositoryName);
+            executorService = executors.computeIfAbsent(repositoryName, this::createExecutorService);
+        }
+        return executorService;
+    }
+
+    @Override
+    public void remove(@Nonnull String repositoryName) {
+        requireNonBlank(repositoryName, ERROR_REPOSITORY_NAME_BLANK);
+        ExecutorService executorService = executors.remove(repositoryName);
+        if (executorService != null) {
+            executorService.shutdown();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        for (ExecutorService executorService : executors.values()) {
+            executorService.shutdown();
+        }
+        executors.clear();
+    }
+
+    private void requireConfigured(@Nonnull String repositoryName) {
+        // pools are cached until the repository is closed, never create one for a name that can not be opened
+        if (!repositoryFactory.getRepositoryNames().contains(repositoryName) && repositoryFactory.getTemplateFor(repositoryName) == null) {
+            throw new IllegalArgumentException("Repository '" + repositoryName + "' is not configured.");
+        }
+    }
+
+    @Nonnull
+    private ExecutorService createExecutorService(@Nonnull String repositoryName) {
+        Map<String, Object> config = getConfigValue(repositoryFactory.getConfigurationFor(repositoryName), "executor", Collections.<String, Object>emptyMap());
+        String type = getConfigValueAsString(config, "type", TYPE_FIXED);
+        String prefix = "carbonado-" + repositoryName;
+
+        if (TYPE_FIXED.equalsIgnoreCase(type)) {
+            int poolSize = getConfigValueAsInt(config, "poolSize", Runtime.getRuntime().availableProcessors());
+            return Executors.newFixedThreadPool(Math.max(1, poolSize), new DaemonThreadFactory(prefix));
+        } else if (TYPE_CACHED.equalsIgnoreCase(type)) {
+            return Executors.newCachedThreadPool(new DaemonThreadFactory(prefix));
+        } else if (TYPE_VIRTUAL.equalsIgnoreCase(type)) {
+            return createVirtualThreadExecutor(repositoryName, prefix);
+        } else {
+            throw new IllegalArgumentException("Unknown executor type '" + type + "' for repository '" + repositoryName + "'. Valid values are " + TYPE_FIXED + ", " + TYPE_CACHED + ", " + TYPE_VIRTUAL);
+        }
+    }
+
+    @Nonnull
+    private static ExecutorService createVirtualThreadExecutor(@Nonnull String repositoryName, @Nonnull String prefix) {
+        // virtual threads are only available on JDK 21+, resolve them reflectively to keep running on JDK8
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOG.warn("Virtual threads are not supported by this JVM. Repository '{}' will use a cached thread pool instead", repositoryName);
+            return Executors.newCachedThreadPool(new DaemonThreadFactory(prefix));
+        }
+    }
+}
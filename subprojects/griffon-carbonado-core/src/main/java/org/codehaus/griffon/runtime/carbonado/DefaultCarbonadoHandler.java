@@ -15,37 +15,102 @@
  */
 package org.codehaus.griffon.runtime.carbonado;
 
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.IsolationLevel;
+import com.amazon.carbonado.PersistException;
 import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Transaction;
+import griffon.exceptions.GriffonException;
+import griffon.plugins.carbonado.CarbonadoBatchWriter;
+import griffon.plugins.carbonado.CarbonadoCacheProvider;
+import griffon.plugins.carbonado.CarbonadoExecutorProvider;
 import griffon.plugins.carbonado.CarbonadoHandler;
+import griffon.plugins.carbonado.CarbonadoHealthProvider;
+import griffon.plugins.carbonado.CarbonadoIndexProvider;
+import griffon.plugins.carbonado.CarbonadoMetricsProvider;
+import griffon.plugins.carbonado.CarbonadoSlowLogProvider;
+import griffon.plugins.carbonado.CarbonadoThrottleProvider;
+import griffon.plugins.carbonado.QueryCallback;
 import griffon.plugins.carbonado.RepositoryCallback;
 import griffon.plugins.carbonado.RepositoryFactory;
+import griffon.plugins.carbonado.RepositoryHealth;
+import griffon.plugins.carbonado.RepositoryMetrics;
+import griffon.plugins.carbonado.RepositorySlowLog;
 import griffon.plugins.carbonado.RepositoryStorage;
+import griffon.plugins.carbonado.RepositoryThrottle;
+import griffon.plugins.carbonado.RepositoryUnavailableException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import javax.inject.Provider;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import static griffon.util.ConfigUtils.getConfigValue;
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
 import static griffon.util.GriffonNameUtils.requireNonBlank;
 import static java.util.Objects.requireNonNull;
 
 /**
  * @author Andres Almiray
  */
-public class DefaultCarbonadoHandler implements CarbonadoHandler {
+public class DefaultCarbonadoHandler implements CarbonadoHandler, RepositoryLifecycle {
     private static final Logger LOG = LoggerFactory.getLogger(DefaultCarbonadoHandler.class);
     private static final String ERROR_VOLUME_NAME_BLANK = "Argument 'repositoryName' must not be blank";
     private static final String ERROR_REPOSITORY_NULL = "Argument 'repository' must not be null";
     private static final String ERROR_CALLBACK_NULL = "Argument 'callback' must not be null";
+    private static final int DEFAULT_STREAM_CHUNK_SIZE = 500;
+    private static final long DEFAULT_CLOSE_TIMEOUT = 5000L;
 
     private final RepositoryFactory repositoryFactory;
     private final RepositoryStorage repositoryStorage;
+    private final CarbonadoExecutorProvider executorProvider;
+    private final CarbonadoThrottleProvider throttleProvider;
+    private final CarbonadoMetricsProvider metricsProvider;
+    private final CarbonadoSlowLogProvider slowLogProvider;
+    private final CarbonadoHealthProvider healthProvider;
+    private final ConcurrentMap<String, TransactionRetryPolicy> retryPolicies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Integer> streamChunkSizes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<Repository>> pendingRepositories = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, RepositoryLease> leases = new ConcurrentHashMap<>();
+    private ScheduledExecutorService evictionScheduler;
+    private boolean shutdown;
 
     @Inject
-    public DefaultCarbonadoHandler(@Nonnull RepositoryFactory repositoryFactory, @Nonnull RepositoryStorage repositoryStorage) {
+    private Provider<CarbonadoBatchWriter> batchWriter;
+
+    @Inject
+    private Provider<CarbonadoCacheProvider> cacheProvider;
+
+    @Inject
+    private Provider<CarbonadoIndexProvider> indexProvider;
+
+    @Inject
+    public DefaultCarbonadoHandler(@Nonnull RepositoryFactory repositoryFactory, @Nonnull RepositoryStorage repositoryStorage, @Nonnull CarbonadoExecutorProvider executorProvider, @Nonnull CarbonadoThrottleProvider throttleProvider, @Nonnull CarbonadoMetricsProvider metricsProvider, @Nonnull CarbonadoSlowLogProvider slowLogProvider, @Nonnull CarbonadoHealthProvider healthProvider) {
         this.repositoryFactory = requireNonNull(repositoryFactory, "Argument 'repositoryFactory' must not be null");
         this.repositoryStorage = requireNonNull(repositoryStorage, "Argument 'repositoryStorage' must not be null");
+        this.executorProvider = requireNonNull(executorProvider, "Argument 'executorProvider' must not be null");
+        this.throttleProvider = requireNonNull(throttleProvider, "Argument 'throttleProvider' must not be null");
+        this.metricsProvider = requireNonNull(metricsProvider, "Argument 'metricsProvider' must not be null");
+        this.slowLogProvider = requireNonNull(slowLogProvider, "Argument 'slowLogProvider' must not be null");
+        this.healthProvider = requireNonNull(healthProvider, "Argument 'healthProvider' must not be null");
     }
 
     @Nullable
@@ -60,8 +125,153 @@ public class DefaultCarbonadoHandler implements CarbonadoHandler {
         requireNonBlank(repositoryName, ERROR_VOLUME_NAME_BLANK);
         requireNonNull(callback, ERROR_CALLBACK_NULL);
 
-        Repository repository = getRepository(repositoryName);
-        return doWithCarbonado(repositoryName, repository, callback);
+        requireAvailable(repositoryName);
+        RepositoryLease lease = acquireLease(repositoryName);
+        try {
+            Repository repository = getRepository(repositoryName);
+            RepositoryMetrics metrics = metricsProvider.getMetrics(repositoryName);
+            return execute(repositoryName, metrics, callback, () -> doWithCarbonado(repositoryName, repository, callback));
+        } finally {
+            lease.release();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public <R> CompletableFuture<R> withCarbonadoAsync(@Nonnull RepositoryCallback<R> callback) {
+        return withCarbonadoAsync(DefaultRepositoryFactory.KEY_DEFAULT, callback);
+    }
+
+    @Nonnull
+    @Override
+    public <R> CompletableFuture<R> withCarbonadoAsync(@Nonnull final String repositoryName, @Nonnull final RepositoryCallback<R> callback) {
+        requireNonBlank(repositoryName, ERROR_VOLUME_NAME_BLANK);
+        requireNonNull(callback, ERROR_CALLBACK_NULL);
+
+        return CompletableFuture.supplyAsync(() -> withCarbonado(repositoryName, callback), executorProvider.getExecutorService(repositoryName));
+    }
+
+    @Nullable
+    @Override
+    public <R> R withCarbonadoTransaction(@Nonnull RepositoryCallback<R> callback) {
+        return withCarbonadoTransaction(DefaultRepositoryFactory.KEY_DEFAULT, callback);
+    }
+
+    @Nullable
+    @Override
+    public <R> R withCarbonadoTransaction(@Nonnull String repositoryName, @Nonnull RepositoryCallback<R> callback) {
+        return withCarbonadoTransaction(repositoryName, null, callback);
+    }
+
+    @Nullable
+    @Override
+    public <R> R withCarbonadoTransaction(@Nonnull String repositoryName, @Nullable IsolationLevel isolationLevel, @Nonnull RepositoryCallback<R> callback) {
+        requireNonBlank(repositoryName, ERROR_VOLUME_NAME_BLANK);
+        requireNonNull(callback, ERROR_CALLBACK_NULL);
+
+        requireAvailable(repositoryName);
+        RepositoryLease lease = acquireLease(repositoryName);
+        try {
+            Repository repository = getRepository(repositoryName);
+            TransactionRetryPolicy retryPolicy = getRetryPolicy(repositoryName);
+            RepositoryMetrics metrics = metricsProvider.getMetrics(repositoryName);
+            IsolationLevel level = isolationLevel != null ? isolationLevel : retryPolicy.getIsolationLevel();
+            return execute(repositoryName, metrics, callback, () -> doWithCarbonadoTransaction(repositoryName, repository, level, retryPolicy, metrics, callback));
+        } finally {
+            lease.release();
+        }
+    }
+
+    @Nullable
+    @Override
+    public <R> R withCarbonadoReadOnly(@Nonnull RepositoryCallback<R> callback) {
+        return withCarbonadoReadOnly(DefaultRepositoryFactory.KEY_DEFAULT, callback);
+    }
+
+    @Nullable
+    @Override
+    public <R> R withCarbonadoReadOnly(@Nonnull String repositoryName, @Nonnull RepositoryCallback<R> callback) {
+        boolean readOnly = ReplicaRoutingDataSource.setReadOnly(true);
+        try {
+            return withCarbonado(repositoryName, callback);
+        } finally {
+            ReplicaRoutingDataSource.setReadOnly(readOnly);
+        }
+    }
+
+    @Nullable
+    private <R> R execute(@Nonnull String repositoryName, @Nonnull RepositoryMetrics metrics, @Nonnull RepositoryCallback<R> callback, @Nonnull Supplier<R> action) {
+        RepositoryThrottle throttle = throttleProvider.getThrottle(repositoryName);
+        RepositorySlowLog slowLog = slowLogProvider.getSlowLog(repositoryName);
+        throttle.acquire();
+        SlowOperationTrace trace = slowLog.isEnabled() ? SlowOperationTrace.begin() : null;
+        long start = metrics.recordCallbackStart();
+        boolean outermost = CallbackCompletion.enter();
+        Throwable failure = null;
+        try {
+            // callers queued on the throttle while the repository went down fail fast as well
+            requireAvailable(repositoryName);
+            return action.get();
+        } catch (RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            CallbackCompletion.exit(outermost);
+            metrics.recordCallbackEnd(start, failure);
+            if (trace != null) {
+                slowLog.record(callback.getClass().getName(), System.nanoTime() - start, trace.end(), failure);
+            }
+            throttle.release();
+        }
+    }
+
+    @Nullable
+    static <R> R doWithCarbonadoTransaction(@Nonnull String repositoryName, @Nonnull Repository repository, @Nullable IsolationLevel isolationLevel, @Nonnull TransactionRetryPolicy retryPolicy, @Nonnull RepositoryMetrics metrics, @Nonnull RepositoryCallback<R> callback) {
+        long start = System.nanoTime();
+        for (int attempt = 1; ; attempt++) {
+            metrics.recordTransactionAttempt();
+            try {
+                R result = doInTransaction(repositoryName, repository, isolationLevel, callback);
+                metrics.recordTransactionCommit(attempt);
+                metrics.recordTransaction(System.nanoTime() - start, attempt, null);
+                return result;
+            } catch (Exception e) {
+                metrics.recordTransactionRollback(e);
+                if (attempt >= retryPolicy.getMaxAttempts() || !retryPolicy.isRetryable(e)) {
+                    metrics.recordTransaction(System.nanoTime() - start, attempt, e);
+                    throw e instanceof RuntimeException ? (RuntimeException) e : new GriffonException(e);
+                }
+
+                metrics.recordTransactionRetry(e);
+                long backoff = retryPolicy.backoff(attempt);
+                LOG.debug("Transaction on carbonado '{}' failed on attempt {}/{}. Retrying in {} ms", repositoryName, attempt, retryPolicy.getMaxAttempts(), backoff, e);
+                sleep(backoff);
+            }
+        }
+    }
+
+    @Nullable
+    private static <R> R doInTransaction(@Nonnull String repositoryName, @Nonnull Repository repository, @Nullable IsolationLevel isolationLevel, @Nonnull RepositoryCallback<R> callback) throws PersistException {
+        Transaction transaction = isolationLevel != null ? repository.enterTransaction(isolationLevel) : repository.enterTransaction();
+        try {
+            R result = doWithCarbonado(repositoryName, repository, callback);
+            transaction.commit();
+            return result;
+        } finally {
+            transaction.exit();
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GriffonException("Interrupted while waiting to retry transaction", e);
+        }
     }
 
     @Nullable
@@ -74,6 +284,37 @@ public class DefaultCarbonadoHandler implements CarbonadoHandler {
         return callback.handle(repositoryName, repository);
     }
 
+    @Nonnull
+    @Override
+    public <S extends Storable> Stream<S> streamCarbonado(@Nonnull QueryCallback<S> callback) {
+        return streamCarbonado(DefaultRepositoryFactory.KEY_DEFAULT, callback);
+    }
+
+    @Nonnull
+    @Override
+    public <S extends Storable> Stream<S> streamCarbonado(@Nonnull String repositoryName, @Nonnull QueryCallback<S> callback) {
+        requireNonBlank(repositoryName, ERROR_VOLUME_NAME_BLANK);
+        requireNonNull(callback, ERROR_CALLBACK_NULL);
+
+        // the lease is held until the cursor is closed, keeping the repository from being evicted while streaming
+        RepositoryLease lease = acquireLease(repositoryName);
+        CursorSpliterator<S> spliterator;
+        try {
+            Cursor<S> cursor = withCarbonado(repositoryName, (name, repository) -> {
+                try {
+                    return callback.handle(name, repository).fetch();
+                } catch (FetchException e) {
+                    throw new GriffonException("Could not fetch query results from carbonado '" + name + "'", e);
+                }
+            });
+            spliterator = new CursorSpliterator<>(requireNonNull(cursor, "Query callback returned no cursor"), getStreamChunkSize(repositoryName), lease::release);
+        } catch (RuntimeException | Error e) {
+            lease.release();
+            throw e;
+        }
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+    }
+
     @Override
     public void closeCarbonado() {
         closeCarbonado(DefaultRepositoryFactory.KEY_DEFAULT);
@@ -81,20 +322,227 @@ public class DefaultCarbonadoHandler implements CarbonadoHandler {
 
     @Override
     public void closeCarbonado(@Nonnull String repositoryName) {
+        requireNonBlank(repositoryName, ERROR_VOLUME_NAME_BLANK);
+        flushBatches(repositoryName);
+        // names opened from a template are not expected to come back once closed explicitly
+        close(repositoryName, !repositoryFactory.getRepositoryNames().contains(repositoryName));
+        batchWriter.get().remove(repositoryName);
+    }
+
+    private void flushBatches(@Nonnull String repositoryName) {
+        try {
+            batchWriter.get().flush(repositoryName).join();
+        } catch (RuntimeException e) {
+            // failed writes are reported through their own futures
+            LOG.debug("Could not flush queued writes of carbonado '{}' before closing it", repositoryName, e);
+        }
+    }
+
+    @Override
+    public void close(@Nonnull String repositoryName, boolean retire) {
+        requireNonBlank(repositoryName, ERROR_VOLUME_NAME_BLANK);
+        RepositoryLease lease = leases.get(repositoryName);
+        try {
+            if (lease != null) {
+                lease.close(() -> destroyRepository(repositoryName), retire);
+            } else {
+                destroyRepository(repositoryName);
+            }
+        } finally {
+            if (retire) {
+                retire(repositoryName);
+            }
+        }
+    }
+
+    @Override
+    public boolean probe(@Nonnull String repositoryName, boolean open, @Nonnull Probe probe) throws Exception {
+        requireNonBlank(repositoryName, ERROR_VOLUME_NAME_BLANK);
+        requireNonNull(probe, "Argument 'probe' must not be null");
+        RepositoryLease lease = acquireLease(repositoryName);
+        try {
+            Repository repository = open ? getRepository(repositoryName) : repositoryStorage.get(repositoryName);
+            if (repository == null) {
+                return false;
+            }
+            probe.probe(repository);
+            return true;
+        } finally {
+            lease.release();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            if (evictionScheduler != null) {
+                evictionScheduler.shutdownNow();
+            }
+        }
+    }
+
+    private void destroyRepository(@Nonnull String repositoryName) {
         Repository repository = repositoryStorage.get(repositoryName);
         if (repository != null) {
+            long start = System.nanoTime();
             repositoryFactory.destroy(repositoryName, repository);
             repositoryStorage.remove(repositoryName);
+            metricsProvider.getMetrics(repositoryName).recordRepositoryClose(System.nanoTime() - start);
+        }
+    }
+
+    private void retire(@Nonnull String repositoryName) {
+        RepositoryLease lease = leases.remove(repositoryName);
+        if (lease != null) {
+            lease.cancelEviction();
+        }
+        retryPolicies.remove(repositoryName);
+        streamChunkSizes.remove(repositoryName);
+        throttleProvider.remove(repositoryName);
+        slowLogProvider.remove(repositoryName);
+        healthProvider.remove(repositoryName);
+        executorProvider.remove(repositoryName);
+        metricsProvider.remove(repositoryName);
+        batchWriter.get().remove(repositoryName);
+        cacheProvider.get().remove(repositoryName);
+        indexProvider.get().remove(repositoryName);
+    }
+
+    @Nonnull
+    private RepositoryLease acquireLease(@Nonnull String repositoryName) {
+        for (; ; ) {
+            // a lease retired while we were waiting on it is replaced by a fresh one
+            RepositoryLease lease = getLease(repositoryName);
+            if (lease.acquire()) {
+                return lease;
+            }
         }
     }
 
+    @Nonnull
+    private RepositoryLease getLease(@Nonnull String repositoryName) {
+        RepositoryLease lease = leases.get(repositoryName);
+        if (lease == null) {
+            lease = leases.computeIfAbsent(repositoryName, this::createLease);
+        }
+        return lease;
+    }
+
+    @Nonnull
+    private RepositoryLease createLease(@Nonnull String repositoryName) {
+        Map<String, Object> config = repositoryFactory.getConfigurationFor(repositoryName);
+        long idleTimeout = getConfigValueAsLong(config, "idleTimeout", 0L);
+        RepositoryLease lease = new RepositoryLease(repositoryName, idleTimeout, Math.max(0L, getConfigValueAsLong(config, "closeTimeout", DEFAULT_CLOSE_TIMEOUT)));
+        if (idleTimeout > 0) {
+            long period = Math.max(1L, idleTimeout / 2);
+            synchronized (this) {
+                if (!shutdown) {
+                    lease.setEvictionTask(getEvictionScheduler().scheduleWithFixedDelay(() -> evictIfIdle(repositoryName, lease), period, period, TimeUnit.MILLISECONDS));
+                }
+            }
+        }
+        return lease;
+    }
+
+    private void evictIfIdle(@Nonnull String repositoryName, @Nonnull RepositoryLease lease) {
+        boolean open = repositoryStorage.get(repositoryName) != null;
+        boolean retire = !repositoryFactory.getRepositoryNames().contains(repositoryName);
+        if (!open && !retire) {
+            return;
+        }
+        try {
+            if (!lease.evictIfIdle(() -> destroyRepository(repositoryName), retire)) {
+                return;
+            }
+            if (open) {
+                metricsProvider.getMetrics(repositoryName).recordRepositoryEviction();
+                LOG.debug("Closed carbonado '{}' after being idle for {} ms", repositoryName, lease.getIdleTimeout());
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("Could not evict idle carbonado '{}'", repositoryName, e);
+        }
+        if (retire) {
+            retire(repositoryName);
+        }
+    }
+
+    @Nonnull
+    private synchronized ScheduledExecutorService getEvictionScheduler() {
+        if (evictionScheduler == null) {
+            evictionScheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("carbonado-eviction"));
+        }
+        return evictionScheduler;
+    }
+
+    private int getStreamChunkSize(@Nonnull String repositoryName) {
+        Integer chunkSize = streamChunkSizes.get(repositoryName);
+        if (chunkSize == null) {
+            chunkSize = streamChunkSizes.computeIfAbsent(repositoryName, name -> {
+                Map<String, Object> config = getConfigValue(repositoryFactory.getConfigurationFor(name), "stream", Collections.<String, Object>emptyMap());
+                return getConfigValueAsInt(config, "chunkSize", DEFAULT_STREAM_CHUNK_SIZE);
+            });
+        }
+        return chunkSize;
+    }
+
+    private void requireAvailable(@Nonnull String repositoryName) {
+        RepositoryHealth health = healthProvider.getHealth(repositoryName);
+        if (!health.isAvailable()) {
+            String message = "Carbonado '" + repositoryName + "' is unavailable since " + new Date(health.getUnavailableSince()) + ". Reconnecting";
+            Throwable failure = health.getLastFailure();
+            throw failure != null ? new RepositoryUnavailableException(message, failure) : new RepositoryUnavailableException(message);
+        }
+    }
+
+    @Nonnull
+    private TransactionRetryPolicy getRetryPolicy(@Nonnull String repositoryName) {
+        TransactionRetryPolicy retryPolicy = retryPolicies.get(repositoryName);
+        if (retryPolicy == null) {
+            retryPolicy = retryPolicies.computeIfAbsent(repositoryName, name -> TransactionRetryPolicy.of(repositoryFactory.getConfigurationFor(name)));
+        }
+        return retryPolicy;
+    }
+
     @Nonnull
     private Repository getRepository(@Nonnull String repositoryName) {
         Repository repository = repositoryStorage.get(repositoryName);
-        if (repository == null) {
-            repository = repositoryFactory.create(repositoryName);
-            repositoryStorage.set(repositoryName, repository);
+        if (repository != null) {
+            return repository;
+        }
+
+        // single-flight: the first caller creates the repository, every other caller waits on the same future
+        CompletableFuture<Repository> candidate = new CompletableFuture<>();
+        CompletableFuture<Repository> pending = pendingRepositories.putIfAbsent(repositoryName, candidate);
+        if (pending == null) {
+            try {
+                repository = repositoryStorage.get(repositoryName);
+                if (repository == null) {
+                    long start = System.nanoTime();
+                    repository = repositoryFactory.create(repositoryName);
+                    repositoryStorage.set(repositoryName, repository);
+                    metricsProvider.getMetrics(repositoryName).recordRepositoryOpen(System.nanoTime() - start);
+                }
+                candidate.complete(repository);
+                return repository;
+            } catch (RuntimeException | Error e) {
+                candidate.completeExceptionally(e);
+                throw e;
+            } finally {
+                pendingRepositories.remove(repositoryName, candidate);
+            }
+        }
+
+        try {
+            return pending.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
         }
-        return repository;
     }
 }
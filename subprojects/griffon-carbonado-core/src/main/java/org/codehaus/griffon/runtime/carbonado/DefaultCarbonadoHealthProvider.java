@@ -0,0 +1,248 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.Transaction;
+import com.amazon.carbonado.repo.jdbc.JDBCConnectionCapability;
+import griffon.core.GriffonApplication;
+import griffon.plugins.carbonado.CarbonadoHandler;
+import griffon.plugins.carbonado.CarbonadoHealthProvider;
+import griffon.plugins.carbonado.RepositoryFactory;
+import griffon.plugins.carbonado.RepositoryHealth;
+import griffon.plugins.carbonado.RepositoryStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static griffon.util.ConfigUtils.getConfigValue;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Arrays.asList;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Probes open repositories on a shared scheduler. JDBC repositories validate one of their connections; other
+ * repositories enter and exit a transaction. A failed probe closes the repository, including its DataSource, and
+ * reopens it with an exponential backoff until a fresh instance passes a probe. Probes, closes and reopens go through
+ * the {@code CarbonadoHandler}, holding the repository's lease and sharing its single-flight open path with callbacks.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultCarbonadoHealthProvider implements CarbonadoHealthProvider {
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultCarbonadoHealthProvider.class);
+
+    private final RepositoryFactory repositoryFactory;
+    private final RepositoryStorage repositoryStorage;
+    private final GriffonApplication application;
+    private final ConcurrentMap<String, RepositoryHealth> healths = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+    private volatile boolean shutdown;
+
+    // the handler depends on this provider, resolve it lazily
+    @Inject
+    private Provider<CarbonadoHandler> carbonadoHandler;
+
+    @Inject
+    public DefaultCarbonadoHealthProvider(@Nonnull RepositoryFactory repositoryFactory, @Nonnull RepositoryStorage repositoryStorage, @Nonnull GriffonApplication application) {
+        this.repositoryFactory = requireNonNull(repositoryFactory, "Argument 'repositoryFactory' must not be null");
+        this.repositoryStorage = requireNonNull(repositoryStorage, "Argument 'repositoryStorage' must not be null");
+        this.application = requireNonNull(application, "Argument 'application' must not be null");
+    }
+
+    @Nonnull
+    @Override
+    public RepositoryHealth getHealth(@Nonnull String repositoryName) {
+        requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        RepositoryHealth health = healths.get(repositoryName);
+        if (health == null) {
+            health = healths.computeIfAbsent(repositoryName, this::createHealth);
+        }
+        return health;
+    }
+
+    @Override
+    public void remove(@Nonnull String repositoryName) {
+        requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        // a pending check notices it has been replaced and stops rescheduling itself
+        healths.remove(repositoryName);
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+            }
+        }
+    }
+
+    @Nonnull
+    private RepositoryHealth createHealth(@Nonnull String repositoryName) {
+        Map<String, Object> config = getConfigValue(repositoryFactory.getConfigurationFor(repositoryName), "health", Collections.<String, Object>emptyMap());
+        HealthSettings settings = new HealthSettings(getConfigValueAsLong(config, "interval", 0L),
+            Math.max(1L, getConfigValueAsLong(config, "timeout", 5000L)),
+            Math.max(1L, getConfigValueAsLong(config, "initialBackoff", 1000L)),
+            Math.max(1L, getConfigValueAsLong(config, "maxBackoff", 60000L)));
+
+        DefaultRepositoryHealth health = new DefaultRepositoryHealth(repositoryName, settings.interval);
+        if (health.isEnabled()) {
+            schedule(repositoryName, health, settings, settings.interval);
+        }
+        return health;
+    }
+
+    private void schedule(@Nonnull String repositoryName, @Nonnull DefaultRepositoryHealth health, @Nonnull HealthSettings settings, long delay) {
+        if (shutdown) {
+            return;
+        }
+        try {
+            getScheduler().schedule(() -> check(repositoryName, health, settings), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOG.trace("Health checks of carbonado '{}' have been stopped", repositoryName);
+        }
+    }
+
+    private void check(@Nonnull String repositoryName, @Nonnull DefaultRepositoryHealth health, @Nonnull HealthSettings settings) {
+        if (healths.get(repositoryName) != health) {
+            return;
+        }
+        long delay = settings.interval;
+        try {
+            if (health.isAvailable()) {
+                if (repositoryStorage.get(repositoryName) != null) {
+                    delay = probeOpenRepository(repositoryName, health, settings);
+                }
+            } else {
+                delay = reconnect(repositoryName, health, settings);
+            }
+        } finally {
+            schedule(repositoryName, health, settings, delay);
+        }
+    }
+
+    private long probeOpenRepository(@Nonnull String repositoryName, @Nonnull DefaultRepositoryHealth health, @Nonnull HealthSettings settings) {
+        RepositoryLifecycle lifecycle = getLifecycle();
+        try {
+            lifecycle.probe(repositoryName, false, repository -> probe(repository, settings.timeout));
+            health.recordSuccess();
+            return settings.interval;
+        } catch (Exception e) {
+            int failures = health.recordFailure(e);
+            LOG.warn("Carbonado '{}' failed its health check. Reconnecting", repositoryName, e);
+            application.getEventRouter().publishEvent("CarbonadoHealthCheckFailed", asList(repositoryName, e));
+            close(lifecycle, repositoryName);
+            return settings.backoff(failures);
+        }
+    }
+
+    private long reconnect(@Nonnull String repositoryName, @Nonnull DefaultRepositoryHealth health, @Nonnull HealthSettings settings) {
+        RepositoryLifecycle lifecycle = getLifecycle();
+        close(lifecycle, repositoryName);
+
+        try {
+            lifecycle.probe(repositoryName, true, repository -> probe(repository, settings.timeout));
+        } catch (Exception e) {
+            close(lifecycle, repositoryName);
+            int failures = health.recordFailure(e);
+            long backoff = settings.backoff(failures);
+            LOG.debug("Could not reconnect carbonado '{}' after {} attempts. Retrying in {} ms", repositoryName, failures, backoff, e);
+            return backoff;
+        }
+
+        int attempts = health.getConsecutiveFailures();
+        health.recordReconnect();
+        LOG.info("Reconnected carbonado '{}' after {} failed attempts", repositoryName, attempts);
+        application.getEventRouter().publishEvent("CarbonadoReconnect", asList(repositoryName, attempts));
+        return settings.interval;
+    }
+
+    private static void close(@Nonnull RepositoryLifecycle lifecycle, @Nonnull String repositoryName) {
+        try {
+            // the repository is reopened by the next check, keep its state
+            lifecycle.close(repositoryName, false);
+        } catch (RuntimeException e) {
+            LOG.debug("Could not close unhealthy carbonado '{}'", repositoryName, e);
+        }
+    }
+
+    @Nonnull
+    private RepositoryLifecycle getLifecycle() {
+        CarbonadoHandler handler = carbonadoHandler.get();
+        if (!(handler instanceof RepositoryLifecycle)) {
+            throw new IllegalStateException("Health checks require a CarbonadoHandler implementing " + RepositoryLifecycle.class.getName() + " but got " + handler.getClass().getName());
+        }
+        return (RepositoryLifecycle) handler;
+    }
+
+    private static void probe(@Nonnull Repository repository, long timeout) throws Exception {
+        JDBCConnectionCapability jdbc = repository.getCapability(JDBCConnectionCapability.class);
+        if (jdbc != null) {
+            Connection connection = jdbc.getConnection();
+            try {
+                if (!connection.isValid((int) Math.max(1L, TimeUnit.MILLISECONDS.toSeconds(timeout)))) {
+                    throw new SQLException("Connection did not pass validation within " + timeout + " ms");
+                }
+            } finally {
+                jdbc.yieldConnection(connection);
+            }
+        } else {
+            Transaction transaction = repository.enterTransaction();
+            transaction.exit();
+        }
+    }
+
+    @Nonnull
+    private synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("carbonado-health"));
+        }
+        return scheduler;
+    }
+
+    private static final class HealthSettings {
+        private final long interval;
+        private final long timeout;
+        private final long initialBackoff;
+        private final long maxBackoff;
+
+        private HealthSettings(long interval, long timeout, long initialBackoff, long maxBackoff) {
+            this.interval = interval;
+            this.timeout = timeout;
+            this.initialBackoff = initialBackoff;
+            this.maxBackoff = maxBackoff;
+        }
+
+        private long backoff(int failures) {
+            int shift = Math.min(Math.max(0, failures - 1), 30);
+            return Math.min(maxBackoff, initialBackoff << shift);
+        }
+    }
+}
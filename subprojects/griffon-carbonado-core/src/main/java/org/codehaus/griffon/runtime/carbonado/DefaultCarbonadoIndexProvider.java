@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import griffon.core.GriffonApplication;
+import griffon.plugins.carbonado.CarbonadoIndexProvider;
+import griffon.plugins.carbonado.RepositoryFactory;
+import griffon.plugins.carbonado.RepositoryIndexes;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static griffon.util.ConfigUtils.getConfigValue;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class DefaultCarbonadoIndexProvider implements CarbonadoIndexProvider {
+    private final RepositoryFactory repositoryFactory;
+    private final GriffonApplication application;
+    private final ConcurrentMap<String, RepositoryIndexes> indexes = new ConcurrentHashMap<>();
+
+    @Inject
+    public DefaultCarbonadoIndexProvider(@Nonnull RepositoryFactory repositoryFactory, @Nonnull GriffonApplication application) {
+        this.repositoryFactory = requireNonNull(repositoryFactory, "Argument 'repositoryFactory' must not be null");
+        this.application = requireNonNull(application, "Argument 'application' must not be null");
+    }
+
+    @Nonnull
+    @Override
+    public RepositoryIndexes getIndexes(@Nonnull String repositoryName) {
+        requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        RepositoryIndexes repositoryIndexes = indexes.get(repositoryName);
+        if (repositoryIndexes == null) {
+            repositoryIndexes = indexes.computeIfAbsent(repositoryName, this::createIndexes);
+        }
+        return repositoryIndexes;
+    }
+
+    @Override
+    public void remove(@Nonnull String repositoryName) {
+        requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        indexes.remove(repositoryName);
+    }
+
+    @Nonnull
+    private RepositoryIndexes createIndexes(@Nonnull String repositoryName) {
+        Map<String, Object> config = getConfigValue(repositoryFactory.getConfigurationFor(repositoryName), "indexed", Collections.<String, Object>emptyMap());
+        Map<String, Object> declarations = getConfigValue(config, "indexes", Collections.<String, Object>emptyMap());
+
+        Map<Class<?>, List<String>> declaredIndexes = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> declaration : declarations.entrySet()) {
+            Class<?> type = StorableTypes.resolve(declaration.getKey(), application.getResourceHandler().classloader()).get(0);
+            declaredIndexes.put(type, toIndexList(declaration.getValue()));
+        }
+
+        return new DefaultRepositoryIndexes(repositoryName, declaredIndexes);
+    }
+
+    @Nonnull
+    private static List<String> toIndexList(@Nonnull Object value) {
+        Collection<?> entries = value instanceof Collection ? (Collection<?>) value : Collections.singletonList(value);
+        List<String> indexList = new ArrayList<>();
+        for (Object entry : entries) {
+            if (entry instanceof Collection) {
+                StringBuilder b = new StringBuilder();
+                for (Object property : (Collection<?>) entry) {
+                    if (b.length() > 0) {
+                        b.append(",");
+                    }
+                    b.append(String.valueOf(property).trim());
+                }
+                indexList.add(b.toString());
+            } else {
+                indexList.add(String.valueOf(entry).trim());
+            }
+        }
+        return indexList;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import griffon.core.injection.Injector;
+import griffon.plugins.carbonado.CarbonadoMetricsExporter;
+import griffon.plugins.carbonado.CarbonadoMetricsProvider;
+import griffon.plugins.carbonado.RepositoryFactory;
+import griffon.plugins.carbonado.RepositoryMetrics;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+
+/**
+ * Exporters are looked up in the injector the first time metrics are requested.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultCarbonadoMetricsProvider implements CarbonadoMetricsProvider {
+    private final ConcurrentMap<String, RepositoryMetrics> metrics = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> retiredEvictions = new ConcurrentHashMap<>();
+    private volatile List<CarbonadoMetricsExporter> exporters;
+
+    @Inject
+    private Injector injector;
+
+    @Inject
+    private Provider<RepositoryFactory> repositoryFactory;
+
+    @Nonnull
+    @Override
+    public RepositoryMetrics getMetrics(@Nonnull String repositoryName) {
+        requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        RepositoryMetrics repositoryMetrics = metrics.get(repositoryName);
+        if (repositoryMetrics == null) {
+            repositoryMetrics = metrics.computeIfAbsent(repositoryName, name -> new DefaultRepositoryMetrics(name, getExporters()));
+        }
+        return repositoryMetrics;
+    }
+
+    @Override
+    public void remove(@Nonnull String repositoryName) {
+        requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        RepositoryMetrics removed = metrics.remove(repositoryName);
+        if (removed != null && removed.getEvictionCount() > 0) {
+            String template = repositoryFactory.get().getTemplateFor(repositoryName);
+            if (template != null) {
+                retiredEvictions.merge(template, removed.getEvictionCount(), Long::sum);
+            }
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Map<String, Long> getTemplateEvictionCounts() {
+        Map<String, Long> counts = new TreeMap<>(retiredEvictions);
+        for (RepositoryMetrics repositoryMetrics : metrics.values()) {
+            String template = repositoryFactory.get().getTemplateFor(repositoryMetrics.getRepositoryName());
+            if (template != null) {
+                counts.merge(template, repositoryMetrics.getEvictionCount(), Long::sum);
+            }
+        }
+        return counts;
+    }
+
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    private List<CarbonadoMetricsExporter> getExporters() {
+        if (exporters == null) {
+            List<CarbonadoMetricsExporter> enabled = new ArrayList<>();
+            for (Object o : injector.getInstances(CarbonadoMetricsExporter.class)) {
+                CarbonadoMetricsExporter exporter = (CarbonadoMetricsExporter) o;
+                if (exporter.isEnabled()) {
+                    enabled.add(exporter);
+                }
+            }
+            exporters = Collections.unmodifiableList(enabled);
+        }
+        return exporters;
+    }
+}
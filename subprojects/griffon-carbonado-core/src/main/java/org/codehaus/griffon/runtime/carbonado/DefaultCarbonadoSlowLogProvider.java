@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import griffon.plugins.carbonado.CarbonadoSlowLogProvider;
+import griffon.plugins.carbonado.RepositoryFactory;
+import griffon.plugins.carbonado.RepositorySlowLog;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static griffon.util.ConfigUtils.getConfigValue;
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class DefaultCarbonadoSlowLogProvider implements CarbonadoSlowLogProvider {
+    private final RepositoryFactory repositoryFactory;
+    private final ConcurrentMap<String, RepositorySlowLog> slowLogs = new ConcurrentHashMap<>();
+
+    @Inject
+    public DefaultCarbonadoSlowLogProvider(@Nonnull RepositoryFactory repositoryFactory) {
+        this.repositoryFactory = requireNonNull(repositoryFactory, "Argument 'repositoryFactory' must not be null");
+    }
+
+    @Nonnull
+    @Override
+    public RepositorySlowLog getSlowLog(@Nonnull String repositoryName) {
+        requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        RepositorySlowLog slowLog = slowLogs.get(repositoryName);
+        if (slowLog == null) {
+            slowLog = slowLogs.computeIfAbsent(repositoryName, this::createSlowLog);
+        }
+        return slowLog;
+    }
+
+    @Override
+    public void remove(@Nonnull String repositoryName) {
+        requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        slowLogs.remove(repositoryName);
+    }
+
+    @Nonnull
+    private RepositorySlowLog createSlowLog(@Nonnull String repositoryName) {
+        Map<String, Object> config = getConfigValue(repositoryFactory.getConfigurationFor(repositoryName), "slowLog", Collections.<String, Object>emptyMap());
+        return new DefaultRepositorySlowLog(repositoryName,
+            getConfigValueAsLong(config, "threshold", 0L),
+            getConfigValueAsInt(config, "capacity", 100));
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import griffon.plugins.carbonado.CarbonadoThrottleProvider;
+import griffon.plugins.carbonado.RepositoryFactory;
+import griffon.plugins.carbonado.RepositoryThrottle;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class DefaultCarbonadoThrottleProvider implements CarbonadoThrottleProvider {
+    private static final String ERROR_REPOSITORY_NAME_BLANK = "Argument 'repositoryName' must not be blank";
+
+    private final RepositoryFactory repositoryFactory;
+    private final ConcurrentMap<String, RepositoryThrottle> throttles = new ConcurrentHashMap<>();
+
+    @Inject
+    public DefaultCarbonadoThrottleProvider(@Nonnull RepositoryFactory repositoryFactory) {
+        this.repositoryFactory = requireNonNull(repositoryFactory, "Argument 'repositoryFactory' must not be null");
+    }
+
+    @Nonnull
+    @Override
+    public RepositoryThrottle getThrottle(@Nonnull String repositoryName) {
+        requireNonBlank(repositoryName, ERROR_REPOSITORY_NAME_BLANK);
+        RepositoryThrottle throttle = throttles.get(repositoryName);
+        if (throttle == null) {
+            throttle = throttles.computeIfAbsent(repositoryName, this::createThrottle);
+        }
+        return throttle;
+    }
+
+    @Override
+    public void remove(@Nonnull String repositoryName) {
+        requireNonBlank(repositoryName, ERROR_REPOSITORY_NAME_BLANK);
+        throttles.remove(repositoryName);
+    }
+
+    @Nonnull
+    private RepositoryThrottle createThrottle(@Nonnull String repositoryName) {
+        Map<String, Object> config = repositoryFactory.getConfigurationFor(repositoryName);
+        return new DefaultRepositoryThrottle(repositoryName,
+            getConfigValueAsInt(config, "maxConcurrent", 0),
+            getConfigValueAsInt(config, "queueSize", -1),
+            getConfigValueAsLong(config, "acquireTimeout", 0L));
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Storage;
+import griffon.core.GriffonApplication;
+import griffon.exceptions.GriffonException;
+import griffon.plugins.carbonado.CarbonadoHandler;
+import griffon.plugins.carbonado.CarbonadoTransfer;
+import griffon.plugins.carbonado.RepositoryFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static griffon.util.ConfigUtils.getConfigValue;
+import static griffon.util.ConfigUtils.getConfigValueAsBoolean;
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Arrays.asList;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class DefaultCarbonadoTransfer implements CarbonadoTransfer {
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultCarbonadoTransfer.class);
+    private static final String ERROR_REPOSITORY_NAME_BLANK = "Argument 'repositoryName' must not be blank";
+    private static final String ERROR_CHANNEL_NULL = "Argument 'channel' must not be null";
+    private static final String ERROR_FILE_NULL = "Argument 'file' must not be null";
+    private static final String OPERATION_EXPORT = "export";
+    private static final String OPERATION_IMPORT = "import";
+    private static final String OPERATION_COPY = "copy";
+
+    private final CarbonadoHandler carbonadoHandler;
+    private final RepositoryFactory repositoryFactory;
+    private final GriffonApplication application;
+
+    @Inject
+    public DefaultCarbonadoTransfer(@Nonnull CarbonadoHandler carbonadoHandler, @Nonnull RepositoryFactory repositoryFactory, @Nonnull GriffonApplication application) {
+        this.carbonadoHandler = requireNonNull(carbonadoHandler, "Argument 'carbonadoHandler' must not be null");
+        this.repositoryFactory = requireNonNull(repositoryFactory, "Argument 'repositoryFactory' must not be null");
+        this.application = requireNonNull(application, "Argument 'application' must not be null");
+    }
+
+    @Nonnull
+    @Override
+    public Map<String, Long> exportTo(@Nonnull String repositoryName, @Nonnull WritableByteChannel channel) {
+        requireNonBlank(repositoryName, ERROR_REPOSITORY_NAME_BLANK);
+        requireNonNull(channel, ERROR_CHANNEL_NULL);
+
+        final TransferSettings settings = getSettings(repositoryName);
+        final TransferProgress progress = new TransferProgress(repositoryName, OPERATION_EXPORT, settings.progressInterval);
+        carbonadoHandler.withCarbonado(repositoryName, (name, repository) -> {
+            try {
+                StorableArchiveWriter writer = new StorableArchiveWriter(channel, settings.compress);
+                for (Class<? extends Storable> type : settings.storableTypes) {
+                    exportType(repository, type, writer, progress);
+                }
+                writer.finish();
+            } catch (IOException | RepositoryException e) {
+                throw new GriffonException("Could not export carbonado '" + name + "'", e);
+            }
+            return null;
+        });
+        return progress.finish();
+    }
+
+    @Nonnull
+    @Override
+    public Map<String, Long> exportTo(@Nonnull String repositoryName, @Nonnull Path file) {
+        requireNonNull(file, ERROR_FILE_NULL);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            return exportTo(repositoryName, channel);
+        } catch (IOException e) {
+            throw new GriffonException("Could not export carbonado '" + repositoryName + "' to " + file, e);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Map<String, Long> importFrom(@Nonnull String repositoryName, @Nonnull ReadableByteChannel channel) {
+        requireNonBlank(repositoryName, ERROR_REPOSITORY_NAME_BLANK);
+        requireNonNull(channel, ERROR_CHANNEL_NULL);
+
+        TransferSettings settings = getSettings(repositoryName);
+        TransferProgress progress = new TransferProgress(repositoryName, OPERATION_IMPORT, settings.progressInterval);
+        try {
+            StorableArchiveReader reader = new StorableArchiveReader(channel);
+            for (String typeName = reader.nextSection(); typeName != null; typeName = reader.nextSection()) {
+                Class<? extends Storable> type = StorableTypes.resolve(typeName, application.getResourceHandler().classloader()).get(0);
+                importType(repositoryName, type, reader, settings.batchSize, progress);
+            }
+        } catch (IOException | RepositoryException e) {
+            throw new GriffonException("Could not import carbonado '" + repositoryName + "'", e);
+        }
+        return progress.finish();
+    }
+
+    @Nonnull
+    @Override
+    public Map<String, Long> importFrom(@Nonnull String repositoryName, @Nonnull Path file) {
+        requireNonNull(file, ERROR_FILE_NULL);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return importFrom(repositoryName, channel);
+        } catch (IOException e) {
+            throw new GriffonException("Could not import carbonado '" + repositoryName + "' from " + file, e);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Map<String, Long> copy(@Nonnull String sourceRepositoryName, @Nonnull String targetRepositoryName) {
+        requireNonBlank(sourceRepositoryName, "Argument 'sourceRepositoryName' must not be blank");
+        requireNonBlank(targetRepositoryName, "Argument 'targetRepositoryName' must not be blank");
+        if (sourceRepositoryName.equals(targetRepositoryName)) {
+            throw new IllegalArgumentException("Cannot copy carbonado '" + sourceRepositoryName + "' onto itself");
+        }
+
+        final TransferSettings settings = getSettings(sourceRepositoryName);
+        final int batchSize = getSettings(targetRepositoryName).batchSize;
+        final TransferProgress progress = new TransferProgress(targetRepositoryName, OPERATION_COPY, settings.progressInterval);
+        carbonadoHandler.withCarbonado(sourceRepositoryName, (name, repository) -> {
+            try {
+                for (Class<? extends Storable> type : settings.storableTypes) {
+                    copyType(repository, type, targetRepositoryName, batchSize, progress);
+                }
+            } catch (RepositoryException e) {
+                throw new GriffonException("Could not copy carbonado '" + name + "' to '" + targetRepositoryName + "'", e);
+            }
+            return null;
+        });
+        return progress.finish();
+    }
+
+    private <S extends Storable> void exportType(@Nonnull Repository repository, @Nonnull Class<S> type, @Nonnull StorableArchiveWriter writer, @Nonnull TransferProgress progress) throws IOException, RepositoryException {
+        writer.beginSection(type.getName());
+        progress.begin(type);
+        long count = 0;
+        Cursor<S> cursor = repository.storageFor(type).query().fetch();
+        try {
+            while (cursor.hasNext()) {
+                writer.write(cursor.next());
+                progress.update(++count);
+            }
+        } finally {
+            cursor.close();
+        }
+        progress.end();
+    }
+
+    private <S extends Storable> void importType(@Nonnull String repositoryName, @Nonnull Class<S> type, @Nonnull StorableArchiveReader reader, int batchSize, @Nonnull TransferProgress progress) throws IOException, RepositoryException {
+        Storage<S> storage = storageFor(repositoryName, type);
+        progress.begin(type);
+        List<S> batch = new ArrayList<>(batchSize);
+        long count = 0;
+        for (byte[] record = reader.nextRecord(); record != null; record = reader.nextRecord()) {
+            S storable = storage.prepare();
+            storable.readFrom(new ByteArrayInputStream(record));
+            storable.markAllPropertiesDirty();
+            batch.add(storable);
+            if (batch.size() == batchSize) {
+                count += insert(repositoryName, batch);
+                progress.update(count);
+            }
+        }
+        count += insert(repositoryName, batch);
+        progress.update(count);
+        progress.end();
+    }
+
+    private <S extends Storable> void copyType(@Nonnull Repository source, @Nonnull Class<S> type, @Nonnull String targetRepositoryName, int batchSize, @Nonnull TransferProgress progress) throws RepositoryException {
+        Storage<S> storage = storageFor(targetRepositoryName, type);
+        progress.begin(type);
+        List<S> batch = new ArrayList<>(batchSize);
+        long count = 0;
+        Cursor<S> cursor = source.storageFor(type).query().fetch();
+        try {
+            while (cursor.hasNext()) {
+                S storable = storage.prepare();
+                cursor.next().copyAllProperties(storable);
+                batch.add(storable);
+                if (batch.size() == batchSize) {
+                    count += insert(targetRepositoryName, batch);
+                    progress.update(count);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        count += insert(targetRepositoryName, batch);
+        progress.update(count);
+        progress.end();
+    }
+
+    @Nonnull
+    private <S extends Storable> Storage<S> storageFor(@Nonnull String repositoryName, @Nonnull Class<S> type) {
+        return carbonadoHandler.withCarbonado(repositoryName, (name, repository) -> {
+            try {
+                return repository.storageFor(type);
+            } catch (RepositoryException e) {
+                throw new GriffonException("Could not get storage for " + type.getName() + " in carbonado '" + name + "'", e);
+            }
+        });
+    }
+
+    private int insert(@Nonnull String repositoryName, @Nonnull List<? extends Storable> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        carbonadoHandler.withCarbonadoTransaction(repositoryName, (name, repository) -> {
+            for (Storable storable : batch) {
+                try {
+                    storable.insert();
+                } catch (PersistException e) {
+                    throw new GriffonException("Could not insert " + storable.toStringKeyOnly() + " into carbonado '" + name + "'", e);
+                }
+            }
+            return null;
+        });
+        int size = batch.size();
+        batch.clear();
+        return size;
+    }
+
+    @Nonnull
+    private TransferSettings getSettings(@Nonnull String repositoryName) {
+        Map<String, Object> repositoryConfig = repositoryFactory.getConfigurationFor(repositoryName);
+        Map<String, Object> config = getConfigValue(repositoryConfig, "transfer", Collections.<String, Object>emptyMap());
+        Object storables = getConfigValue(config, "storables", getConfigValue(repositoryConfig, "storables", Collections.emptyList()));
+        return new TransferSettings(StorableTypes.resolve(storables, application.getResourceHandler().classloader()),
+            Math.max(1, getConfigValueAsInt(config, "batchSize", 1000)),
+            getConfigValueAsBoolean(config, "compress", true),
+            Math.max(1, getConfigValueAsInt(config, "progressInterval", 10000)));
+    }
+
+    private static final class TransferSettings {
+        private final List<Class<? extends Storable>> storableTypes;
+        private final int batchSize;
+        private final boolean compress;
+        private final int progressInterval;
+
+        private TransferSettings(@Nonnull List<Class<? extends Storable>> storableTypes, int batchSize, boolean compress, int progressInterval) {
+            this.storableTypes = storableTypes;
+            this.batchSize = batchSize;
+            this.compress = compress;
+            this.progressInterval = progressInterval;
+        }
+    }
+
+    private final class TransferProgress {
+        private final String repositoryName;
+        private final String operation;
+        private final int interval;
+        private final long start = System.nanoTime();
+        private final Map<String, Long> counts = new LinkedHashMap<>();
+        private String storableType;
+        private long typeStart;
+        private long count;
+        private long nextReport;
+
+        private TransferProgress(@Nonnull String repositoryName, @Nonnull String operation, int interval) {
+            this.repositoryName = repositoryName;
+            this.operation = operation;
+            this.interval = interval;
+            application.getEventRouter().publishEvent("CarbonadoTransferStart", asList(repositoryName, operation));
+        }
+
+        private void begin(@Nonnull Class<?> type) {
+            storableType = type.getName();
+            typeStart = System.nanoTime();
+            count = 0;
+            nextReport = interval;
+        }
+
+        private void update(long count) {
+            this.count = count;
+            if (count >= nextReport) {
+                nextReport = (count / interval + 1) * interval;
+                report();
+            }
+        }
+
+        private void end() {
+            counts.put(storableType, count);
+            report();
+        }
+
+        @Nonnull
+        private Map<String, Long> finish() {
+            long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            LOG.info("Finished {} of carbonado '{}' in {} ms: {}", operation, repositoryName, duration, counts);
+            application.getEventRouter().publishEvent("CarbonadoTransferEnd", asList(repositoryName, operation, counts, duration));
+            return Collections.unmodifiableMap(counts);
+        }
+
+        private void report() {
+            long elapsed = Math.max(1L, System.nanoTime() - typeStart);
+            long rate = count * TimeUnit.SECONDS.toNanos(1) / elapsed;
+            LOG.debug("{} of carbonado '{}': {} {} storables ({} per second)", operation, repositoryName, count, storableType, rate);
+            application.getEventRouter().publishEvent("CarbonadoTransferProgress", asList(repositoryName, operation, storableType, count, rate));
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.Storable;
+import griffon.exceptions.GriffonException;
+import griffon.plugins.carbonado.CarbonadoHandler;
+import griffon.plugins.carbonado.RepositoryCache;
+import griffon.plugins.carbonado.RepositoryCallback;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * LRU cache bounded by {@code maxEntries}. Entries expire {@code expireAfterWrite} milliseconds
+ * after being loaded, a value of zero or less disables expiration.
+ * <p>
+ * Large caches are split in up to 16 segments, each one an LRU of its share of {@code maxEntries}, so that readers
+ * of different keys do not contend for the same lock. A miss reserves its key with a token before loading; the loaded
+ * value is only cached if no write invalidated that key in the meantime.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultRepositoryCache implements RepositoryCache {
+    private static final String ERROR_STORABLE_NULL = "Argument 'storable' must not be null";
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MIN_SEGMENT_SIZE = 256;
+
+    private final String repositoryName;
+    private final CarbonadoHandler carbonadoHandler;
+    private final int maxEntries;
+    private final long expireAfterWriteNanos;
+    private final Set<Class<?>> storableTypes;
+    private final Segment[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public DefaultRepositoryCache(@Nonnull String repositoryName, @Nonnull CarbonadoHandler carbonadoHandler, int maxEntries, long expireAfterWrite, @Nonnull Set<Class<?>> storableTypes) {
+        this.repositoryName = requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        this.carbonadoHandler = requireNonNull(carbonadoHandler, "Argument 'carbonadoHandler' must not be null");
+        this.maxEntries = Math.max(0, maxEntries);
+        this.expireAfterWriteNanos = expireAfterWrite > 0 ? TimeUnit.MILLISECONDS.toNanos(expireAfterWrite) : 0L;
+        this.storableTypes = Collections.unmodifiableSet(new LinkedHashSet<>(requireNonNull(storableTypes, "Argument 'storableTypes' must not be null")));
+
+        // small caches keep a single, exact LRU
+        int segmentCount = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, this.maxEntries / MIN_SEGMENT_SIZE)));
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(this.maxEntries / segmentCount + (i < this.maxEntries % segmentCount ? 1 : 0));
+        }
+    }
+
+    @Nullable
+    @Override
+    @SuppressWarnings("unchecked")
+    public <S extends Storable> S load(@Nonnull final S key) {
+        requireNonNull(key, "Argument 'key' must not be null");
+        if (maxEntries == 0 || !isCached(key.storableType())) {
+            return loadFromRepository(key);
+        }
+
+        String cacheKey = key.toStringKeyOnly();
+        Segment segment = segmentFor(cacheKey);
+        Storable cached = segment.get(cacheKey);
+        if (cached != null) {
+            hits.increment();
+            return (S) cached.copy();
+        }
+
+        misses.increment();
+        Object token = segment.reserve(cacheKey);
+        S loaded = null;
+        try {
+            loaded = loadFromRepository(key);
+        } finally {
+            segment.complete(cacheKey, token, loaded != null ? new Entry(loaded.copy(), System.nanoTime()) : null);
+        }
+        return loaded;
+    }
+
+    @Override
+    public boolean isCached(@Nonnull Class<?> storableType) {
+        for (Class<?> type : storableTypes) {
+            if (type.isAssignableFrom(storableType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Nonnull
+    @Override
+    public Set<Class<?>> getStorableTypes() {
+        return storableTypes;
+    }
+
+    @Override
+    public void invalidate(@Nonnull Storable storable) {
+        requireNonNull(storable, ERROR_STORABLE_NULL);
+        String cacheKey = storable.toStringKeyOnly();
+        if (segmentFor(cacheKey).remove(cacheKey)) {
+            invalidations.increment();
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    @Override
+    public int getSize() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    @Override
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    @Nonnull
+    private Segment segmentFor(@Nonnull String cacheKey) {
+        int hash = cacheKey.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+
+    @Nullable
+    private <S extends Storable> S loadFromRepository(@Nonnull final S key) {
+        return carbonadoHandler.withCarbonado(repositoryName, new RepositoryCallback<S>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public S handle(@Nonnull String repositoryName, @Nonnull Repository repository) {
+                S storable = (S) key.copy();
+                try {
+                    return storable.tryLoad() ? storable : null;
+                } catch (FetchException e) {
+                    throw new GriffonException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Values are either an {@code Entry} or the token of a load in progress.
+     */
+    private final class Segment {
+        private final Map<String, Object> values;
+
+        private Segment(final int capacity) {
+            this.values = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+                private static final long serialVersionUID = 3187398262146728437L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                    if (size() > capacity) {
+                        if (eldest.getValue() instanceof Entry) {
+                            evictions.increment();
+                        }
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        @Nullable
+        private synchronized Storable get(@Nonnull String cacheKey) {
+            Object value = values.get(cacheKey);
+            if (!(value instanceof Entry)) {
+                return null;
+            }
+            Entry entry = (Entry) value;
+            if (expireAfterWriteNanos > 0 && System.nanoTime() - entry.writeTime > expireAfterWriteNanos) {
+                values.remove(cacheKey);
+                evictions.increment();
+                return null;
+            }
+            return entry.storable;
+        }
+
+        @Nonnull
+        private synchronized Object reserve(@Nonnull String cacheKey) {
+            Object token = new Object();
+            values.put(cacheKey, token);
+            return token;
+        }
+
+        private synchronized void complete(@Nonnull String cacheKey, @Nonnull Object token, @Nullable Entry entry) {
+            // an invalidation or a newer load removed or replaced the token
+            if (values.get(cacheKey) != token) {
+                return;
+            }
+            if (entry != null) {
+                values.put(cacheKey, entry);
+            } else {
+                values.remove(cacheKey);
+            }
+        }
+
+        private synchronized boolean remove(@Nonnull String cacheKey) {
+            return values.remove(cacheKey) instanceof Entry;
+        }
+
+        private synchronized void clear() {
+            values.clear();
+        }
+
+        private synchronized int size() {
+            int size = 0;
+            for (Object value : values.values()) {
+                if (value instanceof Entry) {
+                    size++;
+                }
+            }
+            return size;
+        }
+    }
+
+    private static final class Entry {
+        private final Storable storable;
+        private final long writeTime;
+
+        private Entry(@Nonnull Storable storable, long writeTime) {
+            this.storable = storable;
+            this.writeTime = writeTime;
+        }
+    }
+}
@@ -16,30 +16,61 @@
 package org.codehaus.griffon.runtime.carbonado;
 
 import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryBuilder;
 import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.capability.ResyncCapability;
+import com.amazon.carbonado.repo.indexed.IndexedRepositoryBuilder;
 import com.amazon.carbonado.repo.jdbc.JDBCRepositoryBuilder;
 import com.amazon.carbonado.repo.map.MapRepositoryBuilder;
+import com.amazon.carbonado.repo.replicated.ReplicatedRepositoryBuilder;
 import com.amazon.carbonado.repo.sleepycat.BDBRepositoryBuilder;
 import griffon.core.Configuration;
 import griffon.core.GriffonApplication;
 import griffon.core.injection.Injector;
 import griffon.exceptions.GriffonException;
 import griffon.plugins.carbonado.CarbonadoBootstrap;
+import griffon.plugins.carbonado.CarbonadoMetricsProvider;
+import griffon.plugins.carbonado.CarbonadoSlowLogProvider;
 import griffon.plugins.carbonado.RepositoryFactory;
+import griffon.plugins.carbonado.RepositoryMetrics;
+import griffon.plugins.carbonado.RepositoryOverloadException;
+import griffon.plugins.carbonado.ShardedRepository;
 import griffon.plugins.datasource.DataSourceFactory;
 import griffon.plugins.datasource.DataSourceStorage;
 import org.codehaus.griffon.runtime.core.storage.AbstractObjectFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Provider;
 import javax.sql.DataSource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import static griffon.util.ConfigUtils.getConfigValue;
+import static griffon.util.ConfigUtils.getConfigValueAsBoolean;
+import static griffon.util.ConfigUtils.getConfigValueAsDouble;
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
 import static griffon.util.ConfigUtils.getConfigValueAsString;
 import static griffon.util.GriffonClassUtils.setPropertiesNoException;
 import static griffon.util.GriffonNameUtils.requireNonBlank;
@@ -52,7 +83,29 @@ import static java.util.Objects.requireNonNull;
 public class DefaultRepositoryFactory extends AbstractObjectFactory<Repository> implements RepositoryFactory {
     private static final String ERROR_REPOSITORY_BLANK = "Argument 'repositoryName' must not be blank";
 
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultRepositoryFactory.class);
+    private static final String KEY_STORABLES = "storables";
+    private static final String KEY_READ_DATA_SOURCES = "readDataSources";
+    private static final String KEY_REPLICA_RETRY_INTERVAL = "replicaRetryInterval";
+    private static final String KEY_FALLBACK_TO_PRIMARY = "fallbackToPrimary";
+    private static final String KEY_SHARDED = "sharded";
+    private static final String KEY_SHARD = "shard";
+    private static final String KEY_COUNT = "count";
+    private static final String KEY_PARALLELISM = "parallelism";
+    private static final String RESYNC_NONE = "none";
+    private static final String RESYNC_BLOCKING = "blocking";
+    private static final String RESYNC_BACKGROUND = "background";
+
     private final Set<String> repositoryNames = new LinkedHashSet<>();
+    private final List<RepositoryTemplate> templates = new ArrayList<>();
+    private final ConcurrentMap<String, Map<String, Object>> templateConfigs = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ScheduledFuture<?>> resyncTasks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Future<?>> preparationTasks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, List<OffHeapStore>> offHeapStores = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, MapPersistence> persistences = new ConcurrentHashMap<>();
+    private final SharedEnvironments sharedEnvironments;
+    private ScheduledExecutorService backgroundScheduler;
+    private ScheduledExecutorService journalScheduler;
 
     @Inject
     private DataSourceFactory dataSourceFactory;
@@ -63,6 +116,12 @@ public class DefaultRepositoryFactory extends AbstractObjectFactory<Repository>
     @Inject
     private Injector injector;
 
+    @Inject
+    private CarbonadoMetricsProvider metricsProvider;
+
+    @Inject
+    private Provider<CarbonadoSlowLogProvider> slowLogProvider;
+
     @Inject
     public DefaultRepositoryFactory(@Nonnull @Named("carbonado") Configuration configuration, @Nonnull GriffonApplication application) {
         super(configuration, application);
@@ -70,8 +129,18 @@ public class DefaultRepositoryFactory extends AbstractObjectFactory<Repository>
 
         if (configuration.containsKey(getPluralKey())) {
             Map<String, Object> carbonados = (Map<String, Object>) configuration.get(getPluralKey());
-            repositoryNames.addAll(carbonados.keySet());
+            for (Map.Entry<String, Object> carbonado : carbonados.entrySet()) {
+                if (RepositoryTemplate.isTemplate(carbonado.getKey())) {
+                    templates.add(new RepositoryTemplate(carbonado.getKey(), (Map<String, Object>) carbonado.getValue()));
+                } else {
+                    repositoryNames.add(carbonado.getKey());
+                }
+            }
+            // the most specific template wins when several match the same name
+            templates.sort((a, b) -> Integer.compare(b.getSpecificity(), a.getSpecificity()));
         }
+
+        sharedEnvironments = new SharedEnvironments(configuration.get(SharedEnvironments.KEY_SHARED_ENVIRONMENTS, Collections.<String, Object>emptyMap()), this::event);
     }
 
     @Nonnull
@@ -87,6 +156,44 @@ public class DefaultRepositoryFactory extends AbstractObjectFactory<Repository>
         return narrowConfig(repositoryName);
     }
 
+    @Nullable
+    @Override
+    public String getTemplateFor(@Nonnull String repositoryName) {
+        requireNonBlank(repositoryName, ERROR_REPOSITORY_BLANK);
+        RepositoryTemplate template = findTemplate(repositoryName);
+        return template != null ? template.getPattern() : null;
+    }
+
+    @Nonnull
+    @Override
+    protected Map<String, Object> narrowConfig(@Nonnull String name) {
+        Map<String, Object> config = super.narrowConfig(name);
+        if (!config.isEmpty() || templates.isEmpty()) {
+            return config;
+        }
+
+        // only open repositories keep their resolved configuration, any other name is resolved again on every lookup
+        Map<String, Object> resolved = templateConfigs.get(name);
+        if (resolved != null) {
+            return resolved;
+        }
+        RepositoryTemplate template = findTemplate(name);
+        return template != null ? template.resolve(name) : config;
+    }
+
+    @Nullable
+    private RepositoryTemplate findTemplate(@Nonnull String name) {
+        if (repositoryNames.contains(name)) {
+            return null;
+        }
+        for (RepositoryTemplate template : templates) {
+            if (template.matches(name)) {
+                return template;
+            }
+        }
+        return null;
+    }
+
     @Nonnull
     @Override
     protected String getSingleKey() {
@@ -109,17 +216,50 @@ public class DefaultRepositoryFactory extends AbstractObjectFactory<Repository>
             throw new IllegalArgumentException("Repository '" + name + "' is not configured.");
         }
 
+        RepositoryTemplate template = findTemplate(name);
+        if (template != null && !template.tryOpen()) {
+            throw new RepositoryOverloadException("Cannot open repository '" + name + "'. " + template.getMaxOpen() + " repositories of template '" + template.getPattern() + "' are already open");
+        }
+        if (template != null) {
+            templateConfigs.put(name, config);
+        }
+
         event("CarbonadoConnectStart", asList(name, config));
 
         Repository repository = null;
         try {
             repository = createRepository(config, name);
         } catch (Exception e) {
+            release(config, name, template);
             throw new GriffonException(e);
         }
 
-        for (Object o : injector.getInstances(CarbonadoBootstrap.class)) {
-            ((CarbonadoBootstrap) o).init(name, repository);
+        List<CarbonadoBootstrap> initialized = new ArrayList<>();
+        try {
+            for (Object o : injector.getInstances(CarbonadoBootstrap.class)) {
+                ((CarbonadoBootstrap) o).init(name, repository);
+                initialized.add((CarbonadoBootstrap) o);
+            }
+
+            prepareStorables(config, name, repository);
+            scheduleResync(config, name, repository);
+        } catch (RuntimeException e) {
+            // undo what destroy() would, a repository that fails to open never reaches the storage
+            cancelResync(name);
+            cancelStorablePreparation(name);
+            for (CarbonadoBootstrap bootstrap : initialized) {
+                try {
+                    bootstrap.destroy(name, repository);
+                } catch (RuntimeException x) {
+                    e.addSuppressed(x);
+                }
+            }
+            try {
+                destroyCarbonado(config, name, repository);
+            } finally {
+                release(config, name, template);
+            }
+            throw e;
         }
 
         event("CarbonadoConnectEnd", asList(name, config, repository));
@@ -139,58 +279,478 @@ public class DefaultRepositoryFactory extends AbstractObjectFactory<Repository>
 
         event("CarbonadoDisconnectStart", asList(name, config, instance));
 
+        cancelResync(name);
+        cancelStorablePreparation(name);
+
         for (Object o : injector.getInstances(CarbonadoBootstrap.class)) {
             ((CarbonadoBootstrap) o).destroy(name, instance);
         }
 
-        destroyCarbonado(config, name, instance);
+        try {
+            destroyCarbonado(config, name, instance);
+        } finally {
+            release(config, name, findTemplate(name));
+        }
 
         event("CarbonadoDisconnectEnd", asList(name, config));
     }
 
+    /**
+     * Releases the stores of a repository and, if it was created from a template, its slot and resolved configuration.
+     */
+    private void release(@Nonnull Map<String, Object> config, @Nonnull String name, @Nullable RepositoryTemplate template) {
+        releaseStores(config, name);
+        if (template != null) {
+            template.close();
+            templateConfigs.remove(name);
+        }
+    }
+
+    @Nonnull
+    private Repository createRepository(@Nonnull Map<String, Object> config, @Nonnull String name) throws RepositoryException, IOException {
+        if (KEY_SHARDED.equalsIgnoreCase(getConfigValueAsString(config, "type", "map"))) {
+            return createShardedRepository(config, name);
+        }
+        return openRepository(config, name, name);
+    }
+
+    @Nonnull
+    private Repository createShardedRepository(@Nonnull Map<String, Object> config, @Nonnull String name) throws RepositoryException, IOException {
+        Map<String, Map<String, Object>> shardConfigs = getShardConfigs(config, name);
+        Map<String, Object> sharded = getConfigValue(config, KEY_SHARDED, Collections.<String, Object>emptyMap());
+        int parallelism = getConfigValueAsInt(sharded, KEY_PARALLELISM, shardConfigs.size());
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Sharded repository '" + name + "' must have a positive parallelism. Got " + parallelism);
+        }
+
+        List<Repository> shards = new ArrayList<>();
+        try {
+            for (Map.Entry<String, Map<String, Object>> shard : shardConfigs.entrySet()) {
+                shards.add(openRepository(shard.getValue(), shard.getKey(), shard.getKey()));
+            }
+        } catch (RepositoryException | IOException | RuntimeException e) {
+            for (Repository shard : shards) {
+                snapshotPersistence(shard.getName());
+                shard.close();
+            }
+            throw e;
+        }
+
+        return new DefaultShardedRepository(name, shards, parallelism);
+    }
+
+    /**
+     * Resolves the {@code shard} configuration of a sharded repository once per shard, like a template whose
+     * {@code {id}} is the index of the shard. Shards inherit the storables of the sharded repository.
+     */
     @Nonnull
-    private Repository createRepository(@Nonnull Map<String, Object> config, @Nonnull String name) throws RepositoryException {
+    private static Map<String, Map<String, Object>> getShardConfigs(@Nonnull Map<String, Object> config, @Nonnull String name) {
+        Map<String, Object> sharded = getConfigValue(config, KEY_SHARDED, Collections.<String, Object>emptyMap());
+        int count = getConfigValueAsInt(sharded, KEY_COUNT, 0);
+        Map<String, Object> shard = getConfigValue(sharded, KEY_SHARD, Collections.<String, Object>emptyMap());
+        if (count < 1 || shard.isEmpty()) {
+            throw new IllegalArgumentException("Sharded repository '" + name + "' must define a positive shard 'count' and a 'shard' configuration");
+        }
+        if (KEY_SHARDED.equalsIgnoreCase(getConfigValueAsString(shard, "type", "map"))) {
+            throw new IllegalArgumentException("Sharded repository '" + name + "' can not nest another sharded repository");
+        }
+
+        RepositoryTemplate template = new RepositoryTemplate(name + "-" + RepositoryTemplate.WILDCARD, shard);
+        Map<String, Map<String, Object>> shards = new LinkedHashMap<>();
+        for (String shardName : getPartNames(config, name)) {
+            Map<String, Object> shardConfig = template.resolve(shardName);
+            if (!shardConfig.containsKey(KEY_STORABLES) && config.containsKey(KEY_STORABLES)) {
+                shardConfig.put(KEY_STORABLES, config.get(KEY_STORABLES));
+            }
+            shards.put(shardName, shardConfig);
+        }
+        return shards;
+    }
+
+    /**
+     * @return the names of the shards of a sharded repository, otherwise the name of the repository itself.
+     */
+    @Nonnull
+    private static List<String> getPartNames(@Nonnull Map<String, Object> config, @Nonnull String name) {
+        if (!KEY_SHARDED.equalsIgnoreCase(getConfigValueAsString(config, "type", "map"))) {
+            return Collections.singletonList(name);
+        }
+
+        int count = getConfigValueAsInt(getConfigValue(config, KEY_SHARDED, Collections.<String, Object>emptyMap()), KEY_COUNT, 0);
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(name + "-" + i);
+        }
+        return names;
+    }
+
+    private void releaseStores(@Nonnull Map<String, Object> config, @Nonnull String name) {
+        for (String part : getPartNames(config, name)) {
+            sharedEnvironments.release(part);
+            deleteOffHeapStores(part);
+        }
+    }
+
+    @Nonnull
+    private Repository openRepository(@Nonnull Map<String, Object> config, @Nonnull String name, @Nonnull String dataSourceName) throws RepositoryException, IOException {
+        Repository repository = createRepositoryBuilder(config, name, dataSourceName).build();
         String type = getConfigValueAsString(config, "type", "map");
+        try {
+            if ("offheap".equalsIgnoreCase(type)) {
+                enforceOffHeapCapacity(config, name, repository);
+            } else if ("map".equalsIgnoreCase(type)) {
+                MapPersistence persistence = restorePersistence(config, name, repository);
+                if (persistence != null) {
+                    return persistence.track(repository);
+                }
+            }
+        } catch (Exception e) {
+            repository.close();
+            throw e;
+        }
+        return repository;
+    }
+
+    @Nonnull
+    private RepositoryBuilder createRepositoryBuilder(@Nonnull Map<String, Object> config, @Nonnull String name, @Nonnull String dataSourceName) {
+        String type = getConfigValueAsString(config, "type", "map");
+        RepositoryBuilder builder;
         if ("jdbc".equalsIgnoreCase(type)) {
-            return createJDBCRepository(getConfigValue(config, "jdbc", Collections.<String, Object>emptyMap()), name);
+            builder = createJDBCRepositoryBuilder(getConfigValue(config, "jdbc", Collections.<String, Object>emptyMap()), name, dataSourceName);
         } else if ("bdb".equalsIgnoreCase(type)) {
-            return createBDBRepository(getConfigValue(config, "bdb", Collections.<String, Object>emptyMap()), name);
+            builder = createBDBRepositoryBuilder(getConfigValue(config, "bdb", Collections.<String, Object>emptyMap()), name, dataSourceName);
         } else if ("map".equalsIgnoreCase(type)) {
-            return createMapRepository(getConfigValue(config, "map", Collections.<String, Object>emptyMap()), name);
+            builder = createMapRepositoryBuilder(getConfigValue(config, "map", Collections.<String, Object>emptyMap()), name);
+        } else if ("offheap".equalsIgnoreCase(type)) {
+            builder = createOffHeapRepositoryBuilder(getConfigValue(config, "offheap", Collections.<String, Object>emptyMap()), name, dataSourceName);
+        } else if ("replicated".equalsIgnoreCase(type)) {
+            builder = createReplicatedRepositoryBuilder(getConfigValue(config, "replicated", Collections.<String, Object>emptyMap()), name);
         } else {
-            throw new IllegalArgumentException("Unknown repository type '" + type + "'. Valid values are jdbc, bdb, map");
+            throw new IllegalArgumentException("Unknown repository type '" + type + "'. Valid values are jdbc, bdb, map, offheap, replicated, sharded");
+        }
+
+        Map<String, Object> indexed = getConfigValue(config, "indexed", Collections.<String, Object>emptyMap());
+        if (!getConfigValueAsBoolean(indexed, "enabled", false)) {
+            return builder;
         }
+        if ("replicated".equalsIgnoreCase(type)) {
+            throw new IllegalArgumentException("Replicated repository '" + name + "' can not be indexed. Index its master or replica instead");
+        }
+        return createIndexedRepositoryBuilder(indexed, name, type, builder);
     }
 
     @Nonnull
-    private Repository createJDBCRepository(Map<String, Object> properties, String name) throws RepositoryException {
-        JDBCRepositoryBuilder builder = new JDBCRepositoryBuilder();
+    private RepositoryBuilder createIndexedRepositoryBuilder(Map<String, Object> properties, String name, String type, RepositoryBuilder wrapped) {
+        // map and bdb repositories wrap themselves unless told otherwise
+        setPropertiesNoException(wrapped, Collections.<String, Object>singletonMap("indexSupport", false));
+
+        IndexedRepositoryBuilder builder = new IndexedRepositoryBuilder();
         builder.setName(name);
-        builder.setDataSource(getDataSource(name));
+        builder.setMaster(wrapped.isMaster());
+        builder.setWrappedRepository(wrapped);
+        builder.setAllClustered("map".equalsIgnoreCase(type));
         setPropertiesNoException(builder, properties);
-        return builder.build();
+        return builder;
+    }
+
+    @Nonnull
+    private RepositoryBuilder createJDBCRepositoryBuilder(Map<String, Object> properties, String name, String dataSourceName) {
+        JDBCRepositoryBuilder builder = new JDBCRepositoryBuilder();
+        builder.setName(name);
+        DataSource dataSource = getDataSource(dataSourceName);
+        List<String> readDataSourceNames = getReadDataSourceNames(properties);
+        if (!readDataSourceNames.isEmpty()) {
+            Map<String, DataSource> replicas = new LinkedHashMap<>();
+            for (String readDataSourceName : readDataSourceNames) {
+                replicas.put(readDataSourceName, getDataSource(readDataSourceName));
+            }
+            dataSource = ReplicaRoutingDataSource.wrap(dataSourceName, dataSource, replicas,
+                getConfigValueAsLong(properties, KEY_REPLICA_RETRY_INTERVAL, 5000L),
+                getConfigValueAsBoolean(properties, KEY_FALLBACK_TO_PRIMARY, true));
+        }
+        // statements are only intercepted when their timings are consumed. The slow log may be enabled over
+        // JMX after the repository is open, hence the check happens whenever a connection is handed out
+        RepositoryMetrics metrics = metricsProvider.getMetrics(dataSourceName);
+        dataSource = TimedDataSource.wrap(dataSource, metrics,
+            () -> metrics.isExporting() || slowLogProvider.get().getSlowLog(dataSourceName).isEnabled());
+        builder.setDataSource(dataSource);
+
+        Map<String, Object> builderProperties = new LinkedHashMap<>(properties);
+        builderProperties.keySet().removeAll(asList(KEY_READ_DATA_SOURCES, KEY_REPLICA_RETRY_INTERVAL, KEY_FALLBACK_TO_PRIMARY));
+        setPropertiesNoException(builder, builderProperties);
+        return builder;
+    }
+
+    @Nonnull
+    private static List<String> getReadDataSourceNames(@Nonnull Map<String, Object> properties) {
+        Object value = getConfigValue(properties, KEY_READ_DATA_SOURCES, Collections.emptyList());
+        Collection<?> entries = value instanceof Collection ? (Collection<?>) value : Collections.singletonList(value);
+        List<String> names = new ArrayList<>();
+        for (Object entry : entries) {
+            names.add(requireNonBlank(String.valueOf(entry).trim(), "Read DataSource names must not be blank"));
+        }
+        return names;
     }
 
     @Nonnull
-    private Repository createBDBRepository(Map<String, Object> properties, String name) throws RepositoryException {
+    private RepositoryBuilder createBDBRepositoryBuilder(Map<String, Object> properties, String name, String repositoryName) {
         BDBRepositoryBuilder builder = new BDBRepositoryBuilder();
         builder.setName(name);
-        setPropertiesNoException(builder, properties);
-        return builder.build();
+        // memberships are held by the repository, which may be replicated over this one
+        String sharedEnvironment = getConfigValueAsString(properties, BDBTuning.KEY_SHARED_ENVIRONMENT, null);
+        Map<String, String> shared = sharedEnvironment != null ? sharedEnvironments.acquire(sharedEnvironment, repositoryName) : null;
+        BDBTuning.configure(builder, name, properties, shared);
+        return builder;
     }
 
     @Nonnull
-    private Repository createMapRepository(Map<String, Object> properties, String name) throws RepositoryException {
+    private RepositoryBuilder createMapRepositoryBuilder(Map<String, Object> properties, String name) {
         MapRepositoryBuilder builder = new MapRepositoryBuilder();
         builder.setName(name);
         setPropertiesNoException(builder, properties);
-        return builder.build();
+        return builder;
+    }
+
+    @Nonnull
+    private RepositoryBuilder createOffHeapRepositoryBuilder(Map<String, Object> properties, String name, String repositoryName) {
+        OffHeapStore store = OffHeapStore.create(name, properties);
+        offHeapStores.computeIfAbsent(repositoryName, k -> new CopyOnWriteArrayList<>()).add(store);
+
+        BDBRepositoryBuilder builder = new BDBRepositoryBuilder();
+        builder.setName(name);
+        store.configure(builder);
+        return builder;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void enforceOffHeapCapacity(@Nonnull Map<String, Object> config, @Nonnull String name, @Nonnull Repository repository) throws RepositoryException {
+        OffHeapStore store = offHeapStores.get(name).get(0);
+        if (store.getCapacity() <= 0) {
+            return;
+        }
+
+        List<Class<? extends Storable>> storableTypes = StorableTypes.resolve(getConfigValue(config, KEY_STORABLES, Collections.emptyList()), getApplication().getResourceHandler().classloader());
+        if (storableTypes.isEmpty()) {
+            throw new IllegalArgumentException("Offheap repository '" + name + "' must list its storables in order to enforce a capacity");
+        }
+        for (Class<? extends Storable> type : storableTypes) {
+            repository.storageFor((Class<Storable>) type).addTrigger(store.capacityTrigger());
+        }
+    }
+
+    @Nullable
+    private MapPersistence restorePersistence(@Nonnull Map<String, Object> config, @Nonnull String name, @Nonnull Repository repository) throws RepositoryException, IOException {
+        Map<String, Object> properties = getConfigValue(config, MapPersistence.KEY_PERSISTENCE, Collections.<String, Object>emptyMap());
+        if (properties.isEmpty()) {
+            return null;
+        }
+
+        List<Class<? extends Storable>> storableTypes = StorableTypes.resolve(getConfigValue(config, KEY_STORABLES, Collections.emptyList()), getApplication().getResourceHandler().classloader());
+        MapPersistence persistence = MapPersistence.create(name, properties, storableTypes);
+        long start = System.nanoTime();
+        try {
+            Map<String, Long> counts = persistence.restore(repository);
+            persistence.open(repository, getJournalScheduler(), getBackgroundScheduler());
+            event("CarbonadoRestore", asList(name, counts, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        } catch (RepositoryException | IOException | RuntimeException e) {
+            persistence.close();
+            throw e;
+        }
+        persistences.put(name, persistence);
+        return persistence;
+    }
+
+    private void snapshotPersistence(@Nonnull String name) {
+        MapPersistence persistence = persistences.remove(name);
+        if (persistence == null) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            Map<String, Long> counts = persistence.snapshot();
+            event("CarbonadoSnapshot", asList(name, counts, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        } catch (RepositoryException | IOException | RuntimeException e) {
+            LOG.error("Could not take a snapshot of carbonado '{}'. It will be restored from its journal", name, e);
+        } finally {
+            persistence.close();
+        }
+    }
+
+    private void deleteOffHeapStores(@Nonnull String name) {
+        List<OffHeapStore> stores = offHeapStores.remove(name);
+        if (stores != null) {
+            for (OffHeapStore store : stores) {
+                store.delete();
+            }
+        }
+    }
+
+    @Nonnull
+    private RepositoryBuilder createReplicatedRepositoryBuilder(Map<String, Object> properties, String name) {
+        Map<String, Object> master = getConfigValue(properties, "master", Collections.<String, Object>emptyMap());
+        Map<String, Object> replica = getConfigValue(properties, "replica", Collections.<String, Object>emptyMap());
+        if (master.isEmpty() || replica.isEmpty()) {
+            throw new IllegalArgumentException("Replicated repository '" + name + "' must define both 'master' and 'replica' configurations");
+        }
+        if ("replicated".equalsIgnoreCase(getConfigValueAsString(master, "type", "map")) ||
+            "replicated".equalsIgnoreCase(getConfigValueAsString(replica, "type", "map"))) {
+            throw new IllegalArgumentException("Replicated repository '" + name + "' can not nest another replicated repository");
+        }
+
+        ReplicatedRepositoryBuilder builder = new ReplicatedRepositoryBuilder();
+        builder.setName(name);
+        builder.setMasterRepositoryBuilder(createRepositoryBuilder(master, name + "-master", name));
+        builder.setReplicaRepositoryBuilder(createRepositoryBuilder(replica, name + "-replica", name));
+        return builder;
+    }
+
+    private void prepareStorables(@Nonnull Map<String, Object> config, @Nonnull final String name, @Nonnull final Repository repository) {
+        final List<Class<? extends Storable>> storableTypes = StorableTypes.resolve(getConfigValue(config, KEY_STORABLES, Collections.emptyList()), getApplication().getResourceHandler().classloader());
+        if (!storableTypes.isEmpty()) {
+            preparationTasks.put(name, getBackgroundScheduler().submit(() -> prepareStorables(name, repository, storableTypes)));
+        }
+    }
+
+    private void cancelStorablePreparation(@Nonnull String name) {
+        Future<?> task = preparationTasks.remove(name);
+        if (task != null) {
+            task.cancel(true);
+        }
+    }
+
+    private void prepareStorables(@Nonnull String name, @Nonnull Repository repository, @Nonnull List<Class<? extends Storable>> storableTypes) {
+        RepositoryMetrics metrics = metricsProvider.getMetrics(name);
+        Map<String, Long> durations = new LinkedHashMap<>();
+        for (Class<? extends Storable> type : storableTypes) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+
+            long start = System.nanoTime();
+            try {
+                for (Repository shard : shardsOf(repository)) {
+                    shard.storageFor(type);
+                }
+            } catch (Exception e) {
+                LOG.warn("Could not prepare storage of {} in repository '{}'", type.getName(), name, e);
+                continue;
+            }
+            long duration = System.nanoTime() - start;
+            metrics.recordStoragePreparation(type.getName(), duration);
+            durations.put(type.getName(), TimeUnit.NANOSECONDS.toMillis(duration));
+        }
+
+        LOG.debug("Prepared storables of repository '{}' in {}", name, durations);
+        event("CarbonadoStorablesPrepared", asList(name, durations));
+    }
+
+    @Nonnull
+    private static List<Repository> shardsOf(@Nonnull Repository repository) {
+        return repository instanceof ShardedRepository ? ((ShardedRepository) repository).getShards() : Collections.singletonList(repository);
+    }
+
+    private void scheduleResync(@Nonnull Map<String, Object> config, @Nonnull final String name, @Nonnull final Repository repository) {
+        if (!"replicated".equalsIgnoreCase(getConfigValueAsString(config, "type", "map"))) {
+            return;
+        }
+
+        Map<String, Object> replicated = getConfigValue(config, "replicated", Collections.<String, Object>emptyMap());
+        Map<String, Object> resync = getConfigValue(replicated, "resync", Collections.<String, Object>emptyMap());
+        Object storables = getConfigValue(resync, KEY_STORABLES, getConfigValue(config, KEY_STORABLES, Collections.emptyList()));
+        final List<Class<? extends Storable>> storableTypes = StorableTypes.resolve(storables, getApplication().getResourceHandler().classloader());
+        if (storableTypes.isEmpty()) {
+            return;
+        }
+
+        final double speed = getConfigValueAsDouble(resync, "speed", 0d);
+        String onOpen = getConfigValueAsString(resync, "onOpen", RESYNC_NONE);
+        if (RESYNC_BLOCKING.equalsIgnoreCase(onOpen)) {
+            resync(name, repository, storableTypes, speed);
+        } else if (RESYNC_BACKGROUND.equalsIgnoreCase(onOpen)) {
+            getBackgroundScheduler().execute(() -> resync(name, repository, storableTypes, speed));
+        } else if (!RESYNC_NONE.equalsIgnoreCase(onOpen)) {
+            throw new IllegalArgumentException("Unknown resync mode '" + onOpen + "'. Valid values are " + RESYNC_NONE + ", " + RESYNC_BLOCKING + ", " + RESYNC_BACKGROUND);
+        }
+
+        long interval = getConfigValueAsLong(resync, "interval", 0L);
+        if (interval > 0) {
+            resyncTasks.put(name, getBackgroundScheduler().scheduleWithFixedDelay(() -> resync(name, repository, storableTypes, speed), interval, interval, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private void cancelResync(@Nonnull String name) {
+        ScheduledFuture<?> task = resyncTasks.remove(name);
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    private void resync(@Nonnull String name, @Nonnull Repository repository, @Nonnull List<Class<? extends Storable>> storableTypes, double speed) {
+        ResyncCapability capability = repository.getCapability(ResyncCapability.class);
+        if (capability == null) {
+            LOG.warn("Repository '{}' does not support resync", name);
+            return;
+        }
+
+        for (Class<? extends Storable> type : storableTypes) {
+            event("CarbonadoResyncStart", asList(name, type));
+            long start = System.nanoTime();
+            try {
+                capability.resync(type, speed, null);
+            } catch (Exception e) {
+                LOG.warn("Could not resync {} on repository '{}'", type.getName(), name, e);
+                event("CarbonadoResyncError", asList(name, type, e));
+                continue;
+            }
+            event("CarbonadoResyncEnd", asList(name, type, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        }
+    }
+
+    @Nonnull
+    private synchronized ScheduledExecutorService getBackgroundScheduler() {
+        if (backgroundScheduler == null) {
+            backgroundScheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("carbonado-background"));
+        }
+        return backgroundScheduler;
+    }
+
+    @Nonnull
+    private synchronized ScheduledExecutorService getJournalScheduler() {
+        if (journalScheduler == null) {
+            journalScheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("carbonado-journal"));
+        }
+        return journalScheduler;
     }
 
     private void destroyCarbonado(@Nonnull Map<String, Object> config, @Nonnull String name, @Nonnull Repository repository) {
+        Map<String, Map<String, Object>> parts = repository instanceof ShardedRepository ? getShardConfigs(config, name) : Collections.singletonMap(name, config);
+        for (String part : parts.keySet()) {
+            snapshotPersistence(part);
+        }
+        try {
+            repository.close();
+        } catch (RuntimeException e) {
+            LOG.warn("Could not close carbonado '{}'", name, e);
+        }
+
+        for (Map.Entry<String, Map<String, Object>> part : parts.entrySet()) {
+            closeDataSources(part.getValue(), part.getKey());
+        }
+    }
+
+    private void closeDataSources(@Nonnull Map<String, Object> config, @Nonnull String name) {
         String type = getConfigValueAsString(config, "type", "map");
+        if ("replicated".equalsIgnoreCase(type)) {
+            Map<String, Object> replicated = getConfigValue(config, "replicated", Collections.<String, Object>emptyMap());
+            config = getConfigValue(replicated, "master", Collections.<String, Object>emptyMap());
+            type = getConfigValueAsString(config, "type", "map");
+        }
         if ("jdbc".equalsIgnoreCase(type)) {
             closeDataSource(name);
+            for (String readDataSourceName : getReadDataSourceNames(getConfigValue(config, "jdbc", Collections.<String, Object>emptyMap()))) {
+                closeDataSource(readDataSourceName);
+            }
         }
     }
 
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import griffon.plugins.carbonado.RepositoryHealth;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class DefaultRepositoryHealth implements RepositoryHealth {
+    private final String repositoryName;
+    private final long interval;
+    private final LongAdder checks = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile boolean available = true;
+    private volatile long lastCheckTime;
+    private volatile long unavailableSince;
+    private volatile Throwable lastFailure;
+
+    public DefaultRepositoryHealth(@Nonnull String repositoryName, long interval) {
+        this.repositoryName = requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        this.interval = interval;
+    }
+
+    @Nonnull
+    @Override
+    public String getRepositoryName() {
+        return repositoryName;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return interval > 0;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return available;
+    }
+
+    @Override
+    public long getInterval() {
+        return interval;
+    }
+
+    @Override
+    public long getCheckCount() {
+        return checks.sum();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getReconnectCount() {
+        return reconnects.sum();
+    }
+
+    @Override
+    public int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    @Override
+    public long getLastCheckTime() {
+        return lastCheckTime;
+    }
+
+    @Override
+    public long getUnavailableSince() {
+        return unavailableSince;
+    }
+
+    @Nullable
+    @Override
+    public Throwable getLastFailure() {
+        return lastFailure;
+    }
+
+    public void recordSuccess() {
+        checks.increment();
+        lastCheckTime = System.currentTimeMillis();
+        consecutiveFailures.set(0);
+    }
+
+    /**
+     * Marks the repository as unavailable.
+     *
+     * @return the number of consecutive failures, including this one.
+     */
+    public int recordFailure(@Nonnull Throwable failure) {
+        requireNonNull(failure, "Argument 'failure' must not be null");
+        checks.increment();
+        failures.increment();
+        lastCheckTime = System.currentTimeMillis();
+        lastFailure = failure;
+        if (available) {
+            unavailableSince = lastCheckTime;
+            available = false;
+        }
+        return consecutiveFailures.incrementAndGet();
+    }
+
+    public void recordReconnect() {
+        reconnects.increment();
+        recordSuccess();
+        unavailableSince = 0;
+        available = true;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Storage;
+import com.amazon.carbonado.capability.IndexInfo;
+import com.amazon.carbonado.capability.IndexInfoCapability;
+import com.amazon.carbonado.info.Direction;
+import com.amazon.carbonado.repo.indexed.IndexEntryAccessCapability;
+import com.amazon.carbonado.repo.indexed.IndexEntryAccessor;
+import griffon.exceptions.GriffonException;
+import griffon.plugins.carbonado.RepositoryIndexes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Carbonado only maintains the indexes declared on a Storable with {@code @Index}. Declared indexes
+ * are checked against those annotations and their entries are built as soon as the repository is opened.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultRepositoryIndexes implements RepositoryIndexes {
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultRepositoryIndexes.class);
+
+    private final String repositoryName;
+    private final Map<Class<?>, List<String>> declaredIndexes;
+    private volatile List<String> indexReport = Collections.emptyList();
+    private volatile int indexCount;
+    private volatile long indexEntryCount;
+    private volatile long buildTime;
+
+    public DefaultRepositoryIndexes(@Nonnull String repositoryName, @Nonnull Map<Class<?>, List<String>> declaredIndexes) {
+        this.repositoryName = requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        this.declaredIndexes = Collections.unmodifiableMap(new LinkedHashMap<>(requireNonNull(declaredIndexes, "Argument 'declaredIndexes' must not be null")));
+    }
+
+    @Nonnull
+    @Override
+    public String getRepositoryName() {
+        return repositoryName;
+    }
+
+    @Nonnull
+    @Override
+    public Map<Class<?>, List<String>> getDeclaredIndexes() {
+        return declaredIndexes;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void build(@Nonnull Repository repository) {
+        requireNonNull(repository, "Argument 'repository' must not be null");
+        if (declaredIndexes.isEmpty()) {
+            return;
+        }
+
+        IndexInfoCapability infoCapability = repository.getCapability(IndexInfoCapability.class);
+        IndexEntryAccessCapability accessCapability = repository.getCapability(IndexEntryAccessCapability.class);
+        List<String> report = new ArrayList<>();
+        int count = 0;
+        long entries = 0;
+        long total = 0;
+
+        for (Map.Entry<Class<?>, List<String>> declaration : declaredIndexes.entrySet()) {
+            Class<Storable> type = (Class<Storable>) declaration.getKey();
+            try {
+                // opening the storage builds any missing index entries, only that is accounted as build time
+                long start = System.nanoTime();
+                Storage<Storable> storage = repository.storageFor(type);
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                total += elapsed;
+                long rows = -1;
+
+                IndexInfo[] indexes = infoCapability != null ? infoCapability.getIndexInfo(type) : new IndexInfo[0];
+                IndexEntryAccessor<Storable>[] accessors = accessCapability != null ? accessCapability.getIndexEntryAccessors(type) : null;
+                for (String index : declaration.getValue()) {
+                    IndexInfo info = findIndex(indexes, index);
+                    if (info == null) {
+                        throw new GriffonException("Index [" + index + "] of " + type.getName() + " in repository '" + repositoryName +
+                            "' is not declared by the Storable. Add @Index(" + toAnnotationValue(index) + ") to " + type.getSimpleName());
+                    }
+
+                    IndexEntryAccessor<Storable> accessor = (IndexEntryAccessor<Storable>) findIndex(accessors, index);
+                    long size;
+                    if (accessor != null) {
+                        size = accessor.getIndexEntryStorage().query().count();
+                    } else {
+                        // repositories that index natively, like map, keep no separate entries but one per row
+                        if (rows < 0) {
+                            rows = storage.query().count();
+                        }
+                        size = rows;
+                    }
+                    report.add(type.getName() + " [" + index + "] entries=" + size + " buildTime=" + elapsed + "ms");
+                    entries += size;
+                    count++;
+                }
+            } catch (RepositoryException e) {
+                throw new GriffonException("Could not build indexes of " + type.getName() + " in repository '" + repositoryName + "'", e);
+            }
+        }
+
+        indexReport = Collections.unmodifiableList(report);
+        indexCount = count;
+        indexEntryCount = entries;
+        buildTime = total;
+        LOG.info("Built {} indexes with {} entries in {}ms for repository '{}'", count, entries, total, repositoryName);
+    }
+
+    @Override
+    public void reset() {
+        indexReport = Collections.emptyList();
+        indexCount = 0;
+        indexEntryCount = 0;
+        buildTime = 0;
+    }
+
+    @Override
+    public int getIndexCount() {
+        return indexCount;
+    }
+
+    @Override
+    public long getIndexEntryCount() {
+        return indexEntryCount;
+    }
+
+    @Override
+    public long getBuildTime() {
+        return buildTime;
+    }
+
+    @Nonnull
+    @Override
+    public List<String> getIndexReport() {
+        return indexReport;
+    }
+
+    @Nullable
+    private static IndexInfo findIndex(@Nullable IndexInfo[] indexes, @Nonnull String index) {
+        if (indexes == null) {
+            return null;
+        }
+
+        String[] properties = index.split(",");
+        for (IndexInfo info : indexes) {
+            String[] names = info.getPropertyNames();
+            Direction[] directions = info.getPropertyDirections();
+            if (names.length != properties.length) {
+                continue;
+            }
+
+            boolean matches = true;
+            for (int i = 0; i < properties.length && matches; i++) {
+                String property = properties[i].trim();
+                char direction = property.charAt(0);
+                if (direction == '+' || direction == '-') {
+                    property = property.substring(1).trim();
+                    matches = directions[i] == Direction.UNSPECIFIED || directions[i].toCharacter() == direction;
+                }
+                matches &= property.equals(names[i]);
+            }
+
+            if (matches) {
+                return info;
+            }
+        }
+        return null;
+    }
+
+    @Nonnull
+    private static String toAnnotationValue(@Nonnull String index) {
+        StringBuilder b = new StringBuilder("{");
+        for (String property : index.split(",")) {
+            if (b.length() > 1) {
+                b.append(", ");
+            }
+            b.append('"').append(property.trim()).append('"');
+        }
+        return b.append('}').toString();
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import griffon.plugins.carbonado.CarbonadoMetricsExporter;
+import griffon.plugins.carbonado.RepositoryMetrics;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Callback latencies are recorded into an HdrHistogram {@code Recorder}, which is wait-free for writers.
+ * Readers fold the recorded intervals into a cumulative histogram. Timings are forwarded to the given
+ * exporters; a failing exporter is logged and never affects the operation being measured.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultRepositoryMetrics implements RepositoryMetrics {
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultRepositoryMetrics.class);
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final String repositoryName;
+    private final LongAdder callbacks = new LongAdder();
+    private final LongAdder callbackErrors = new LongAdder();
+    private final LongAdder inFlightCallbacks = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> exceptions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> storagePreparationTimes = new ConcurrentHashMap<>();
+    private final Recorder latencyRecorder = new Recorder(SIGNIFICANT_DIGITS);
+    private final Histogram latencies = new Histogram(SIGNIFICANT_DIGITS);
+    private final LongAdder opens = new LongAdder();
+    private final LongAdder closes = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder transactionAttempts = new LongAdder();
+    private final LongAdder transactionCommits = new LongAdder();
+    private final LongAdder transactionRollbacks = new LongAdder();
+    private final LongAdder transactionRetries = new LongAdder();
+    private final AtomicInteger transactionMaxAttempts = new AtomicInteger();
+    private final CarbonadoMetricsExporter[] exporters;
+    private volatile long lastOpenTime;
+    private volatile long lastCloseTime;
+    private Histogram intervalLatencies;
+
+    public DefaultRepositoryMetrics(@Nonnull String repositoryName) {
+        this(repositoryName, Collections.<CarbonadoMetricsExporter>emptyList());
+    }
+
+    public DefaultRepositoryMetrics(@Nonnull String repositoryName, @Nonnull Collection<CarbonadoMetricsExporter> exporters) {
+        this.repositoryName = requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        this.exporters = requireNonNull(exporters, "Argument 'exporters' must not be null").toArray(new CarbonadoMetricsExporter[exporters.size()]);
+    }
+
+    @Nonnull
+    @Override
+    public String getRepositoryName() {
+        return repositoryName;
+    }
+
+    @Override
+    public long recordCallbackStart() {
+        inFlightCallbacks.increment();
+        return System.nanoTime();
+    }
+
+    @Override
+    public void recordCallbackEnd(long start, @Nullable Throwable failure) {
+        long duration = Math.max(0L, System.nanoTime() - start);
+        latencyRecorder.recordValue(duration);
+        inFlightCallbacks.decrement();
+        callbacks.increment();
+        if (failure != null) {
+            callbackErrors.increment();
+            String type = failure.getClass().getName();
+            LongAdder count = exceptions.get(type);
+            if (count == null) {
+                count = exceptions.computeIfAbsent(type, k -> new LongAdder());
+            }
+            count.increment();
+        }
+
+        for (CarbonadoMetricsExporter exporter : exporters) {
+            try {
+                exporter.onCallback(repositoryName, duration, failure);
+            } catch (RuntimeException e) {
+                LOG.warn("Metrics exporter {} failed", exporter, e);
+            }
+        }
+    }
+
+    @Override
+    public void recordRepositoryOpen(long duration) {
+        opens.increment();
+        lastOpenTime = TimeUnit.NANOSECONDS.toMillis(duration);
+        for (CarbonadoMetricsExporter exporter : exporters) {
+            try {
+                exporter.onRepositoryCreated(repositoryName, duration);
+            } catch (RuntimeException e) {
+                LOG.warn("Metrics exporter {} failed", exporter, e);
+            }
+        }
+    }
+
+    @Override
+    public void recordRepositoryClose(long duration) {
+        closes.increment();
+        lastCloseTime = TimeUnit.NANOSECONDS.toMillis(duration);
+        for (CarbonadoMetricsExporter exporter : exporters) {
+            try {
+                exporter.onRepositoryDestroyed(repositoryName, duration);
+            } catch (RuntimeException e) {
+                LOG.warn("Metrics exporter {} failed", exporter, e);
+            }
+        }
+    }
+
+    @Override
+    public void recordRepositoryEviction() {
+        evictions.increment();
+    }
+
+    @Override
+    public void recordQuery(@Nonnull String query, long duration, @Nullable Throwable failure) {
+        queries.increment();
+        for (CarbonadoMetricsExporter exporter : exporters) {
+            try {
+                exporter.onQuery(repositoryName, query, duration, failure);
+            } catch (RuntimeException e) {
+                LOG.warn("Metrics exporter {} failed", exporter, e);
+            }
+        }
+    }
+
+    @Override
+    public void recordStoragePreparation(@Nonnull String storableType, long duration) {
+        storagePreparationTimes.put(storableType, TimeUnit.NANOSECONDS.toMillis(duration));
+    }
+
+    @Override
+    public void recordTransaction(long duration, int attempts, @Nullable Throwable failure) {
+        for (CarbonadoMetricsExporter exporter : exporters) {
+            try {
+                exporter.onTransaction(repositoryName, duration, attempts, failure);
+            } catch (RuntimeException e) {
+                LOG.warn("Metrics exporter {} failed", exporter, e);
+            }
+        }
+    }
+
+    @Override
+    public void recordTransactionAttempt() {
+        transactionAttempts.increment();
+    }
+
+    @Override
+    public void recordTransactionCommit(int attempts) {
+        transactionCommits.increment();
+        transactionMaxAttempts.accumulateAndGet(attempts, Math::max);
+    }
+
+    @Override
+    public void recordTransactionRollback(@Nonnull Throwable cause) {
+        transactionRollbacks.increment();
+    }
+
+    @Override
+    public void recordTransactionRetry(@Nonnull Throwable cause) {
+        transactionRetries.increment();
+    }
+
+    @Override
+    public long getCallbackCount() {
+        return callbacks.sum();
+    }
+
+    @Override
+    public long getCallbackErrorCount() {
+        return callbackErrors.sum();
+    }
+
+    @Override
+    public long getInFlightCallbacks() {
+        return inFlightCallbacks.sum();
+    }
+
+    @Override
+    public long getCallbackLatency(double percentile) {
+        return TimeUnit.NANOSECONDS.toMicros(latencies().getValueAtPercentile(percentile));
+    }
+
+    @Override
+    public long getCallbackMaxLatency() {
+        return TimeUnit.NANOSECONDS.toMicros(latencies().getMaxValue());
+    }
+
+    @Nonnull
+    @Override
+    public Map<String, Long> getExceptionCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> e : exceptions.entrySet()) {
+            counts.put(e.getKey(), e.getValue().sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public long getOpenCount() {
+        return opens.sum();
+    }
+
+    @Override
+    public long getLastOpenTime() {
+        return lastOpenTime;
+    }
+
+    @Override
+    public long getCloseCount() {
+        return closes.sum();
+    }
+
+    @Override
+    public long getLastCloseTime() {
+        return lastCloseTime;
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getQueryCount() {
+        return queries.sum();
+    }
+
+    @Override
+    public boolean isExporting() {
+        return exporters.length > 0;
+    }
+
+    @Nonnull
+    @Override
+    public Map<String, Long> getStoragePreparationTimes() {
+        return new TreeMap<>(storagePreparationTimes);
+    }
+
+    @Override
+    public long getTransactionAttemptCount() {
+        return transactionAttempts.sum();
+    }
+
+    @Override
+    public long getTransactionCommitCount() {
+        return transactionCommits.sum();
+    }
+
+    @Override
+    public long getTransactionRollbackCount() {
+        return transactionRollbacks.sum();
+    }
+
+    @Override
+    public long getTransactionRetryCount() {
+        return transactionRetries.sum();
+    }
+
+    @Override
+    public int getTransactionMaxAttempts() {
+        return transactionMaxAttempts.get();
+    }
+
+    @Nonnull
+    private synchronized Histogram latencies() {
+        intervalLatencies = latencyRecorder.getIntervalHistogram(intervalLatencies);
+        latencies.add(intervalLatencies);
+        return latencies;
+    }
+}
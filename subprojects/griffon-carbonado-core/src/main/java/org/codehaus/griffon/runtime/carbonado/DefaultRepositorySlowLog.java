@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import griffon.plugins.carbonado.RepositorySlowLog;
+import griffon.plugins.carbonado.SlowOperation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Keeps the last {@code capacity} slow operations in a ring buffer.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultRepositorySlowLog implements RepositorySlowLog {
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultRepositorySlowLog.class);
+
+    private final String repositoryName;
+    private final int capacity;
+    private final Deque<SlowOperation> slowOperations;
+    private final LongAdder slowOperationCount = new LongAdder();
+    private volatile long threshold;
+    private volatile long thresholdNanos;
+
+    public DefaultRepositorySlowLog(@Nonnull String repositoryName, long threshold, int capacity) {
+        this.repositoryName = requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        this.capacity = Math.max(1, capacity);
+        this.slowOperations = new ArrayDeque<>(this.capacity);
+        setThreshold(threshold);
+    }
+
+    @Nonnull
+    @Override
+    public String getRepositoryName() {
+        return repositoryName;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return threshold > 0;
+    }
+
+    @Override
+    public long getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public void setThreshold(long threshold) {
+        this.threshold = threshold;
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(threshold);
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public void record(@Nonnull String callbackType, long duration, @Nonnull List<String> statements, @Nullable Throwable failure) {
+        requireNonBlank(callbackType, "Argument 'callbackType' must not be blank");
+        requireNonNull(statements, "Argument 'statements' must not be null");
+        if (!isEnabled() || duration < thresholdNanos) {
+            return;
+        }
+
+        SlowOperation operation = new SlowOperation(repositoryName, callbackType, System.currentTimeMillis(),
+            TimeUnit.NANOSECONDS.toMillis(duration), statements, failure != null ? failure.getClass().getName() : null);
+        slowOperationCount.increment();
+        synchronized (slowOperations) {
+            if (slowOperations.size() == capacity) {
+                slowOperations.removeFirst();
+            }
+            slowOperations.addLast(operation);
+        }
+
+        if (operation.getStatements().isEmpty()) {
+            LOG.warn("Slow callback on carbonado '{}': {} took {} ms (threshold {} ms)", repositoryName, callbackType, operation.getDuration(), threshold);
+        } else {
+            LOG.warn("Slow callback on carbonado '{}': {} took {} ms (threshold {} ms). Statements: {}", repositoryName, callbackType, operation.getDuration(), threshold, operation.getStatements());
+        }
+    }
+
+    @Nonnull
+    @Override
+    public List<SlowOperation> getSlowOperations() {
+        synchronized (slowOperations) {
+            return new ArrayList<>(slowOperations);
+        }
+    }
+
+    @Override
+    public long getSlowOperationCount() {
+        return slowOperationCount.sum();
+    }
+
+    @Override
+    public void clear() {
+        synchronized (slowOperations) {
+            slowOperations.clear();
+        }
+    }
+}
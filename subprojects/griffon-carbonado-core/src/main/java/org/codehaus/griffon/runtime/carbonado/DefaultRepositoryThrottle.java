@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import griffon.plugins.carbonado.RepositoryOverloadException;
+import griffon.plugins.carbonado.RepositoryThrottle;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+
+/**
+ * Fair, bounded throttle. A {@code maxConcurrent} value of zero or less disables throttling
+ * but still keeps track of active callbacks.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultRepositoryThrottle implements RepositoryThrottle {
+    private final String repositoryName;
+    private final int maxConcurrent;
+    private final int queueSize;
+    private final long acquireTimeout;
+    private final Semaphore permits;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    public DefaultRepositoryThrottle(@Nonnull String repositoryName, int maxConcurrent, int queueSize, long acquireTimeout) {
+        this.repositoryName = requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        this.maxConcurrent = maxConcurrent;
+        this.queueSize = queueSize < 0 ? Integer.MAX_VALUE : queueSize;
+        this.acquireTimeout = acquireTimeout;
+        this.permits = maxConcurrent > 0 ? new Semaphore(maxConcurrent, true) : null;
+    }
+
+    @Override
+    public void acquire() {
+        if (permits != null && !tryAcquireNow()) {
+            acquireQueued();
+        }
+        active.incrementAndGet();
+    }
+
+    @Override
+    public void release() {
+        active.decrementAndGet();
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    @Override
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    @Override
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    @Override
+    public long getAcquireTimeout() {
+        return acquireTimeout;
+    }
+
+    @Override
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    private boolean tryAcquireNow() {
+        try {
+            // a zero timeout honors the fairness setting, unlike tryAcquire()
+            return permits.tryAcquire(0, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryOverloadException("Interrupted while waiting for repository '" + repositoryName + "'", e);
+        }
+    }
+
+    private void acquireQueued() {
+        if (queued.incrementAndGet() > queueSize) {
+            queued.decrementAndGet();
+            rejected.increment();
+            throw new RepositoryOverloadException("Repository '" + repositoryName + "' is overloaded. " + maxConcurrent + " callbacks are running and " + queueSize + " are waiting");
+        }
+
+        try {
+            if (acquireTimeout > 0) {
+                if (!permits.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS)) {
+                    timeouts.increment();
+                    throw new RepositoryOverloadException("Timed out after " + acquireTimeout + " ms while waiting for repository '" + repositoryName + "'");
+                }
+            } else {
+                permits.acquire();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryOverloadException("Interrupted while waiting for repository '" + repositoryName + "'", e);
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+}
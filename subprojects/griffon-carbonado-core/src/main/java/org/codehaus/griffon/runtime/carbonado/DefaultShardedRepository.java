@@ -0,0 +1,613 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.FetchInterruptedException;
+import com.amazon.carbonado.IsolationLevel;
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.PrimaryKey;
+import com.amazon.carbonado.Query;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Storage;
+import com.amazon.carbonado.SupportException;
+import com.amazon.carbonado.Transaction;
+import com.amazon.carbonado.capability.Capability;
+import com.amazon.carbonado.cursor.AbstractCursor;
+import griffon.plugins.carbonado.QueryCallback;
+import griffon.plugins.carbonado.ShardedCommitException;
+import griffon.plugins.carbonado.ShardedRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Function;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Shards are picked by hashing the values of the {@code @PrimaryKey} properties of a Storable. Enums hash by name,
+ * byte arrays by content and every other value by its own {@code hashCode}, which must be stable across JVMs for
+ * persistent shards. Scatter-gather queries are fetched on a dedicated fork-join pool, or one shard after another on
+ * the calling thread while it is in a transaction, and their cursors are merged as they are read.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultShardedRepository implements ShardedRepository {
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultShardedRepository.class);
+    private static final String ERROR_STORABLE_NULL = "Argument 'storable' must not be null";
+    private static final String ERROR_CALLBACK_NULL = "Argument 'callback' must not be null";
+
+    private final String name;
+    private final Repository[] shards;
+    private final ForkJoinPool pool;
+    private final ConcurrentMap<Class<?>, String[]> primaryKeys = new ConcurrentHashMap<>();
+
+    public DefaultShardedRepository(@Nonnull String name, @Nonnull List<Repository> shards, int parallelism) {
+        this.name = requireNonBlank(name, "Argument 'name' must not be blank");
+        requireNonNull(shards, "Argument 'shards' must not be null");
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("Sharded repository '" + name + "' must have at least one shard");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Sharded repository '" + name + "' must have a positive parallelism. Got " + parallelism);
+        }
+        this.shards = shards.toArray(new Repository[shards.size()]);
+        this.pool = new ForkJoinPool(parallelism, new WorkerThreadFactory("carbonado-" + name), null, false);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    @Nonnull
+    @Override
+    public Repository getShard(int index) {
+        return shards[index];
+    }
+
+    @Nonnull
+    @Override
+    public List<Repository> getShards() {
+        return Collections.unmodifiableList(Arrays.asList(shards));
+    }
+
+    @Override
+    public int shardIndexOf(@Nonnull Storable storable) {
+        requireNonNull(storable, ERROR_STORABLE_NULL);
+        Class<?> type = storable.storableType();
+        int hash = 1;
+        for (String property : primaryKeyOf(type)) {
+            if (storable.isPropertyUninitialized(property)) {
+                throw new IllegalArgumentException("Primary key property '" + property + "' of " + type.getName() + " must be set before it can be routed");
+            }
+            hash = 31 * hash + hashOf(storable.getPropertyValue(property));
+        }
+        return Math.floorMod(hash ^ (hash >>> 16), shards.length);
+    }
+
+    @Nonnull
+    @Override
+    public Repository shardFor(@Nonnull Storable storable) {
+        return shards[shardIndexOf(storable)];
+    }
+
+    @Nonnull
+    @Override
+    public <S extends Storable> S prepare(@Nonnull Class<S> type) throws RepositoryException {
+        requireNonNull(type, "Argument 'type' must not be null");
+        return shards[0].storageFor(type).prepare();
+    }
+
+    @Nonnull
+    @Override
+    @SuppressWarnings("unchecked")
+    public <S extends Storable> S route(@Nonnull S storable) throws RepositoryException {
+        Repository shard = shardFor(storable);
+        Storage<S> storage = shard.storageFor((Class<S>) storable.storableType());
+        if (storable.storage() == storage) {
+            return storable;
+        }
+
+        S routed = storage.prepare();
+        storable.copyAllProperties(routed);
+        return routed;
+    }
+
+    @Nonnull
+    @Override
+    public <S extends Storable> List<S> query(@Nonnull QueryCallback<S> callback, @Nonnull String... orderBy) throws FetchException {
+        Cursor<S> cursor = fetch(callback, orderBy);
+        try {
+            return cursor.toList();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public <S extends Storable> Cursor<S> fetch(@Nonnull final QueryCallback<S> callback, @Nonnull final String... orderBy) throws FetchException {
+        requireNonNull(callback, ERROR_CALLBACK_NULL);
+        requireNonNull(orderBy, "Argument 'orderBy' must not be null");
+
+        List<Cursor<S>> cursors;
+        if (isInTransaction()) {
+            cursors = new ArrayList<>(shards.length);
+            try {
+                for (Repository shard : shards) {
+                    cursors.add(fetch(shard, callback, orderBy));
+                }
+            } catch (FetchException | RuntimeException | Error e) {
+                new MergedCursor<>(cursors, (a, b) -> 0).closeQuietly(e);
+                throw e;
+            }
+        } else {
+            List<ForkJoinTask<Cursor<S>>> tasks = new ArrayList<>(shards.length);
+            for (final Repository shard : shards) {
+                tasks.add(pool.submit(() -> fetch(shard, callback, orderBy)));
+            }
+            try {
+                cursors = gather(tasks);
+            } catch (FetchException | RuntimeException | Error e) {
+                closeFetched(tasks, e);
+                throw e;
+            }
+        }
+        // without an ordering every pair ties, which drains the shards in order
+        return new MergedCursor<>(cursors, orderBy.length > 0 ? new PropertyComparator(orderBy) : (a, b) -> 0);
+    }
+
+    @Override
+    public <S extends Storable> long count(@Nonnull final QueryCallback<S> callback) throws FetchException {
+        requireNonNull(callback, ERROR_CALLBACK_NULL);
+
+        long count = 0;
+        if (isInTransaction()) {
+            for (Repository shard : shards) {
+                count += callback.handle(shard.getName(), shard).count();
+            }
+            return count;
+        }
+
+        List<ForkJoinTask<Long>> tasks = new ArrayList<>(shards.length);
+        for (final Repository shard : shards) {
+            tasks.add(pool.submit(() -> callback.handle(shard.getName(), shard).count()));
+        }
+
+        for (Long c : gather(tasks)) {
+            count += c;
+        }
+        return count;
+    }
+
+    @Override
+    public <S extends Storable> Storage<S> storageFor(Class<S> type) throws SupportException {
+        throw new SupportException("Sharded repository '" + name + "' has no storage of its own. Use route() to write " + type.getName() + " and query() to search it");
+    }
+
+    @Override
+    public Transaction enterTransaction() {
+        return enterTransactions(Repository::enterTransaction);
+    }
+
+    @Override
+    public Transaction enterTransaction(IsolationLevel level) {
+        return enterTransactions(shard -> shard.enterTransaction(level));
+    }
+
+    @Override
+    public Transaction enterTopTransaction(IsolationLevel level) {
+        return enterTransactions(shard -> shard.enterTopTransaction(level));
+    }
+
+    @Override
+    public IsolationLevel getTransactionIsolationLevel() {
+        return shards[0].getTransactionIsolationLevel();
+    }
+
+    /**
+     * Capabilities belong to the shards, see {@link #getShard(int)}.
+     */
+    @Override
+    public <C extends Capability> C getCapability(Class<C> capabilityType) {
+        return null;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+        for (Repository shard : shards) {
+            try {
+                shard.close();
+            } catch (RuntimeException e) {
+                LOG.warn("Could not close shard '{}' of carbonado '{}'", shard.getName(), name, e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ShardedRepository[" + name + ", shards=" + shards.length + "]";
+    }
+
+    /**
+     * Queries issued within a transaction run on the calling thread, where they see its writes instead of blocking
+     * on its locks.
+     */
+    private boolean isInTransaction() {
+        for (Repository shard : shards) {
+            if (shard.getTransactionIsolationLevel() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Nonnull
+    private static <S extends Storable> Cursor<S> fetch(@Nonnull Repository shard, @Nonnull QueryCallback<S> callback, @Nonnull String[] orderBy) throws FetchException {
+        Query<S> query = callback.handle(shard.getName(), shard);
+        if (orderBy.length > 0) {
+            query = query.orderBy(orderBy);
+        }
+        return query.fetch();
+    }
+
+    @Nonnull
+    private String[] primaryKeyOf(@Nonnull Class<?> type) {
+        return primaryKeys.computeIfAbsent(type, t -> {
+            PrimaryKey primaryKey = t.getAnnotation(PrimaryKey.class);
+            if (primaryKey == null) {
+                throw new IllegalArgumentException(t.getName() + " does not declare a @PrimaryKey and can not be sharded");
+            }
+            String[] properties = primaryKey.value().clone();
+            for (int i = 0; i < properties.length; i++) {
+                properties[i] = stripDirection(properties[i]);
+            }
+            return properties;
+        });
+    }
+
+    private static int hashOf(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof byte[]) {
+            return Arrays.hashCode((byte[]) value);
+        } else if (value instanceof Enum) {
+            return ((Enum<?>) value).name().hashCode();
+        }
+        return value.hashCode();
+    }
+
+    @Nonnull
+    private static String stripDirection(@Nonnull String property) {
+        return property.startsWith("+") || property.startsWith("-") ? property.substring(1) : property;
+    }
+
+    @Nonnull
+    private Transaction enterTransactions(@Nonnull Function<Repository, Transaction> enter) {
+        Transaction[] transactions = new Transaction[shards.length];
+        int entered = 0;
+        try {
+            for (; entered < shards.length; entered++) {
+                transactions[entered] = enter.apply(shards[entered]);
+            }
+        } catch (RuntimeException e) {
+            for (int i = 0; i < entered; i++) {
+                try {
+                    transactions[i].exit();
+                } catch (Exception x) {
+                    e.addSuppressed(x);
+                }
+            }
+            throw e;
+        }
+        return (Transaction) Proxy.newProxyInstance(Transaction.class.getClassLoader(), new Class<?>[]{Transaction.class}, new ShardedTransaction(name, shards, transactions));
+    }
+
+    @Nonnull
+    private static <T> List<T> gather(@Nonnull List<ForkJoinTask<T>> tasks) throws FetchException {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (ForkJoinTask<T> task : tasks) {
+                results.add(task.get());
+            }
+        } catch (InterruptedException e) {
+            cancel(tasks);
+            Thread.currentThread().interrupt();
+            throw new FetchInterruptedException(e);
+        } catch (ExecutionException e) {
+            cancel(tasks);
+            Throwable cause = e.getCause();
+            if (cause instanceof FetchException) {
+                throw (FetchException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new FetchException(cause);
+        }
+        return results;
+    }
+
+    private static void cancel(@Nonnull List<? extends ForkJoinTask<?>> tasks) {
+        for (ForkJoinTask<?> task : tasks) {
+            task.cancel(true);
+        }
+    }
+
+    /**
+     * Closes the cursors of the tasks that completed before a sibling failed.
+     */
+    private static <S> void closeFetched(@Nonnull List<ForkJoinTask<Cursor<S>>> tasks, @Nonnull Throwable failure) {
+        for (ForkJoinTask<Cursor<S>> task : tasks) {
+            if (task.isDone() && !task.isCancelled() && !task.isCompletedAbnormally()) {
+                try {
+                    task.getRawResult().close();
+                } catch (FetchException | RuntimeException e) {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the cursors of all shards in step, always handing out the lowest head. Ties are broken by shard
+     * so that merged results are stable.
+     */
+    private static final class MergedCursor<S> extends AbstractCursor<S> {
+        private final List<Cursor<S>> cursors;
+        private final PriorityQueue<Head<S>> heads;
+        private boolean started;
+
+        private MergedCursor(@Nonnull List<Cursor<S>> cursors, @Nonnull Comparator<Object> comparator) {
+            this.cursors = cursors;
+            this.heads = new PriorityQueue<>(Math.max(1, cursors.size()), (a, b) -> {
+                int c = comparator.compare(a.current, b.current);
+                return c != 0 ? c : Integer.compare(a.shard, b.shard);
+            });
+        }
+
+        @Override
+        public boolean hasNext() throws FetchException {
+            if (!started) {
+                started = true;
+                for (int i = 0; i < cursors.size(); i++) {
+                    advance(new Head<>(i, cursors.get(i)));
+                }
+            }
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public S next() throws FetchException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Head<S> head = heads.poll();
+            S next = head.current;
+            advance(head);
+            return next;
+        }
+
+        @Override
+        public void close() throws FetchException {
+            heads.clear();
+            started = true;
+            FetchException failure = null;
+            for (Cursor<S> cursor : cursors) {
+                try {
+                    cursor.close();
+                } catch (FetchException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        private void closeQuietly(@Nonnull Throwable failure) {
+            try {
+                close();
+            } catch (FetchException | RuntimeException e) {
+                failure.addSuppressed(e);
+            }
+        }
+
+        private void advance(@Nonnull Head<S> head) throws FetchException {
+            if (head.cursor.hasNext()) {
+                head.current = head.cursor.next();
+                heads.add(head);
+            }
+        }
+    }
+
+    private static final class Head<S> {
+        private final int shard;
+        private final Cursor<S> cursor;
+        private S current;
+
+        private Head(int shard, @Nonnull Cursor<S> cursor) {
+            this.shard = shard;
+            this.cursor = cursor;
+        }
+    }
+
+    /**
+     * Orders Storables like Carbonado does: ascending unless prefixed by {@code -}, with nulls high.
+     */
+    private static final class PropertyComparator implements Comparator<Object> {
+        private final String[] properties;
+        private final boolean[] descending;
+
+        private PropertyComparator(@Nonnull String[] orderBy) {
+            properties = new String[orderBy.length];
+            descending = new boolean[orderBy.length];
+            for (int i = 0; i < orderBy.length; i++) {
+                properties[i] = stripDirection(orderBy[i]);
+                descending[i] = orderBy[i].startsWith("-");
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public int compare(Object a, Object b) {
+            for (int i = 0; i < properties.length; i++) {
+                Object x = ((Storable) a).getPropertyValue(properties[i]);
+                Object y = ((Storable) b).getPropertyValue(properties[i]);
+                int c;
+                if (x == y) {
+                    c = 0;
+                } else if (x == null) {
+                    c = 1;
+                } else if (y == null) {
+                    c = -1;
+                } else {
+                    c = ((Comparable<Object>) x).compareTo(y);
+                }
+                if (c != 0) {
+                    return descending[i] ? -c : c;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Applies every call to the transactions of all shards. A failed commit stops at the failing shard; shards that
+     * did not commit yet roll back once the transaction exits. If earlier shards did commit the failure is reported
+     * as a {@code ShardedCommitException} naming them.
+     */
+    private static final class ShardedTransaction implements InvocationHandler {
+        private final String name;
+        private final Repository[] shards;
+        private final Transaction[] transactions;
+
+        private ShardedTransaction(@Nonnull String name, @Nonnull Repository[] shards, @Nonnull Transaction[] transactions) {
+            this.name = name;
+            this.shards = shards;
+            this.transactions = transactions;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return "ShardedTransaction" + Arrays.toString(transactions);
+                }
+            }
+
+            if ("commit".equals(method.getName())) {
+                commit();
+                return null;
+            }
+
+            Object result = null;
+            Throwable failure = null;
+            for (int i = 0; i < transactions.length; i++) {
+                try {
+                    Object r = method.invoke(transactions[i], args);
+                    if (i == 0) {
+                        result = r;
+                    }
+                } catch (InvocationTargetException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    } else {
+                        failure.addSuppressed(e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return result;
+        }
+
+        private void commit() throws PersistException {
+            for (int i = 0; i < transactions.length; i++) {
+                try {
+                    transactions[i].commit();
+                } catch (PersistException | RuntimeException e) {
+                    if (i == 0) {
+                        throw e;
+                    }
+                    List<Integer> committed = new ArrayList<>(i);
+                    List<String> names = new ArrayList<>(i);
+                    for (int j = 0; j < i; j++) {
+                        committed.add(j);
+                        names.add(shards[j].getName());
+                    }
+                    throw new ShardedCommitException("Sharded repository '" + name + "' committed shards " + names +
+                        " before shard '" + shards[i].getName() + "' failed to commit", e, committed);
+                }
+            }
+        }
+    }
+
+    private static final class WorkerThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+        private final String prefix;
+
+        private WorkerThreadFactory(@Nonnull String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(prefix + "-" + thread.getPoolIndex());
+            return thread;
+        }
+    }
+}
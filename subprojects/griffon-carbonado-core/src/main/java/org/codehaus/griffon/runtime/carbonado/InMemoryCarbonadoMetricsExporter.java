@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import griffon.core.Configuration;
+import griffon.plugins.carbonado.CarbonadoMetricsExporter;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static griffon.util.ConfigUtils.getConfigValueAsBoolean;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Keeps an HdrHistogram of durations, in nanoseconds, per repository and operation. Disabled unless
+ * {@code metrics.inMemory} is set to {@code true}.
+ *
+ * @author Andres Almiray
+ */
+public class InMemoryCarbonadoMetricsExporter implements CarbonadoMetricsExporter {
+    public static final String OPERATION_CALLBACK = "callback";
+    public static final String OPERATION_TRANSACTION = "transaction";
+    public static final String OPERATION_CREATE = "create";
+    public static final String OPERATION_DESTROY = "destroy";
+    public static final String OPERATION_QUERY = "query";
+
+    private static final String KEY_METRICS = "metrics";
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final boolean enabled;
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+    @Inject
+    public InMemoryCarbonadoMetricsExporter(@Nonnull @Named("carbonado") Configuration configuration) {
+        requireNonNull(configuration, "Argument 'configuration' must not be null");
+        Map<String, Object> metrics = configuration.get(KEY_METRICS, Collections.<String, Object>emptyMap());
+        this.enabled = getConfigValueAsBoolean(metrics, "inMemory", false);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void onCallback(@Nonnull String repositoryName, long duration, @Nullable Throwable failure) {
+        timer(repositoryName, OPERATION_CALLBACK).record(duration, failure);
+    }
+
+    @Override
+    public void onTransaction(@Nonnull String repositoryName, long duration, int attempts, @Nullable Throwable failure) {
+        timer(repositoryName, OPERATION_TRANSACTION).record(duration, failure);
+    }
+
+    @Override
+    public void onRepositoryCreated(@Nonnull String repositoryName, long duration) {
+        timer(repositoryName, OPERATION_CREATE).record(duration, null);
+    }
+
+    @Override
+    public void onRepositoryDestroyed(@Nonnull String repositoryName, long duration) {
+        timer(repositoryName, OPERATION_DESTROY).record(duration, null);
+    }
+
+    @Override
+    public void onQuery(@Nonnull String repositoryName, @Nonnull String query, long duration, @Nullable Throwable failure) {
+        timer(repositoryName, OPERATION_QUERY).record(duration, failure);
+    }
+
+    /**
+     * Returns a copy of the durations recorded so far for the given repository and operation.
+     */
+    @Nonnull
+    public Histogram getHistogram(@Nonnull String repositoryName, @Nonnull String operation) {
+        return timer(repositoryName, operation).snapshot();
+    }
+
+    public long getFailureCount(@Nonnull String repositoryName, @Nonnull String operation) {
+        return timer(repositoryName, operation).failures.sum();
+    }
+
+    public void reset() {
+        timers.clear();
+    }
+
+    @Nonnull
+    private Timer timer(@Nonnull String repositoryName, @Nonnull String operation) {
+        requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        requireNonBlank(operation, "Argument 'operation' must not be blank");
+        String key = repositoryName + "/" + operation;
+        Timer timer = timers.get(key);
+        if (timer == null) {
+            timer = timers.computeIfAbsent(key, k -> new Timer());
+        }
+        return timer;
+    }
+
+    private static final class Timer {
+        private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+        private final Histogram histogram = new Histogram(SIGNIFICANT_DIGITS);
+        private final LongAdder failures = new LongAdder();
+        private Histogram interval;
+
+        private void record(long duration, @Nullable Throwable failure) {
+            recorder.recordValue(Math.max(0L, duration));
+            if (failure != null) {
+                failures.increment();
+            }
+        }
+
+        @Nonnull
+        private synchronized Histogram snapshot() {
+            interval = recorder.getIntervalHistogram(interval);
+            histogram.add(interval);
+            return histogram.copy();
+        }
+    }
+}
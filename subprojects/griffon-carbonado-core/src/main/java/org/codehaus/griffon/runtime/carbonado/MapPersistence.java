@@ -0,0 +1,559 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Storage;
+import com.amazon.carbonado.SupportException;
+import com.amazon.carbonado.Transaction;
+import com.amazon.carbonado.Trigger;
+import griffon.exceptions.GriffonException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static griffon.util.ConfigUtils.getConfigValue;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Arrays.asList;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Persists the listed Storable types of a {@code map} repository. Every type has its own snapshot, written in the
+ * archive format of bulk exports, and its own {@link StorableJournal} of the writes made since that snapshot.
+ * Restoring a repository loads each type in parallel: its snapshot, read through a memory mapped file, followed by
+ * its journals. Taking a snapshot first retires the current journal, so writes made while the snapshot is written
+ * are kept in the new journal; they are replayed on top of the snapshot, which is harmless as replaying an entry
+ * is idempotent.
+ * <p>
+ * The repository is handed out through {@link #track(Repository)}, whose transactions hold back journal entries until
+ * they commit. Writes made within a transaction, whether entered by {@code withCarbonadoTransaction} or directly through
+ * the {@code Repository}, are journaled once the outermost transaction commits and dropped when it rolls back.
+ *
+ * @author Andres Almiray
+ */
+final class MapPersistence {
+    static final String KEY_PERSISTENCE = "persistence";
+    private static final Logger LOG = LoggerFactory.getLogger(MapPersistence.class);
+    private static final String KEY_DIRECTORY = "directory";
+    private static final String KEY_SYNC_INTERVAL = "syncInterval";
+    private static final String KEY_SNAPSHOT_INTERVAL = "snapshotInterval";
+    private static final List<String> KEYS = asList(KEY_DIRECTORY, KEY_SYNC_INTERVAL, KEY_SNAPSHOT_INTERVAL);
+    private static final ThreadLocal<Deque<PendingTransaction>> TRANSACTIONS = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private final String name;
+    private final long syncInterval;
+    private final long snapshotInterval;
+    private final List<TypeStore<?>> stores = new ArrayList<>();
+    private final Object snapshotLock = new Object();
+    private Repository repository;
+    private ScheduledFuture<?> flushTask;
+    private ScheduledFuture<?> snapshotTask;
+
+    private MapPersistence(@Nonnull String name, @Nonnull Path directory, long syncInterval, long snapshotInterval, @Nonnull List<Class<? extends Storable>> types) {
+        this.name = name;
+        this.syncInterval = syncInterval;
+        this.snapshotInterval = snapshotInterval;
+        for (Class<? extends Storable> type : types) {
+            stores.add(new TypeStore<>(type, directory));
+        }
+    }
+
+    @Nonnull
+    static MapPersistence create(@Nonnull String name, @Nonnull Map<String, Object> config, @Nonnull List<Class<? extends Storable>> types) {
+        requireNonBlank(name, "Argument 'name' must not be blank");
+        requireNonNull(config, "Argument 'config' must not be null");
+        requireNonNull(types, "Argument 'types' must not be null");
+        for (String key : config.keySet()) {
+            if (!KEYS.contains(key)) {
+                throw new IllegalArgumentException("Unknown persistence property '" + key + "' for repository '" + name + "'. Valid properties are " + KEYS);
+            }
+        }
+
+        Object value = getConfigValue(config, KEY_DIRECTORY, null);
+        if (value == null) {
+            throw new IllegalArgumentException("Persistent repository '" + name + "' must define a " + KEY_PERSISTENCE + "." + KEY_DIRECTORY);
+        }
+        if (types.isEmpty()) {
+            throw new IllegalArgumentException("Persistent repository '" + name + "' must list the storables to persist");
+        }
+        long syncInterval = getConfigValueAsLong(config, KEY_SYNC_INTERVAL, 10L);
+        if (syncInterval <= 0) {
+            throw new IllegalArgumentException("Persistent repository '" + name + "' must have a positive " + KEY_SYNC_INTERVAL);
+        }
+
+        File directory = value instanceof File ? (File) value : new File(String.valueOf(value));
+        try {
+            Files.createDirectories(directory.toPath());
+        } catch (IOException e) {
+            throw new GriffonException("Could not create persistence directory " + directory + " of repository '" + name + "'", e);
+        }
+        return new MapPersistence(name, directory.toPath(), syncInterval, getConfigValueAsLong(config, KEY_SNAPSHOT_INTERVAL, 0L), types);
+    }
+
+    /**
+     * Loads the snapshot and journals of every type into the repository, one type per thread.
+     *
+     * @return the number of storables of each type after restoring, keyed by class name.
+     */
+    @Nonnull
+    Map<String, Long> restore(@Nonnull Repository repository) throws RepositoryException, IOException {
+        requireNonNull(repository, "Argument 'repository' must not be null");
+        int threads = Math.min(stores.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("carbonado-restore"));
+        try {
+            List<Future<Long>> restores = new ArrayList<>();
+            for (TypeStore<?> store : stores) {
+                restores.add(executor.submit(() -> store.restore(repository)));
+            }
+            Map<String, Long> counts = new LinkedHashMap<>();
+            for (int i = 0; i < stores.size(); i++) {
+                counts.put(stores.get(i).type.getName(), restores.get(i).get());
+            }
+            return counts;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GriffonException("Interrupted while restoring repository '" + name + "'", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RepositoryException) {
+                throw (RepositoryException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new GriffonException("Could not restore repository '" + name + "'", cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Starts journaling writes made to the repository, which must have been restored first.
+     */
+    @SuppressWarnings("unchecked")
+    void open(@Nonnull Repository repository, @Nonnull ScheduledExecutorService flushScheduler, @Nonnull ScheduledExecutorService snapshotScheduler) throws RepositoryException {
+        this.repository = requireNonNull(repository, "Argument 'repository' must not be null");
+        for (TypeStore<?> store : stores) {
+            repository.storageFor((Class<Storable>) store.type).addTrigger(new JournalTrigger(store));
+        }
+
+        flushTask = flushScheduler.scheduleWithFixedDelay(this::flush, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+        if (snapshotInterval > 0) {
+            snapshotTask = snapshotScheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    snapshot();
+                } catch (RepositoryException | IOException | RuntimeException e) {
+                    LOG.warn("Could not take a snapshot of repository '{}'", name, e);
+                }
+            }, snapshotInterval, snapshotInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes a snapshot of every type and discards the journal entries it supersedes.
+     *
+     * @return the number of storables written for each type, keyed by class name.
+     */
+    @Nonnull
+    Map<String, Long> snapshot() throws RepositoryException, IOException {
+        synchronized (snapshotLock) {
+            Map<String, Long> counts = new LinkedHashMap<>();
+            for (TypeStore<?> store : stores) {
+                counts.put(store.type.getName(), store.snapshot(repository));
+            }
+            return counts;
+        }
+    }
+
+    void close() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+        }
+        if (snapshotTask != null) {
+            snapshotTask.cancel(false);
+        }
+        for (TypeStore<?> store : stores) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                LOG.error("Could not close journal of {} in repository '{}'", store.type.getName(), name, e);
+            }
+        }
+    }
+
+    private void flush() {
+        for (TypeStore<?> store : stores) {
+            try {
+                store.flush();
+            } catch (IOException e) {
+                LOG.error("Could not write journal of {} in repository '{}'", store.type.getName(), name, e);
+            }
+        }
+    }
+
+    /**
+     * Returns a view of the repository whose transactions journal the writes made within them only once they commit.
+     */
+    @Nonnull
+    Repository track(@Nonnull Repository repository) {
+        requireNonNull(repository, "Argument 'repository' must not be null");
+        return (Repository) Proxy.newProxyInstance(MapPersistence.class.getClassLoader(), new Class<?>[]{Repository.class}, (proxy, method, args) -> {
+            Object result = invoke(repository, method, args);
+            if (result instanceof Transaction) {
+                return track(repository, (Transaction) result, "enterTopTransaction".equals(method.getName()));
+            }
+            return result;
+        });
+    }
+
+    @Nonnull
+    private static Transaction track(@Nonnull Repository repository, @Nonnull Transaction transaction, boolean top) {
+        PendingTransaction pending = new PendingTransaction(repository, top);
+        TRANSACTIONS.get().push(pending);
+        return (Transaction) Proxy.newProxyInstance(MapPersistence.class.getClassLoader(), new Class<?>[]{Transaction.class}, (proxy, method, args) -> {
+            if ("commit".equals(method.getName())) {
+                Object result = invoke(transaction, method, args);
+                pending.commit();
+                return result;
+            } else if ("exit".equals(method.getName())) {
+                try {
+                    return invoke(transaction, method, args);
+                } finally {
+                    pending.exit();
+                }
+            }
+            return invoke(transaction, method, args);
+        });
+    }
+
+    @Nullable
+    private static Object invoke(@Nonnull Object target, @Nonnull Method method, @Nullable Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void append(@Nonnull TypeStore<?> store, byte operation, @Nonnull byte[] record) {
+        PendingTransaction transaction = findTransaction(TRANSACTIONS.get(), repository);
+        if (transaction != null) {
+            transaction.entries.add(new PendingEntry(store, operation, record));
+        } else {
+            store.append(operation, record);
+        }
+    }
+
+    @Nullable
+    private static PendingTransaction findTransaction(@Nonnull Deque<PendingTransaction> transactions, @Nonnull Repository repository) {
+        for (PendingTransaction transaction : transactions) {
+            if (transaction.repository == repository) {
+                return transaction;
+            }
+        }
+        return null;
+    }
+
+    private static final class TypeStore<S extends Storable> {
+        private final Class<S> type;
+        private final Path snapshotFile;
+        private final Path journalFile;
+        private final Path retiredJournalFile;
+        private volatile StorableJournal journal;
+
+        private TypeStore(@Nonnull Class<S> type, @Nonnull Path directory) {
+            this.type = type;
+            this.snapshotFile = directory.resolve(type.getName() + ".snapshot");
+            this.journalFile = directory.resolve(type.getName() + ".journal");
+            this.retiredJournalFile = directory.resolve(type.getName() + ".journal.old");
+        }
+
+        private long restore(@Nonnull Repository repository) throws RepositoryException, IOException {
+            Storage<S> storage = repository.storageFor(type);
+            if (Files.exists(snapshotFile)) {
+                loadSnapshot(storage);
+            }
+
+            StorableJournal.truncate(retiredJournalFile, StorableJournal.replay(retiredJournalFile, (operation, record) -> apply(storage, operation, record)));
+            long validLength = StorableJournal.replay(journalFile, (operation, record) -> apply(storage, operation, record));
+            if (Files.exists(retiredJournalFile)) {
+                StorableJournal.retire(journalFile, validLength, retiredJournalFile);
+                validLength = 0L;
+            }
+            journal = new StorableJournal(journalFile, validLength);
+            return storage.query().count();
+        }
+
+        private void loadSnapshot(@Nonnull Storage<S> storage) throws RepositoryException, IOException {
+            try (FileChannel channel = FileChannel.open(snapshotFile, READ)) {
+                long size = channel.size();
+                ReadableByteChannel source = size <= Integer.MAX_VALUE ? new BufferChannel(channel.map(READ_ONLY, 0, size)) : channel;
+                StorableArchiveReader reader = new StorableArchiveReader(source);
+                for (String section = reader.nextSection(); section != null; section = reader.nextSection()) {
+                    if (!type.getName().equals(section)) {
+                        throw new StreamCorruptedException("Snapshot " + snapshotFile + " holds storables of " + section);
+                    }
+                    for (byte[] record = reader.nextRecord(); record != null; record = reader.nextRecord()) {
+                        S storable = storage.prepare();
+                        storable.readFrom(new ByteArrayInputStream(record));
+                        storable.markAllPropertiesDirty();
+                        storable.insert();
+                    }
+                }
+            }
+        }
+
+        private void apply(@Nonnull Storage<S> storage, byte operation, @Nonnull byte[] record) throws IOException, RepositoryException {
+            S storable = storage.prepare();
+            storable.readFrom(new ByteArrayInputStream(record));
+            if (operation == StorableJournal.OP_DELETE) {
+                storable.tryDelete();
+            } else {
+                storable.copy().tryDelete();
+                storable.markAllPropertiesDirty();
+                storable.insert();
+            }
+        }
+
+        private synchronized void append(byte operation, @Nonnull byte[] record) {
+            journal.append(operation, record);
+        }
+
+        private void flush() throws IOException {
+            StorableJournal current = journal;
+            if (current != null) {
+                current.flush();
+            }
+        }
+
+        private long snapshot(@Nonnull Repository repository) throws RepositoryException, IOException {
+            synchronized (this) {
+                journal.close();
+                StorableJournal.retire(journalFile, Files.size(journalFile), retiredJournalFile);
+                journal = new StorableJournal(journalFile, 0L);
+            }
+
+            Path temporaryFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+            long count = 0;
+            try (FileChannel channel = FileChannel.open(temporaryFile, CREATE, WRITE, TRUNCATE_EXISTING)) {
+                StorableArchiveWriter writer = new StorableArchiveWriter(channel, false);
+                writer.beginSection(type.getName());
+                Cursor<S> cursor = repository.storageFor(type).query().fetch();
+                try {
+                    while (cursor.hasNext()) {
+                        writer.write(cursor.next());
+                        count++;
+                    }
+                } finally {
+                    cursor.close();
+                }
+                writer.finish();
+                channel.force(true);
+            }
+            Files.move(temporaryFile, snapshotFile, ATOMIC_MOVE);
+            Files.deleteIfExists(retiredJournalFile);
+            return count;
+        }
+
+        private synchronized void close() throws IOException {
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+        }
+    }
+
+    private final class JournalTrigger extends Trigger<Storable> {
+        private final TypeStore<?> store;
+
+        private JournalTrigger(@Nonnull TypeStore<?> store) {
+            this.store = store;
+        }
+
+        @Override
+        public void afterInsert(Storable storable, Object state) throws PersistException {
+            record(StorableJournal.OP_PUT, storable);
+        }
+
+        @Override
+        public void afterTryInsert(Storable storable, Object state) throws PersistException {
+            record(StorableJournal.OP_PUT, storable);
+        }
+
+        @Override
+        public void afterUpdate(Storable storable, Object state) throws PersistException {
+            record(StorableJournal.OP_PUT, storable);
+        }
+
+        @Override
+        public void afterTryUpdate(Storable storable, Object state) throws PersistException {
+            record(StorableJournal.OP_PUT, storable);
+        }
+
+        @Override
+        public void afterDelete(Storable storable, Object state) throws PersistException {
+            record(StorableJournal.OP_DELETE, storable);
+        }
+
+        @Override
+        public void afterTryDelete(Storable storable, Object state) throws PersistException {
+            record(StorableJournal.OP_DELETE, storable);
+        }
+
+        private void record(byte operation, @Nonnull Storable storable) throws PersistException {
+            ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+            try {
+                storable.writeTo(record);
+            } catch (IOException | SupportException e) {
+                throw new PersistException("Could not journal " + storable.toStringKeyOnly() + " in repository '" + name + "'", e);
+            }
+            append(store, operation, record.toByteArray());
+        }
+    }
+
+    private static final class PendingTransaction {
+        private final Repository repository;
+        private final boolean top;
+        private final Deque<PendingTransaction> transactions = TRANSACTIONS.get();
+        private final List<PendingEntry> entries = new ArrayList<>();
+
+        private PendingTransaction(@Nonnull Repository repository, boolean top) {
+            this.repository = repository;
+            this.top = top;
+        }
+
+        private void commit() {
+            // a nested transaction only commits into its parent
+            PendingTransaction parent = top ? null : findParent();
+            for (PendingEntry entry : entries) {
+                if (parent != null) {
+                    parent.entries.add(entry);
+                } else {
+                    entry.store.append(entry.operation, entry.record);
+                }
+            }
+            entries.clear();
+        }
+
+        private void exit() {
+            // anything not committed so far is rolled back
+            entries.clear();
+            transactions.removeFirstOccurrence(this);
+            if (transactions.isEmpty()) {
+                TRANSACTIONS.remove();
+            }
+        }
+
+        @Nullable
+        private PendingTransaction findParent() {
+            boolean found = false;
+            for (PendingTransaction transaction : transactions) {
+                if (transaction == this) {
+                    found = true;
+                } else if (found && transaction.repository == repository) {
+                    return transaction;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class PendingEntry {
+        private final TypeStore<?> store;
+        private final byte operation;
+        private final byte[] record;
+
+        private PendingEntry(@Nonnull TypeStore<?> store, byte operation, @Nonnull byte[] record) {
+            this.store = store;
+            this.operation = operation;
+            this.record = record;
+        }
+    }
+
+    /**
+     * Exposes a memory mapped snapshot to {@link StorableArchiveReader}.
+     */
+    private static final class BufferChannel implements ReadableByteChannel {
+        private final ByteBuffer buffer;
+
+        private BufferChannel(@Nonnull ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(dst.remaining(), buffer.remaining());
+            ByteBuffer slice = buffer.duplicate();
+            slice.limit(slice.position() + count);
+            dst.put(slice);
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // the mapping is released along with the buffer
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Trigger;
+import com.amazon.carbonado.repo.sleepycat.BDBRepositoryBuilder;
+import com.sleepycat.je.EnvironmentConfig;
+import griffon.exceptions.GriffonException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Arrays.asList;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Backs an {@code offheap} repository with a throwaway BDB-JE environment. Storables are kept serialized in the
+ * environment's log files, indexed by the JE B-tree, and only a small cache of them lives on the heap. Log files
+ * are written to a memory backed file system when one is available, where they occupy memory outside of the heap,
+ * and are never synced. The environment is deleted when the repository is closed.
+ *
+ * @author Andres Almiray
+ */
+final class OffHeapStore {
+    private static final Logger LOG = LoggerFactory.getLogger(OffHeapStore.class);
+    private static final String KEY_DIRECTORY = "directory";
+    private static final String KEY_HEAP_CACHE_SIZE = "heapCacheSize";
+    private static final String KEY_CAPACITY = "capacity";
+    private static final List<String> KEYS = asList(KEY_DIRECTORY, KEY_HEAP_CACHE_SIZE, KEY_CAPACITY);
+    private static final File SHARED_MEMORY = new File("/dev/shm");
+    private static final long DEFAULT_HEAP_CACHE_SIZE = 8L * 1024 * 1024;
+    private static final long USAGE_SAMPLE_INTERVAL = 100L;
+    private static final String LOG_FILE_SUFFIX = ".jdb";
+
+    private final String name;
+    private final Path directory;
+    private final long heapCacheSize;
+    private final long capacity;
+    private volatile long usage;
+    private volatile long lastSample;
+
+    private OffHeapStore(@Nonnull String name, @Nonnull Path directory, long heapCacheSize, long capacity) {
+        this.name = name;
+        this.directory = directory;
+        this.heapCacheSize = heapCacheSize;
+        this.capacity = capacity;
+    }
+
+    @Nonnull
+    static OffHeapStore create(@Nonnull String name, @Nonnull Map<String, Object> config) {
+        requireNonBlank(name, "Argument 'name' must not be blank");
+        requireNonNull(config, "Argument 'config' must not be null");
+        for (String key : config.keySet()) {
+            if (!KEYS.contains(key)) {
+                throw new IllegalArgumentException("Unknown offheap property '" + key + "' for repository '" + name + "'. Valid properties are " + KEYS);
+            }
+        }
+
+        long heapCacheSize = getConfigValueAsLong(config, KEY_HEAP_CACHE_SIZE, DEFAULT_HEAP_CACHE_SIZE);
+        long capacity = getConfigValueAsLong(config, KEY_CAPACITY, 0L);
+        Object base = config.containsKey(KEY_DIRECTORY) ? config.get(KEY_DIRECTORY) : defaultDirectory(name);
+        File baseDirectory = base instanceof File ? (File) base : new File(String.valueOf(base));
+        try {
+            Files.createDirectories(baseDirectory.toPath());
+            Path directory = Files.createTempDirectory(baseDirectory.toPath(), "carbonado-" + name + "-");
+            return new OffHeapStore(name, directory, heapCacheSize, capacity);
+        } catch (IOException e) {
+            throw new GriffonException("Could not create offheap store of repository '" + name + "' in " + baseDirectory, e);
+        }
+    }
+
+    @Nonnull
+    private static File defaultDirectory(@Nonnull String name) {
+        if (SHARED_MEMORY.isDirectory() && SHARED_MEMORY.canWrite()) {
+            return SHARED_MEMORY;
+        }
+        File directory = new File(System.getProperty("java.io.tmpdir"));
+        LOG.warn("{} is not available. The offheap store of repository '{}' is created in {}, which may be backed by disk. Set its '{}' to choose a location explicitly", SHARED_MEMORY, name, directory, KEY_DIRECTORY);
+        return directory;
+    }
+
+    void configure(@Nonnull BDBRepositoryBuilder builder) {
+        builder.setEnvironmentHomeFile(directory.toFile());
+        builder.setCacheSize(heapCacheSize);
+        builder.setTransactionNoSync(true);
+        EnvironmentConfig environmentConfig = new EnvironmentConfig();
+        // nothing survives the repository, checkpoints only need to run often enough for the cleaner to reclaim space
+        environmentConfig.setConfigParam("je.checkpointer.bytesInterval", String.valueOf(64L * 1024 * 1024));
+        environmentConfig.setConfigParam("je.log.fileMax", String.valueOf(64L * 1024 * 1024));
+        builder.setInitialEnvironmentConfig(environmentConfig);
+    }
+
+    long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of bytes taken by the log files, sampled at most every {@value #USAGE_SAMPLE_INTERVAL} ms.
+     */
+    long getUsage() {
+        long now = System.currentTimeMillis();
+        if (now - lastSample >= USAGE_SAMPLE_INTERVAL) {
+            lastSample = now;
+            usage = measureUsage();
+        }
+        return usage;
+    }
+
+    private long measureUsage() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(LOG_FILE_SUFFIX))
+                .mapToLong(file -> file.toFile().length())
+                .sum();
+        } catch (IOException e) {
+            LOG.warn("Could not measure offheap store of repository '{}'", name, e);
+            return usage;
+        }
+    }
+
+    @Nonnull
+    Trigger<Storable> capacityTrigger() {
+        return new CapacityTrigger();
+    }
+
+    void delete() {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        } catch (IOException e) {
+            LOG.warn("Could not delete offheap store {} of repository '{}'", directory, name, e);
+        }
+    }
+
+    private final class CapacityTrigger extends Trigger<Storable> {
+        @Override
+        public Object beforeInsert(Storable storable) throws PersistException {
+            checkCapacity();
+            return null;
+        }
+
+        @Override
+        public Object beforeTryInsert(Storable storable) throws PersistException {
+            checkCapacity();
+            return null;
+        }
+
+        private void checkCapacity() throws PersistException {
+            long current = getUsage();
+            if (current >= capacity) {
+                throw new PersistException("Offheap repository '" + name + "' is full. " + current + " of " + capacity + " bytes are in use");
+            }
+        }
+    }
+}
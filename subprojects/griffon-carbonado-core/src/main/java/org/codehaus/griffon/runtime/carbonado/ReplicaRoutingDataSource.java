@@ -0,0 +1,268 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Arrays.asList;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Routes connections requested by read-only callbacks to read replicas and every other connection to the primary
+ * {@code DataSource}. Each connection goes to the available replica with the fewest open connections. A replica that
+ * fails to hand out a connection is skipped for {@code retryInterval} milliseconds; when no replica is available the
+ * connection is taken from the primary, unless {@code fallbackToPrimary} is disabled. Connections handed to read-only
+ * callbacks are marked read-only and reject updates.
+ *
+ * @author Andres Almiray
+ */
+final class ReplicaRoutingDataSource {
+    private static final Logger LOG = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+    private static final ThreadLocal<Boolean> READ_ONLY = new ThreadLocal<>();
+    private static final String SQL_STATE_READ_ONLY = "25006";
+    private static final Set<String> UPDATE_METHODS = new HashSet<>(asList("executeUpdate", "executeLargeUpdate", "executeBatch", "executeLargeBatch"));
+
+    private final String repositoryName;
+    private final DataSource primary;
+    private final Replica[] replicas;
+    private final long retryInterval;
+    private final boolean fallbackToPrimary;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    private ReplicaRoutingDataSource(@Nonnull String repositoryName, @Nonnull DataSource primary, @Nonnull Map<String, DataSource> replicas, long retryInterval, boolean fallbackToPrimary) {
+        this.repositoryName = requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        this.primary = requireNonNull(primary, "Argument 'primary' must not be null");
+        List<Replica> list = new ArrayList<>();
+        for (Map.Entry<String, DataSource> replica : requireNonNull(replicas, "Argument 'replicas' must not be null").entrySet()) {
+            list.add(new Replica(replica.getKey(), replica.getValue()));
+        }
+        this.replicas = list.toArray(new Replica[list.size()]);
+        this.retryInterval = retryInterval;
+        this.fallbackToPrimary = fallbackToPrimary;
+    }
+
+    @Nonnull
+    static DataSource wrap(@Nonnull String repositoryName, @Nonnull DataSource primary, @Nonnull Map<String, DataSource> replicas, long retryInterval, boolean fallbackToPrimary) {
+        ReplicaRoutingDataSource router = new ReplicaRoutingDataSource(repositoryName, primary, replicas, retryInterval, fallbackToPrimary);
+        return (DataSource) Proxy.newProxyInstance(ReplicaRoutingDataSource.class.getClassLoader(), new Class<?>[]{DataSource.class}, (proxy, method, args) -> {
+            if ("getConnection".equals(method.getName()) && isReadOnly()) {
+                return router.getReplicaConnection(method, args);
+            }
+            return invoke(primary, method, args);
+        });
+    }
+
+    static boolean isReadOnly() {
+        return Boolean.TRUE.equals(READ_ONLY.get());
+    }
+
+    /**
+     * @return the previous value, to be restored once the read-only section ends.
+     */
+    static boolean setReadOnly(boolean readOnly) {
+        boolean previous = isReadOnly();
+        if (readOnly) {
+            READ_ONLY.set(Boolean.TRUE);
+        } else {
+            READ_ONLY.remove();
+        }
+        return previous;
+    }
+
+    @Nonnull
+    private Connection getReplicaConnection(@Nonnull Method method, @Nullable Object[] args) throws Throwable {
+        boolean[] excluded = new boolean[replicas.length];
+        SQLException failure = null;
+        for (Replica replica = select(excluded); replica != null; replica = select(excluded)) {
+            try {
+                return replica.getConnection(method, args);
+            } catch (SQLException e) {
+                replica.markDown(retryInterval);
+                LOG.warn("Read replica '{}' of carbonado '{}' is unavailable for the next {} ms", replica.name, repositoryName, retryInterval, e);
+                failure = e;
+            }
+        }
+
+        if (fallbackToPrimary) {
+            LOG.debug("No read replica of carbonado '{}' is available. Using the primary DataSource", repositoryName);
+            return readOnly((Connection) invoke(primary, method, args), () -> { });
+        }
+        throw new SQLException("No read replica of carbonado '" + repositoryName + "' is available", failure);
+    }
+
+    @Nullable
+    private Replica select(@Nonnull boolean[] excluded) {
+        long now = System.nanoTime();
+        // rotating the starting point spreads ties across replicas
+        int start = Math.floorMod(nextReplica.getAndIncrement(), Math.max(1, replicas.length));
+        int selected = -1;
+        for (int i = 0; i < replicas.length; i++) {
+            int index = (start + i) % replicas.length;
+            Replica replica = replicas[index];
+            if (excluded[index] || !replica.isAvailable(now)) {
+                continue;
+            }
+            if (selected < 0 || replica.inFlight.get() < replicas[selected].inFlight.get()) {
+                selected = index;
+            }
+        }
+        if (selected < 0) {
+            return null;
+        }
+        excluded[selected] = true;
+        return replicas[selected];
+    }
+
+    /**
+     * Marks the connection read-only until it is closed, restoring its previous setting before it goes back to the
+     * pool. Drivers may treat the flag as a mere hint, hence updates issued through the connection are rejected too.
+     */
+    @Nonnull
+    private static Connection readOnly(@Nonnull Connection connection, @Nonnull Runnable onClose) throws SQLException {
+        boolean wasReadOnly;
+        try {
+            wasReadOnly = connection.isReadOnly();
+            if (!wasReadOnly) {
+                connection.setReadOnly(true);
+            }
+        } catch (SQLException | RuntimeException e) {
+            try {
+                connection.close();
+            } finally {
+                onClose.run();
+            }
+            throw e;
+        }
+
+        AtomicBoolean closed = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(ReplicaRoutingDataSource.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, m, a) -> {
+            if ("close".equals(m.getName())) {
+                if (closed.compareAndSet(false, true)) {
+                    try {
+                        if (!wasReadOnly) {
+                            connection.setReadOnly(false);
+                        }
+                    } catch (SQLException e) {
+                        LOG.debug("Could not restore the read-only setting of a connection", e);
+                    } finally {
+                        onClose.run();
+                    }
+                }
+                return invoke(connection, m, a);
+            } else if ("setReadOnly".equals(m.getName())) {
+                // the setting belongs to the router while the connection is borrowed
+                return null;
+            }
+            Object result = invoke(connection, m, a);
+            if (result instanceof Statement) {
+                return rejectUpdates((Statement) result, m.getReturnType(), (Connection) proxy);
+            } else if (result instanceof DatabaseMetaData) {
+                return withConnection(result, DatabaseMetaData.class, (Connection) proxy);
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Wraps a statement of a read-only connection. Objects reachable from it hand out the guarded connection, not
+     * the raw one, whose statements would accept updates.
+     */
+    @Nonnull
+    private static Object rejectUpdates(@Nonnull Statement statement, @Nonnull Class<?> type, @Nonnull Connection connection) {
+        return Proxy.newProxyInstance(ReplicaRoutingDataSource.class.getClassLoader(), new Class<?>[]{type}, (proxy, m, a) -> {
+            if (UPDATE_METHODS.contains(m.getName())) {
+                throw new SQLException("Cannot execute updates on a read-only connection", SQL_STATE_READ_ONLY);
+            } else if ("getConnection".equals(m.getName())) {
+                return connection;
+            }
+            Object result = invoke(statement, m, a);
+            if (result instanceof ResultSet) {
+                return withStatement((ResultSet) result, (Statement) proxy);
+            }
+            return result;
+        });
+    }
+
+    @Nonnull
+    private static Object withConnection(@Nonnull Object target, @Nonnull Class<?> type, @Nonnull Connection connection) {
+        return Proxy.newProxyInstance(ReplicaRoutingDataSource.class.getClassLoader(), new Class<?>[]{type}, (proxy, m, a) ->
+            "getConnection".equals(m.getName()) ? connection : invoke(target, m, a));
+    }
+
+    @Nonnull
+    private static ResultSet withStatement(@Nonnull ResultSet resultSet, @Nonnull Statement statement) {
+        return (ResultSet) Proxy.newProxyInstance(ReplicaRoutingDataSource.class.getClassLoader(), new Class<?>[]{ResultSet.class}, (proxy, m, a) ->
+            "getStatement".equals(m.getName()) ? statement : invoke(resultSet, m, a));
+    }
+
+    @Nullable
+    private static Object invoke(@Nonnull Object target, @Nonnull Method method, @Nullable Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static final class Replica {
+        private final String name;
+        private final DataSource dataSource;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile long downUntil;
+
+        private Replica(@Nonnull String name, @Nonnull DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+
+        private boolean isAvailable(long now) {
+            return downUntil == 0 || now - downUntil >= 0;
+        }
+
+        private void markDown(long retryInterval) {
+            downUntil = System.nanoTime() + retryInterval * 1_000_000L;
+        }
+
+        @Nonnull
+        private Connection getConnection(@Nonnull Method method, @Nullable Object[] args) throws Throwable {
+            Connection connection = (Connection) invoke(dataSource, method, args);
+            downUntil = 0;
+            inFlight.incrementAndGet();
+            return readOnly(connection, inFlight::decrementAndGet);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Counts the callbacks using a repository and remembers when it was last released. Acquiring is lock free;
+ * an eviction flips the count from {@code 0} to {@code -1} while holding the lease's monitor, which makes
+ * acquirers wait until the repository has been closed before reopening it. An explicit close additionally
+ * drains in-flight callbacks for up to {@code closeTimeout} ms. A retired lease can no longer be acquired,
+ * callers must look up a fresh one.
+ *
+ * @author Andres Almiray
+ */
+final class RepositoryLease {
+    private static final Logger LOG = LoggerFactory.getLogger(RepositoryLease.class);
+    private static final int EVICTING = -1;
+    private static final int RETIRED = -2;
+
+    private final String repositoryName;
+    private final long idleTimeout;
+    private final long closeTimeout;
+    private final AtomicInteger references = new AtomicInteger();
+    private volatile long lastRelease = System.nanoTime();
+    private volatile boolean draining;
+    private volatile ScheduledFuture<?> evictionTask;
+
+    RepositoryLease(String repositoryName, long idleTimeout, long closeTimeout) {
+        this.repositoryName = repositoryName;
+        this.idleTimeout = idleTimeout;
+        this.closeTimeout = closeTimeout;
+    }
+
+    long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    void setEvictionTask(@Nullable ScheduledFuture<?> evictionTask) {
+        this.evictionTask = evictionTask;
+    }
+
+    void cancelEviction() {
+        ScheduledFuture<?> task = evictionTask;
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * @return {@code false} if the lease has been retired.
+     */
+    boolean acquire() {
+        for (; ; ) {
+            int count = references.get();
+            if (count == RETIRED) {
+                return false;
+            } else if (count == EVICTING || draining) {
+                synchronized (this) {
+                    // wait for the eviction or close to finish
+                }
+            } else if (references.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void release() {
+        lastRelease = System.nanoTime();
+        references.getAndUpdate(count -> count > 0 ? count - 1 : count);
+    }
+
+    /**
+     * Runs the given eviction if no callback has used the repository for longer than the idle timeout.
+     *
+     * @return {@code true} if the eviction ran.
+     */
+    synchronized boolean evictIfIdle(Runnable eviction, boolean retire) {
+        if (System.nanoTime() - lastRelease < TimeUnit.MILLISECONDS.toNanos(idleTimeout) || !references.compareAndSet(0, EVICTING)) {
+            return false;
+        }
+        try {
+            eviction.run();
+        } finally {
+            lastRelease = System.nanoTime();
+            references.set(retire ? RETIRED : 0);
+        }
+        return true;
+    }
+
+    /**
+     * Stops new callbacks from acquiring the lease, waits up to {@code closeTimeout} ms for in-flight callbacks
+     * to finish and then runs the given close, whether they finished or not.
+     */
+    synchronized void close(Runnable close, boolean retire) {
+        draining = true;
+        boolean drained = false;
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(closeTimeout);
+            while (!(drained = references.compareAndSet(0, EVICTING)) && System.nanoTime() < deadline) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+            if (!drained) {
+                LOG.warn("Closing carbonado '{}' with {} callbacks still in flight after {} ms", repositoryName, references.get(), closeTimeout);
+            }
+            close.run();
+        } finally {
+            lastRelease = System.nanoTime();
+            if (retire) {
+                references.set(RETIRED);
+            } else if (drained) {
+                references.set(0);
+            }
+            draining = false;
+        }
+    }
+}
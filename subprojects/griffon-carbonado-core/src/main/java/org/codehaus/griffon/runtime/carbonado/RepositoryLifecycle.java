@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import com.amazon.carbonado.Repository;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Lifecycle operations of the default handler that are used by the addon and providers but are not part of the
+ * public {@code CarbonadoHandler} contract.
+ *
+ * @author Andres Almiray
+ */
+interface RepositoryLifecycle {
+    /**
+     * Runs the given probe against the repository while holding its lease.
+     *
+     * @param open whether a repository that is not open yet should be opened first, sharing the attempt with
+     *             concurrent callers
+     * @return {@code false} if the repository is not open and {@code open} is {@code false}
+     */
+    boolean probe(@Nonnull String repositoryName, boolean open, @Nonnull Probe probe) throws Exception;
+
+    /**
+     * Closes the repository under its lease.
+     *
+     * @param retire whether every per-repository resource should be released as well, as the name is not
+     *               expected to be opened again
+     */
+    void close(@Nonnull String repositoryName, boolean retire);
+
+    /**
+     * Stops evicting idle repositories.
+     */
+    void shutdown();
+
+    interface Probe {
+        void probe(@Nonnull Repository repository) throws Exception;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Configuration shared by every repository whose name matches a pattern with a single {@code *} wildcard, such as
+ * {@code tenant-*}. Resolving a name copies the template configuration, replacing {@code {id}} with the part of the
+ * name matched by the wildcard and {@code {name}} with the whole name in every String and File value.
+ *
+ * @author Andres Almiray
+ */
+final class RepositoryTemplate {
+    static final String WILDCARD = "*";
+    private static final String KEY_MAX_OPEN = "maxOpen";
+    private static final String TOKEN_ID = "{id}";
+    private static final String TOKEN_NAME = "{name}";
+
+    private final String pattern;
+    private final String prefix;
+    private final String suffix;
+    private final Map<String, Object> config;
+    private final int maxOpen;
+    private final Semaphore openRepositories;
+
+    RepositoryTemplate(@Nonnull String pattern, @Nonnull Map<String, Object> config) {
+        this.pattern = requireNonBlank(pattern, "Argument 'pattern' must not be blank");
+        this.config = requireNonNull(config, "Argument 'config' must not be null");
+        int wildcard = pattern.indexOf(WILDCARD);
+        if (wildcard < 0 || wildcard != pattern.lastIndexOf(WILDCARD)) {
+            throw new IllegalArgumentException("Repository template '" + pattern + "' must contain a single '" + WILDCARD + "'");
+        }
+        this.prefix = pattern.substring(0, wildcard);
+        this.suffix = pattern.substring(wildcard + 1);
+        this.maxOpen = getConfigValueAsInt(config, KEY_MAX_OPEN, 0);
+        this.openRepositories = maxOpen > 0 ? new Semaphore(maxOpen) : null;
+    }
+
+    static boolean isTemplate(@Nonnull String name) {
+        return name.contains(WILDCARD);
+    }
+
+    @Nonnull
+    String getPattern() {
+        return pattern;
+    }
+
+    int getMaxOpen() {
+        return maxOpen;
+    }
+
+    /**
+     * Returns the length of the literal parts of the pattern. Longer patterns are more specific.
+     */
+    int getSpecificity() {
+        return prefix.length() + suffix.length();
+    }
+
+    boolean matches(@Nonnull String name) {
+        return name.length() > getSpecificity() && name.startsWith(prefix) && name.endsWith(suffix);
+    }
+
+    @Nonnull
+    Map<String, Object> resolve(@Nonnull String name) {
+        String id = name.substring(prefix.length(), name.length() - suffix.length());
+        return copyMap(config, id, name);
+    }
+
+    /**
+     * @return {@code false} if {@code maxOpen} repositories of this template are already open.
+     */
+    boolean tryOpen() {
+        return openRepositories == null || openRepositories.tryAcquire();
+    }
+
+    void close() {
+        if (openRepositories != null) {
+            openRepositories.release();
+        }
+    }
+
+    @Nonnull
+    private static Map<String, Object> copyMap(@Nonnull Map<?, ?> map, @Nonnull String id, @Nonnull String name) {
+        Map<String, Object> copy = new LinkedHashMap<>();
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            copy.put(String.valueOf(entry.getKey()), copyValue(entry.getValue(), id, name));
+        }
+        return copy;
+    }
+
+    @Nullable
+    private static Object copyValue(@Nullable Object value, @Nonnull String id, @Nonnull String name) {
+        if (value instanceof Map) {
+            return copyMap((Map<?, ?>) value, id, name);
+        } else if (value instanceof Collection) {
+            List<Object> copy = new ArrayList<>();
+            for (Object element : (Collection<?>) value) {
+                copy.add(copyValue(element, id, name));
+            }
+            return copy;
+        } else if (value instanceof File) {
+            return new File(substitute(((File) value).getPath(), id, name));
+        } else if (value instanceof CharSequence) {
+            return substitute(value.toString(), id, name);
+        }
+        return value;
+    }
+
+    @Nonnull
+    private static String substitute(@Nonnull String value, @Nonnull String id, @Nonnull String name) {
+        return value.replace(TOKEN_ID, id).replace(TOKEN_NAME, name);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import static griffon.util.ConfigUtils.getConfigValue;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Arrays.asList;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Tracks the {@code bdb} repositories that joined each environment defined in the {@code sharedEnvironments} block.
+ * Members open their environments with the BDB-JE shared cache. JE keeps a single shared cache per JVM, sized by the
+ * environments that use it, hence every definition must agree on its size. Definitions only differ in the environment
+ * parameters applied to their members. A shared environment is resolved when its first member opens and forgotten once
+ * the last member is destroyed; JE frees the cache itself when the last environment using it is closed.
+ *
+ * @author Andres Almiray
+ */
+final class SharedEnvironments {
+    static final String KEY_SHARED_ENVIRONMENTS = "sharedEnvironments";
+    private static final String KEY_CACHE_SIZE = "cacheSize";
+    private static final String KEY_CACHE_PERCENT = "cachePercent";
+    private static final List<String> KEYS = asList(KEY_CACHE_SIZE, KEY_CACHE_PERCENT, BDBTuning.KEY_ENVIRONMENT);
+
+    private final Map<String, Object> definitions;
+    private final BiConsumer<String, List<?>> events;
+    private final Map<String, SharedEnvironment> environments = new HashMap<>();
+
+    SharedEnvironments(@Nonnull Map<String, Object> definitions, @Nonnull BiConsumer<String, List<?>> events) {
+        this.definitions = requireNonNull(definitions, "Argument 'definitions' must not be null");
+        this.events = requireNonNull(events, "Argument 'events' must not be null");
+        requireSingleCacheSize(definitions);
+    }
+
+    /**
+     * Registers a member of a shared environment and returns the BDB-JE parameters the member must be opened with.
+     *
+     * @param environmentName the name of the shared environment.
+     * @param repositoryName  the name of the repository that is being opened.
+     */
+    @Nonnull
+    synchronized Map<String, String> acquire(@Nonnull String environmentName, @Nonnull String repositoryName) {
+        requireNonBlank(environmentName, "Argument 'environmentName' must not be blank");
+        requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+
+        SharedEnvironment environment = environments.get(environmentName);
+        if (environment == null) {
+            environment = new SharedEnvironment(environmentName, resolve(environmentName));
+            environments.put(environmentName, environment);
+            events.accept("CarbonadoSharedEnvironmentOpen", asList(environmentName));
+        }
+        environment.members.merge(repositoryName, 1, Integer::sum);
+        return environment.params;
+    }
+
+    /**
+     * Unregisters every membership held by a repository. Shared environments left without members are released.
+     */
+    synchronized void release(@Nonnull String repositoryName) {
+        requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        for (SharedEnvironment environment : environments.values().toArray(new SharedEnvironment[0])) {
+            if (environment.members.remove(repositoryName) != null && environment.members.isEmpty()) {
+                environments.remove(environment.name);
+                events.accept("CarbonadoSharedEnvironmentClose", asList(environment.name));
+            }
+        }
+    }
+
+    private static void requireSingleCacheSize(@Nonnull Map<String, Object> definitions) {
+        String first = null;
+        String cacheSize = null;
+        for (Map.Entry<String, Object> definition : definitions.entrySet()) {
+            if (!(definition.getValue() instanceof Map)) {
+                continue;
+            }
+            String candidate = cacheSize((Map<?, ?>) definition.getValue());
+            if (first == null) {
+                first = definition.getKey();
+                cacheSize = candidate;
+            } else if (!cacheSize.equals(candidate)) {
+                throw new IllegalArgumentException("Shared environments '" + first + "' and '" + definition.getKey() + "' define different cache sizes. BDB-JE keeps a single shared cache per JVM, hence every shared environment must set the same " + KEY_CACHE_SIZE + " or " + KEY_CACHE_PERCENT);
+            }
+        }
+    }
+
+    @Nonnull
+    private static String cacheSize(@Nonnull Map<?, ?> definition) {
+        if (definition.containsKey(KEY_CACHE_SIZE)) {
+            return KEY_CACHE_SIZE + "=" + definition.get(KEY_CACHE_SIZE);
+        } else if (definition.containsKey(KEY_CACHE_PERCENT)) {
+            return KEY_CACHE_PERCENT + "=" + definition.get(KEY_CACHE_PERCENT);
+        }
+        return "";
+    }
+
+    @Nonnull
+    private Map<String, String> resolve(@Nonnull String environmentName) {
+        Map<String, Object> definition = getConfigValue(definitions, environmentName, Collections.<String, Object>emptyMap());
+        if (definition.isEmpty()) {
+            throw new IllegalArgumentException("Shared environment '" + environmentName + "' is not configured. Configured values are " + definitions.keySet());
+        }
+        for (String key : definition.keySet()) {
+            if (!KEYS.contains(key)) {
+                throw new IllegalArgumentException("Unknown property '" + key + "' for shared environment '" + environmentName + "'. Valid properties are " + KEYS);
+            }
+        }
+
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put(BDBTuning.PARAM_SHARED_CACHE, "true");
+        if (definition.containsKey(KEY_CACHE_SIZE)) {
+            params.put(BDBTuning.PARAM_MAX_MEMORY, String.valueOf(definition.get(KEY_CACHE_SIZE)));
+        } else if (definition.containsKey(KEY_CACHE_PERCENT)) {
+            params.put(BDBTuning.PARAM_MAX_MEMORY_PERCENT, String.valueOf(definition.get(KEY_CACHE_PERCENT)));
+        }
+        Map<String, String> environment = BDBTuning.environmentParams(getConfigValue(definition, BDBTuning.KEY_ENVIRONMENT, Collections.<String, Object>emptyMap()));
+        for (String key : asList(BDBTuning.PARAM_SHARED_CACHE, BDBTuning.PARAM_MAX_MEMORY, BDBTuning.PARAM_MAX_MEMORY_PERCENT)) {
+            if (environment.containsKey(key)) {
+                throw new IllegalArgumentException("Shared environment '" + environmentName + "' can not set '" + key + "'. Use " + KEY_CACHE_SIZE + " or " + KEY_CACHE_PERCENT + " instead");
+            }
+        }
+        params.putAll(environment);
+        return Collections.unmodifiableMap(params);
+    }
+
+    private static final class SharedEnvironment {
+        private final String name;
+        private final Map<String, String> params;
+        private final Map<String, Integer> members = new HashMap<>();
+
+        private SharedEnvironment(@Nonnull String name, @Nonnull Map<String, String> params) {
+            this.name = name;
+            this.params = params;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects the SQL statements executed by the current thread while a callback of a repository with
+ * an enabled slow log runs. Nested callbacks get their own trace.
+ *
+ * @author Andres Almiray
+ */
+final class SlowOperationTrace {
+    private static final int MAX_STATEMENTS = 20;
+    private static final ThreadLocal<SlowOperationTrace> CURRENT = new ThreadLocal<>();
+
+    private final SlowOperationTrace parent;
+    private List<String> statements = Collections.emptyList();
+    private int dropped;
+
+    private SlowOperationTrace(@Nullable SlowOperationTrace parent) {
+        this.parent = parent;
+    }
+
+    @Nonnull
+    static SlowOperationTrace begin() {
+        SlowOperationTrace trace = new SlowOperationTrace(CURRENT.get());
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    static void statement(@Nonnull String sql) {
+        SlowOperationTrace trace = CURRENT.get();
+        if (trace != null) {
+            trace.add(sql);
+        }
+    }
+
+    @Nonnull
+    List<String> end() {
+        if (parent != null) {
+            CURRENT.set(parent);
+        } else {
+            CURRENT.remove();
+        }
+
+        if (dropped > 0) {
+            List<String> list = new ArrayList<>(statements);
+            list.add("... " + dropped + " more");
+            return list;
+        }
+        return statements;
+    }
+
+    private void add(@Nonnull String sql) {
+        if (statements.isEmpty()) {
+            statements = new ArrayList<>();
+        }
+        if (statements.size() < MAX_STATEMENTS) {
+            statements.add(sql);
+        } else {
+            dropped++;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.GZIPInputStream;
+
+import static java.util.Objects.requireNonNull;
+import static org.codehaus.griffon.runtime.carbonado.StorableArchiveWriter.BUFFER_SIZE;
+import static org.codehaus.griffon.runtime.carbonado.StorableArchiveWriter.END_OF_SECTION;
+import static org.codehaus.griffon.runtime.carbonado.StorableArchiveWriter.FLAG_COMPRESSED;
+import static org.codehaus.griffon.runtime.carbonado.StorableArchiveWriter.MAGIC;
+import static org.codehaus.griffon.runtime.carbonado.StorableArchiveWriter.MARKER_END;
+import static org.codehaus.griffon.runtime.carbonado.StorableArchiveWriter.MARKER_SECTION;
+import static org.codehaus.griffon.runtime.carbonado.StorableArchiveWriter.VERSION;
+
+/**
+ * Reads archives written by {@link StorableArchiveWriter}, one section and one record at a time.
+ *
+ * @author Andres Almiray
+ */
+final class StorableArchiveReader {
+    private final DataInputStream in;
+    private boolean inSection;
+    private boolean finished;
+
+    StorableArchiveReader(@Nonnull ReadableByteChannel channel) throws IOException {
+        requireNonNull(channel, "Argument 'channel' must not be null");
+        InputStream source = Channels.newInputStream(channel);
+        DataInputStream header = new DataInputStream(source);
+        if (header.readInt() != MAGIC) {
+            throw new StreamCorruptedException("Not a carbonado archive");
+        }
+        byte version = header.readByte();
+        if (version != VERSION) {
+            throw new StreamCorruptedException("Unsupported carbonado archive version " + version);
+        }
+        boolean compressed = (header.readByte() & FLAG_COMPRESSED) != 0;
+
+        in = new DataInputStream(new BufferedInputStream(compressed ? new GZIPInputStream(source, BUFFER_SIZE) : source, BUFFER_SIZE));
+    }
+
+    /**
+     * Moves to the next section, skipping unread records of the current one.
+     *
+     * @return the Storable type name of the next section or {@code null} when the archive has no more sections.
+     */
+    @Nullable
+    String nextSection() throws IOException {
+        while (inSection) {
+            nextRecord();
+        }
+        if (finished) {
+            return null;
+        }
+
+        byte marker = in.readByte();
+        if (marker == MARKER_END) {
+            finished = true;
+            return null;
+        } else if (marker != MARKER_SECTION) {
+            throw new StreamCorruptedException("Unexpected section marker " + marker);
+        }
+        inSection = true;
+        return in.readUTF();
+    }
+
+    /**
+     * @return the next record of the current section or {@code null} when the section has no more records.
+     */
+    @Nullable
+    byte[] nextRecord() throws IOException {
+        if (!inSection) {
+            return null;
+        }
+
+        int length = in.readInt();
+        if (length == END_OF_SECTION) {
+            inSection = false;
+            return null;
+        } else if (length < 0) {
+            throw new StreamCorruptedException("Invalid record length " + length);
+        }
+        byte[] record = new byte[length];
+        in.readFully(record);
+        return record;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.SupportException;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.GZIPOutputStream;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Writes storables in the archive format shared by exports and snapshots. An archive starts with an uncompressed
+ * header (magic number, version and flags) followed by a body that may be gzip compressed. The body holds one
+ * section per Storable type: a marker byte, the type name and its records, each prefixed with its length. A
+ * negative length closes a section and a zero marker byte closes the archive.
+ *
+ * @author Andres Almiray
+ */
+final class StorableArchiveWriter {
+    static final int MAGIC = 0x43524258;
+    static final byte VERSION = 1;
+    static final byte FLAG_COMPRESSED = 1;
+    static final byte MARKER_SECTION = 1;
+    static final byte MARKER_END = 0;
+    static final int END_OF_SECTION = -1;
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream sink;
+    private final GZIPOutputStream compressor;
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+    private boolean inSection;
+    private boolean finished;
+
+    StorableArchiveWriter(@Nonnull WritableByteChannel channel, boolean compressed) throws IOException {
+        requireNonNull(channel, "Argument 'channel' must not be null");
+        sink = Channels.newOutputStream(channel);
+        DataOutputStream header = new DataOutputStream(sink);
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        header.writeByte(compressed ? FLAG_COMPRESSED : 0);
+        header.flush();
+
+        compressor = compressed ? new GZIPOutputStream(sink, BUFFER_SIZE) : null;
+        out = new DataOutputStream(new BufferedOutputStream(compressed ? compressor : sink, BUFFER_SIZE));
+    }
+
+    void beginSection(@Nonnull String storableType) throws IOException {
+        requireNonBlank(storableType, "Argument 'storableType' must not be blank");
+        endSection();
+        out.writeByte(MARKER_SECTION);
+        out.writeUTF(storableType);
+        inSection = true;
+    }
+
+    void write(@Nonnull Storable storable) throws IOException, SupportException {
+        requireNonNull(storable, "Argument 'storable' must not be null");
+        if (!inSection) {
+            throw new IllegalStateException("A section must be started before writing storables");
+        }
+        record.reset();
+        storable.writeTo(record);
+        out.writeInt(record.size());
+        record.writeTo(out);
+    }
+
+    /**
+     * Closes the archive without closing the underlying channel.
+     */
+    void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        endSection();
+        out.writeByte(MARKER_END);
+        out.flush();
+        if (compressor != null) {
+            compressor.finish();
+        }
+        sink.flush();
+    }
+
+    private void endSection() throws IOException {
+        if (inSection) {
+            out.writeInt(END_OF_SECTION);
+            inSection = false;
+        }
+    }
+}
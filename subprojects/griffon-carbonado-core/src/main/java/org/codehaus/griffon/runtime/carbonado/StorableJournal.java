@@ -0,0 +1,256 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import com.amazon.carbonado.RepositoryException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.requireNonNull;
+import static org.codehaus.griffon.runtime.carbonado.StorableArchiveWriter.BUFFER_SIZE;
+
+/**
+ * Append-only log of the writes made to a single Storable type. Each entry holds an operation and a record written
+ * by {@code Storable.writeTo}, followed by a CRC32 of both. Entries are buffered in memory and written behind by
+ * {@link #flush()}, a batched asynchronous flush that syncs them to disk with a single {@code force} call no matter how
+ * many writes it carries. Appending never waits for that call. Replay stops at the first entry that is incomplete or
+ * fails its checksum, such as the torn or zero-filled tail left behind by a crash, and discards the rest of the file.
+ *
+ * @author Andres Almiray
+ */
+final class StorableJournal {
+    private static final Logger LOG = LoggerFactory.getLogger(StorableJournal.class);
+    static final byte OP_PUT = 1;
+    static final byte OP_DELETE = 2;
+    private static final int MAGIC = 0x43524a4c;
+    private static final byte VERSION = 2;
+    private static final int HEADER_SIZE = 5;
+    // operation, record length and checksum
+    private static final int ENTRY_OVERHEAD = 9;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final Object writeLock = new Object();
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream(BUFFER_SIZE);
+    private DataOutputStream out = new DataOutputStream(pending);
+    private final CRC32 checksum = new CRC32();
+
+    /**
+     * Opens a journal for appending, creating it when missing.
+     *
+     * @param validLength the length of the valid part of an existing journal, as returned by {@link #replay}.
+     *                    Anything past it is discarded.
+     */
+    StorableJournal(@Nonnull Path file, long validLength) throws IOException {
+        this.file = requireNonNull(file, "Argument 'file' must not be null");
+        channel = FileChannel.open(file, CREATE, READ, WRITE);
+        if (validLength < HEADER_SIZE) {
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).put(VERSION);
+            header.flip();
+            writeFully(header);
+            channel.force(false);
+        } else {
+            channel.truncate(validLength);
+        }
+        channel.position(channel.size());
+    }
+
+    @Nonnull
+    Path getFile() {
+        return file;
+    }
+
+    synchronized void append(byte operation, @Nonnull byte[] record) {
+        try {
+            out.writeByte(operation);
+            out.writeInt(record.length);
+            out.write(record);
+            out.writeInt(checksumOf(checksum, operation, record));
+        } catch (IOException e) {
+            // cannot happen with an in-memory buffer
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes and syncs every entry appended so far.
+     */
+    void flush() throws IOException {
+        synchronized (writeLock) {
+            byte[] batch;
+            synchronized (this) {
+                if (pending.size() == 0) {
+                    return;
+                }
+                batch = pending.toByteArray();
+                pending = new ByteArrayOutputStream(BUFFER_SIZE);
+                out = new DataOutputStream(pending);
+            }
+            writeFully(ByteBuffer.wrap(batch));
+            channel.force(false);
+        }
+    }
+
+    void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static int checksumOf(@Nonnull CRC32 checksum, byte operation, @Nonnull byte[] record) {
+        checksum.reset();
+        checksum.update(operation);
+        checksum.update(record.length >>> 24);
+        checksum.update(record.length >>> 16);
+        checksum.update(record.length >>> 8);
+        checksum.update(record.length);
+        checksum.update(record, 0, record.length);
+        return (int) checksum.getValue();
+    }
+
+    private void writeFully(@Nonnull ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Feeds every complete entry of a journal to the given handler, up to the first invalid one.
+     *
+     * @return the length of the valid part of the journal, {@code 0} if the journal does not exist.
+     */
+    static long replay(@Nonnull Path file, @Nonnull EntryHandler handler) throws IOException, RepositoryException {
+        if (!Files.exists(file)) {
+            return 0L;
+        }
+
+        long size = Files.size(file);
+        long valid = 0L;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+            int magic = in.readInt();
+            if (magic == 0) {
+                // the header was never synced, the journal holds no entries
+                throw new EOFException();
+            } else if (magic != MAGIC) {
+                throw new StreamCorruptedException("Not a carbonado journal: " + file);
+            }
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new StreamCorruptedException("Unsupported carbonado journal version " + version + ": " + file);
+            }
+            valid = HEADER_SIZE;
+
+            CRC32 checksum = new CRC32();
+            while (true) {
+                byte operation = in.readByte();
+                if (operation != OP_PUT && operation != OP_DELETE) {
+                    break;
+                }
+                int length = in.readInt();
+                // a garbage length must not allocate more than the file can hold
+                if (length < 0 || length > size - valid - ENTRY_OVERHEAD) {
+                    break;
+                }
+                byte[] record = new byte[length];
+                in.readFully(record);
+                if (in.readInt() != checksumOf(checksum, operation, record)) {
+                    break;
+                }
+                handler.handle(operation, record);
+                valid += ENTRY_OVERHEAD + length;
+            }
+        } catch (EOFException e) {
+            // the last entry is incomplete
+        }
+        if (valid < size) {
+            LOG.warn("Discarding {} bytes of incomplete or corrupted entries at the end of {}", size - valid, file);
+        }
+        return valid;
+    }
+
+    /**
+     * Moves the valid entries of a journal to a retired journal, appending them when the retired journal already
+     * exists, and deletes the journal. Entries copied twice by an interrupted retirement are harmless as replaying
+     * an entry is idempotent.
+     */
+    static void retire(@Nonnull Path file, long validLength, @Nonnull Path retired) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        if (validLength <= HEADER_SIZE) {
+            Files.delete(file);
+            return;
+        }
+
+        if (!Files.exists(retired)) {
+            truncate(file, validLength);
+            Files.move(file, retired, ATOMIC_MOVE);
+            return;
+        }
+
+        try (FileChannel source = FileChannel.open(file, READ); FileChannel target = FileChannel.open(retired, WRITE, APPEND)) {
+            for (long position = HEADER_SIZE; position < validLength; ) {
+                position += source.transferTo(position, validLength - position, target);
+            }
+            target.force(false);
+        }
+        Files.delete(file);
+    }
+
+    /**
+     * Cuts a journal down to its valid length, deleting it when it holds no entries.
+     */
+    static void truncate(@Nonnull Path file, long validLength) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        if (validLength <= HEADER_SIZE) {
+            Files.delete(file);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, WRITE)) {
+            channel.truncate(validLength);
+            channel.force(false);
+        }
+    }
+
+    @FunctionalInterface
+    interface EntryHandler {
+        void handle(byte operation, @Nonnull byte[] record) throws IOException, RepositoryException;
+    }
+}
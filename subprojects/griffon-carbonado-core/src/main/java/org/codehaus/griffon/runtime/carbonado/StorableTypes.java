@@ -0,0 +1,70 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import com.amazon.carbonado.Storable;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Resolves Storable types listed in configuration, either as classes or as fully qualified class names.
+ *
+ * @author Andres Almiray
+ */
+final class StorableTypes {
+    private StorableTypes() {
+        // prevent instantiation
+    }
+
+    @Nonnull
+    static List<Class<? extends Storable>> resolve(@Nonnull Object types, @Nonnull ClassLoader classLoader) {
+        requireNonNull(types, "Argument 'types' must not be null");
+        requireNonNull(classLoader, "Argument 'classLoader' must not be null");
+
+        Collection<?> entries = types instanceof Collection ? (Collection<?>) types : Collections.singletonList(types);
+        List<Class<? extends Storable>> storableTypes = new ArrayList<>();
+        for (Object entry : entries) {
+            storableTypes.add(resolveType(entry, classLoader));
+        }
+        return storableTypes;
+    }
+
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    private static Class<? extends Storable> resolveType(@Nonnull Object entry, @Nonnull ClassLoader classLoader) {
+        Class<?> type;
+        if (entry instanceof Class) {
+            type = (Class<?>) entry;
+        } else {
+            try {
+                type = Class.forName(String.valueOf(entry).trim(), true, classLoader);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("Storable type '" + entry + "' could not be found", e);
+            }
+        }
+
+        if (!Storable.class.isAssignableFrom(type)) {
+            throw new IllegalArgumentException("Type '" + type.getName() + "' is not a " + Storable.class.getName());
+        }
+        return (Class<? extends Storable>) type;
+    }
+}
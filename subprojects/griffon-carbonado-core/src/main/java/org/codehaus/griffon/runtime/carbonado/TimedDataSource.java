@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import griffon.plugins.carbonado.RepositoryMetrics;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Wraps a {@code DataSource} so that every statement executed through its connections is timed
+ * and recorded as a query of the owning repository, as well as traced for the slow operation log.
+ * Connections are only wrapped while their timings are consumed, checked each time one is handed out.
+ *
+ * @author Andres Almiray
+ */
+final class TimedDataSource {
+    private static final String BATCH = "<batch>";
+    private static final Set<String> EXECUTE_METHODS = new HashSet<>(Arrays.asList(
+        "execute", "executeQuery", "executeUpdate", "executeLargeUpdate", "executeBatch", "executeLargeBatch"));
+
+    private TimedDataSource() {
+        // prevent instantiation
+    }
+
+    @Nonnull
+    static DataSource wrap(@Nonnull final DataSource dataSource, @Nonnull final RepositoryMetrics metrics, @Nonnull final BooleanSupplier timed) {
+        requireNonNull(dataSource, "Argument 'dataSource' must not be null");
+        requireNonNull(metrics, "Argument 'metrics' must not be null");
+        requireNonNull(timed, "Argument 'timed' must not be null");
+
+        return proxy(DataSource.class, (proxy, method, args) -> {
+            Object result = invoke(dataSource, method, args);
+            return result instanceof Connection && timed.getAsBoolean() ? wrap((Connection) result, metrics) : result;
+        });
+    }
+
+    @Nonnull
+    private static Connection wrap(@Nonnull final Connection connection, @Nonnull final RepositoryMetrics metrics) {
+        return proxy(Connection.class, (proxy, method, args) -> {
+            Object result = invoke(connection, method, args);
+            if (result instanceof Statement) {
+                String sql = method.getName().startsWith("prepare") ? String.valueOf(args[0]) : null;
+                return wrap((Statement) result, sql, metrics);
+            }
+            return result;
+        });
+    }
+
+    @Nonnull
+    private static Statement wrap(@Nonnull final Statement statement, @Nullable final String sql, @Nonnull final RepositoryMetrics metrics) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (!EXECUTE_METHODS.contains(method.getName())) {
+                return invoke(statement, method, args);
+            }
+
+            String query = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : sql;
+            long start = System.nanoTime();
+            Throwable failure = null;
+            try {
+                return invoke(statement, method, args);
+            } catch (Throwable t) {
+                failure = t;
+                throw t;
+            } finally {
+                String statementText = query != null ? query : BATCH;
+                metrics.recordQuery(statementText, System.nanoTime() - start, failure);
+                SlowOperationTrace.statement(statementText);
+            }
+        };
+
+        if (statement instanceof CallableStatement) {
+            return proxy(CallableStatement.class, handler);
+        } else if (statement instanceof PreparedStatement) {
+            return proxy(PreparedStatement.class, handler);
+        }
+        return proxy(Statement.class, handler);
+    }
+
+    @Nullable
+    private static Object invoke(@Nonnull Object target, @Nonnull Method method, @Nullable Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(@Nonnull Class<T> type, @Nonnull InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(TimedDataSource.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.carbonado;
+
+import com.amazon.carbonado.FetchDeadlockException;
+import com.amazon.carbonado.IsolationLevel;
+import com.amazon.carbonado.OptimisticLockException;
+import com.amazon.carbonado.PersistDeadlockException;
+import griffon.plugins.carbonado.ShardedCommitException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static griffon.util.ConfigUtils.getConfigValue;
+import static griffon.util.ConfigUtils.getConfigValueAsDouble;
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static griffon.util.ConfigUtils.getConfigValueAsString;
+import static griffon.util.GriffonNameUtils.isBlank;
+
+/**
+ * Retry settings for transactional callbacks, read from the {@code transaction} block of a repository.
+ * Backoff grows exponentially from {@code initialBackoff} up to {@code maxBackoff}; {@code jitter}
+ * is the fraction of each delay that is randomized.
+ *
+ * @author Andres Almiray
+ */
+public final class TransactionRetryPolicy {
+    private final IsolationLevel isolationLevel;
+    private final int maxAttempts;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final double jitter;
+
+    public TransactionRetryPolicy(@Nullable IsolationLevel isolationLevel, int maxAttempts, long initialBackoff, long maxBackoff, double jitter) {
+        this.isolationLevel = isolationLevel;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoff = Math.max(0L, initialBackoff);
+        this.maxBackoff = Math.max(this.initialBackoff, maxBackoff);
+        this.jitter = Math.min(1d, Math.max(0d, jitter));
+    }
+
+    @Nonnull
+    public static TransactionRetryPolicy of(@Nonnull Map<String, Object> repositoryConfig) {
+        Map<String, Object> config = getConfigValue(repositoryConfig, "transaction", Collections.<String, Object>emptyMap());
+        String isolationLevel = getConfigValueAsString(config, "isolationLevel", null);
+        return new TransactionRetryPolicy(
+            isBlank(isolationLevel) ? null : IsolationLevel.valueOf(isolationLevel.trim().toUpperCase()),
+            getConfigValueAsInt(config, "maxAttempts", 3),
+            getConfigValueAsLong(config, "initialBackoff", 20L),
+            getConfigValueAsLong(config, "maxBackoff", 1000L),
+            getConfigValueAsDouble(config, "jitter", 0.5d));
+    }
+
+    @Nullable
+    public IsolationLevel getIsolationLevel() {
+        return isolationLevel;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    public boolean isRetryable(@Nonnull Throwable throwable) {
+        for (Throwable t = throwable; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof ShardedCommitException) {
+                // some shards kept their writes, running the callback again would apply them twice
+                return false;
+            } else if (t instanceof PersistDeadlockException ||
+                t instanceof OptimisticLockException ||
+                t instanceof FetchDeadlockException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the delay in milliseconds to wait after the given (1-based) failed attempt.
+     */
+    public long backoff(int attempt) {
+        long delay = initialBackoff << Math.min(Math.max(0, attempt - 1), 30);
+        delay = Math.min(maxBackoff, delay < 0 ? maxBackoff : delay);
+        if (jitter > 0d && delay > 0L) {
+            long randomized = (long) (delay * jitter * ThreadLocalRandom.current().nextDouble());
+            delay = delay - (long) (delay * jitter) + randomized;
+        }
+        return delay;
+    }
+}
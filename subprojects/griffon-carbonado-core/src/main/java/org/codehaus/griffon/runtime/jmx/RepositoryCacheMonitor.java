@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jmx;
+
+import griffon.core.env.Metadata;
+import griffon.plugins.carbonado.CarbonadoCacheProvider;
+import griffon.plugins.carbonado.RepositoryCache;
+import org.codehaus.griffon.runtime.monitor.AbstractMBeanRegistration;
+
+import javax.annotation.Nonnull;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.List;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class RepositoryCacheMonitor extends AbstractMBeanRegistration implements RepositoryCacheMonitorMXBean {
+    private final String repositoryName;
+    private final CarbonadoCacheProvider cacheProvider;
+
+    public RepositoryCacheMonitor(@Nonnull Metadata metadata, @Nonnull String repositoryName, @Nonnull CarbonadoCacheProvider cacheProvider) {
+        super(metadata);
+        this.repositoryName = requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        this.cacheProvider = requireNonNull(cacheProvider, "Argument 'cacheProvider' must not be null");
+    }
+
+    @Override
+    public ObjectName preRegister(MBeanServer server, ObjectName name) throws Exception {
+        return new ObjectName("griffon.core:type=Carbonado,application=" + metadata.getApplicationName() + ",name=" + repositoryName + ",monitor=cache");
+    }
+
+    @Override
+    public String getRepositoryName() {
+        return repositoryName;
+    }
+
+    @Override
+    public String[] getStorableTypes() {
+        List<String> types = new ArrayList<>();
+        for (Class<?> type : cache().getStorableTypes()) {
+            types.add(type.getName());
+        }
+        return types.toArray(new String[types.size()]);
+    }
+
+    @Override
+    public int getSize() {
+        return cache().getSize();
+    }
+
+    @Override
+    public int getMaxEntries() {
+        return cache().getMaxEntries();
+    }
+
+    @Override
+    public long getHitCount() {
+        return cache().getHitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return cache().getMissCount();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hits = cache().getHitCount();
+        long total = hits + cache().getMissCount();
+        return total == 0 ? 0d : (double) hits / total;
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return cache().getEvictionCount();
+    }
+
+    @Override
+    public long getInvalidationCount() {
+        return cache().getInvalidationCount();
+    }
+
+    @Override
+    public void clear() {
+        cache().clear();
+    }
+
+    private RepositoryCache cache() {
+        return cacheProvider.getCache(repositoryName);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jmx;
+
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.repo.sleepycat.EnvironmentCapability;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentStats;
+import com.sleepycat.je.StatsConfig;
+import griffon.core.env.Metadata;
+import griffon.plugins.carbonado.RepositoryStorage;
+import org.codehaus.griffon.runtime.monitor.AbstractMBeanRegistration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.function.ToLongFunction;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Publishes BDB-JE {@code EnvironmentStats} of an open repository. Statistics are gathered in fast mode and reused
+ * for a second so that reading every attribute does not walk the environment once per attribute. All values are
+ * zero while the repository is closed or is not backed by a JE environment.
+ *
+ * @author Andres Almiray
+ */
+public class RepositoryEnvironmentMonitor extends AbstractMBeanRegistration implements RepositoryEnvironmentMonitorMXBean {
+    private static final Logger LOG = LoggerFactory.getLogger(RepositoryEnvironmentMonitor.class);
+    private static final long REFRESH_INTERVAL = 1000L;
+
+    private final String repositoryName;
+    private final RepositoryStorage repositoryStorage;
+    private final StatsConfig statsConfig = new StatsConfig().setFast(true);
+    private EnvironmentStats stats;
+    private long lastRefresh;
+
+    public RepositoryEnvironmentMonitor(@Nonnull Metadata metadata, @Nonnull String repositoryName, @Nonnull RepositoryStorage repositoryStorage) {
+        super(metadata);
+        this.repositoryName = requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        this.repositoryStorage = requireNonNull(repositoryStorage, "Argument 'repositoryStorage' must not be null");
+    }
+
+    @Override
+    public ObjectName preRegister(MBeanServer server, ObjectName name) throws Exception {
+        return new ObjectName("griffon.core:type=Carbonado,application=" + metadata.getApplicationName() + ",name=" + repositoryName + ",monitor=environment");
+    }
+
+    @Override
+    public String getRepositoryName() {
+        return repositoryName;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return stats() != null;
+    }
+
+    @Override
+    public long getCacheTotalBytes() {
+        return stat(EnvironmentStats::getCacheTotalBytes);
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return stat(EnvironmentStats::getNCacheMiss);
+    }
+
+    @Override
+    public double getCacheHitRatio() {
+        EnvironmentStats current = stats();
+        if (current == null || current.getNBINsFetch() == 0) {
+            return 0d;
+        }
+        return 1d - (double) current.getNBINsFetchMiss() / current.getNBINsFetch();
+    }
+
+    @Override
+    public long getEvictionPasses() {
+        return stat(EnvironmentStats::getNEvictPasses);
+    }
+
+    @Override
+    public long getBINsStripped() {
+        return stat(EnvironmentStats::getNBINsStripped);
+    }
+
+    @Override
+    public long getCleanerBacklog() {
+        return stat(EnvironmentStats::getCleanerBacklog);
+    }
+
+    @Override
+    public long getCheckpoints() {
+        return stat(EnvironmentStats::getNCheckpoints);
+    }
+
+    @Override
+    public long getLockRequests() {
+        return stat(EnvironmentStats::getNRequests);
+    }
+
+    @Override
+    public long getLockWaits() {
+        return stat(EnvironmentStats::getNWaits);
+    }
+
+    @Override
+    public long getLogFSyncs() {
+        return stat(EnvironmentStats::getNLogFSyncs);
+    }
+
+    @Override
+    public long getLogBufferOverflows() {
+        return stat(EnvironmentStats::getNTempBufferWrites);
+    }
+
+    private long stat(@Nonnull ToLongFunction<EnvironmentStats> getter) {
+        EnvironmentStats current = stats();
+        return current != null ? getter.applyAsLong(current) : 0L;
+    }
+
+    @Nullable
+    private synchronized EnvironmentStats stats() {
+        long now = System.currentTimeMillis();
+        if (now - lastRefresh >= REFRESH_INTERVAL) {
+            stats = fetchStats();
+            lastRefresh = now;
+        }
+        return stats;
+    }
+
+    @Nullable
+    private EnvironmentStats fetchStats() {
+        Repository repository = repositoryStorage.get(repositoryName);
+        if (repository == null) {
+            return null;
+        }
+        try {
+            EnvironmentCapability capability = repository.getCapability(EnvironmentCapability.class);
+            if (capability != null && capability.getEnvironment() instanceof Environment) {
+                return ((Environment) capability.getEnvironment()).getStats(statsConfig);
+            }
+        } catch (RuntimeException e) {
+            // the environment is closed or being closed
+            LOG.debug("Cannot read environment statistics of repository '{}'", repositoryName, e);
+        }
+        return null;
+    }
+}
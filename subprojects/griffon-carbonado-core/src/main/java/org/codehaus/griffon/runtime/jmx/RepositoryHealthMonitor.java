@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jmx;
+
+import griffon.core.env.Metadata;
+import griffon.plugins.carbonado.CarbonadoHealthProvider;
+import org.codehaus.griffon.runtime.monitor.AbstractMBeanRegistration;
+
+import javax.annotation.Nonnull;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class RepositoryHealthMonitor extends AbstractMBeanRegistration implements RepositoryHealthMonitorMXBean {
+    private final String repositoryName;
+    private final CarbonadoHealthProvider healthProvider;
+
+    public RepositoryHealthMonitor(@Nonnull Metadata metadata, @Nonnull String repositoryName, @Nonnull CarbonadoHealthProvider healthProvider) {
+        super(metadata);
+        this.repositoryName = requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        this.healthProvider = requireNonNull(healthProvider, "Argument 'healthProvider' must not be null");
+    }
+
+    @Override
+    public ObjectName preRegister(MBeanServer server, ObjectName name) throws Exception {
+        return new ObjectName("griffon.core:type=Carbonado,application=" + metadata.getApplicationName() + ",name=" + repositoryName + ",monitor=health");
+    }
+
+    @Override
+    public String getRepositoryName() {
+        return repositoryName;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return healthProvider.getHealth(repositoryName).isEnabled();
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return healthProvider.getHealth(repositoryName).isAvailable();
+    }
+
+    @Override
+    public long getInterval() {
+        return healthProvider.getHealth(repositoryName).getInterval();
+    }
+
+    @Override
+    public long getCheckCount() {
+        return healthProvider.getHealth(repositoryName).getCheckCount();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return healthProvider.getHealth(repositoryName).getFailureCount();
+    }
+
+    @Override
+    public long getReconnectCount() {
+        return healthProvider.getHealth(repositoryName).getReconnectCount();
+    }
+
+    @Override
+    public int getConsecutiveFailures() {
+        return healthProvider.getHealth(repositoryName).getConsecutiveFailures();
+    }
+
+    @Override
+    public long getLastCheckTime() {
+        return healthProvider.getHealth(repositoryName).getLastCheckTime();
+    }
+
+    @Override
+    public long getUnavailableSince() {
+        return healthProvider.getHealth(repositoryName).getUnavailableSince();
+    }
+
+    @Override
+    public String getLastFailure() {
+        Throwable failure = healthProvider.getHealth(repositoryName).getLastFailure();
+        return failure != null ? String.valueOf(failure) : null;
+    }
+}
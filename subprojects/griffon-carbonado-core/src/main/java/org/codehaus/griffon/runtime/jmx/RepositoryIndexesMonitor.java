@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jmx;
+
+import griffon.core.env.Metadata;
+import griffon.plugins.carbonado.CarbonadoIndexProvider;
+import griffon.plugins.carbonado.RepositoryIndexes;
+import org.codehaus.griffon.runtime.monitor.AbstractMBeanRegistration;
+
+import javax.annotation.Nonnull;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.List;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class RepositoryIndexesMonitor extends AbstractMBeanRegistration implements RepositoryIndexesMonitorMXBean {
+    private final String repositoryName;
+    private final CarbonadoIndexProvider indexProvider;
+
+    public RepositoryIndexesMonitor(@Nonnull Metadata metadata, @Nonnull String repositoryName, @Nonnull CarbonadoIndexProvider indexProvider) {
+        super(metadata);
+        this.repositoryName = requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        this.indexProvider = requireNonNull(indexProvider, "Argument 'indexProvider' must not be null");
+    }
+
+    @Override
+    public ObjectName preRegister(MBeanServer server, ObjectName name) throws Exception {
+        return new ObjectName("griffon.core:type=Carbonado,application=" + metadata.getApplicationName() + ",name=" + repositoryName + ",monitor=indexes");
+    }
+
+    @Override
+    public String getRepositoryName() {
+        return repositoryName;
+    }
+
+    @Override
+    public int getIndexCount() {
+        return indexes().getIndexCount();
+    }
+
+    @Override
+    public long getIndexEntryCount() {
+        return indexes().getIndexEntryCount();
+    }
+
+    @Override
+    public long getBuildTime() {
+        return indexes().getBuildTime();
+    }
+
+    @Override
+    public String[] getIndexReport() {
+        List<String> report = indexes().getIndexReport();
+        return report.toArray(new String[report.size()]);
+    }
+
+    private RepositoryIndexes indexes() {
+        return indexProvider.getIndexes(repositoryName);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jmx;
+
+import griffon.core.env.Metadata;
+import griffon.plugins.carbonado.CarbonadoMetricsProvider;
+import griffon.plugins.carbonado.RepositoryMetrics;
+import org.codehaus.griffon.runtime.monitor.AbstractMBeanRegistration;
+
+import javax.annotation.Nonnull;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.Map;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class RepositoryMetricsMonitor extends AbstractMBeanRegistration implements RepositoryMetricsMonitorMXBean {
+    private final String repositoryName;
+    private final CarbonadoMetricsProvider metricsProvider;
+
+    public RepositoryMetricsMonitor(@Nonnull Metadata metadata, @Nonnull String repositoryName, @Nonnull CarbonadoMetricsProvider metricsProvider) {
+        super(metadata);
+        this.repositoryName = requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        this.metricsProvider = requireNonNull(metricsProvider, "Argument 'metricsProvider' must not be null");
+    }
+
+    @Override
+    public ObjectName preRegister(MBeanServer server, ObjectName name) throws Exception {
+        return new ObjectName("griffon.core:type=Carbonado,application=" + metadata.getApplicationName() + ",name=" + repositoryName + ",monitor=metrics");
+    }
+
+    @Override
+    public String getRepositoryName() {
+        return repositoryName;
+    }
+
+    @Override
+    public long getCallbackCount() {
+        return metrics().getCallbackCount();
+    }
+
+    @Override
+    public long getCallbackErrorCount() {
+        return metrics().getCallbackErrorCount();
+    }
+
+    @Override
+    public long getInFlightCallbacks() {
+        return metrics().getInFlightCallbacks();
+    }
+
+    @Override
+    public long getCallbackLatencyP50() {
+        return metrics().getCallbackLatency(50d);
+    }
+
+    @Override
+    public long getCallbackLatencyP99() {
+        return metrics().getCallbackLatency(99d);
+    }
+
+    @Override
+    public long getCallbackLatencyMax() {
+        return metrics().getCallbackMaxLatency();
+    }
+
+    @Override
+    public Map<String, Long> getExceptionCounts() {
+        return metrics().getExceptionCounts();
+    }
+
+    @Override
+    public long getOpenCount() {
+        return metrics().getOpenCount();
+    }
+
+    @Override
+    public long getLastOpenTime() {
+        return metrics().getLastOpenTime();
+    }
+
+    @Override
+    public long getCloseCount() {
+        return metrics().getCloseCount();
+    }
+
+    @Override
+    public long getLastCloseTime() {
+        return metrics().getLastCloseTime();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return metrics().getEvictionCount();
+    }
+
+    @Override
+    public long getQueryCount() {
+        return metrics().getQueryCount();
+    }
+
+    @Override
+    public Map<String, Long> getStoragePreparationTimes() {
+        return metrics().getStoragePreparationTimes();
+    }
+
+    @Override
+    public long getTransactionAttemptCount() {
+        return metrics().getTransactionAttemptCount();
+    }
+
+    @Override
+    public long getTransactionCommitCount() {
+        return metrics().getTransactionCommitCount();
+    }
+
+    @Override
+    public long getTransactionRollbackCount() {
+        return metrics().getTransactionRollbackCount();
+    }
+
+    @Override
+    public long getTransactionRetryCount() {
+        return metrics().getTransactionRetryCount();
+    }
+
+    @Override
+    public int getTransactionMaxAttempts() {
+        return metrics().getTransactionMaxAttempts();
+    }
+
+    private RepositoryMetrics metrics() {
+        return metricsProvider.getMetrics(repositoryName);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jmx;
+
+import griffon.core.env.Metadata;
+import griffon.plugins.carbonado.CarbonadoSlowLogProvider;
+import griffon.plugins.carbonado.RepositorySlowLog;
+import griffon.plugins.carbonado.SlowOperation;
+import org.codehaus.griffon.runtime.monitor.AbstractMBeanRegistration;
+
+import javax.annotation.Nonnull;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.List;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class RepositorySlowLogMonitor extends AbstractMBeanRegistration implements RepositorySlowLogMonitorMXBean {
+    private final String repositoryName;
+    private final CarbonadoSlowLogProvider slowLogProvider;
+
+    public RepositorySlowLogMonitor(@Nonnull Metadata metadata, @Nonnull String repositoryName, @Nonnull CarbonadoSlowLogProvider slowLogProvider) {
+        super(metadata);
+        this.repositoryName = requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        this.slowLogProvider = requireNonNull(slowLogProvider, "Argument 'slowLogProvider' must not be null");
+    }
+
+    @Override
+    public ObjectName preRegister(MBeanServer server, ObjectName name) throws Exception {
+        return new ObjectName("griffon.core:type=Carbonado,application=" + metadata.getApplicationName() + ",name=" + repositoryName + ",monitor=slowlog");
+    }
+
+    @Override
+    public String getRepositoryName() {
+        return repositoryName;
+    }
+
+    @Override
+    public long getThreshold() {
+        return slowLog().getThreshold();
+    }
+
+    @Override
+    public void setThreshold(long threshold) {
+        slowLog().setThreshold(threshold);
+    }
+
+    @Override
+    public int getCapacity() {
+        return slowLog().getCapacity();
+    }
+
+    @Override
+    public long getSlowOperationCount() {
+        return slowLog().getSlowOperationCount();
+    }
+
+    @Override
+    public String[] getSlowOperations() {
+        List<String> operations = new ArrayList<>();
+        for (SlowOperation operation : slowLog().getSlowOperations()) {
+            operations.add(operation.toString());
+        }
+        return operations.toArray(new String[operations.size()]);
+    }
+
+    @Override
+    public void clear() {
+        slowLog().clear();
+    }
+
+    private RepositorySlowLog slowLog() {
+        return slowLogProvider.getSlowLog(repositoryName);
+    }
+}
@@ -17,17 +17,33 @@ package org.codehaus.griffon.runtime.jmx;
 
 import com.amazon.carbonado.Repository;
 import griffon.core.env.Metadata;
+import griffon.plugins.carbonado.CarbonadoMetricsProvider;
 import griffon.plugins.carbonado.RepositoryStorage;
 import org.codehaus.griffon.runtime.monitor.AbstractObjectStorageMonitor;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.Map;
 
 /**
  * @author Andres Almiray
  */
 public class RepositoryStorageMonitor extends AbstractObjectStorageMonitor<Repository> implements RepositoryStorageMonitorMXBean {
+    private final CarbonadoMetricsProvider metricsProvider;
+
     public RepositoryStorageMonitor(@Nonnull Metadata metadata, @Nonnull RepositoryStorage delegate) {
+        this(metadata, delegate, null);
+    }
+
+    public RepositoryStorageMonitor(@Nonnull Metadata metadata, @Nonnull RepositoryStorage delegate, @Nullable CarbonadoMetricsProvider metricsProvider) {
         super(metadata, delegate);
+        this.metricsProvider = metricsProvider;
+    }
+
+    @Override
+    public Map<String, Long> getTemplateEvictionCounts() {
+        return metricsProvider != null ? metricsProvider.getTemplateEvictionCounts() : Collections.<String, Long>emptyMap();
     }
 
     @Override
@@ -17,8 +17,14 @@ package org.codehaus.griffon.runtime.jmx;
 
 import org.codehaus.griffon.runtime.monitor.ObjectStorageMonitorMXBean;
 
+import java.util.Map;
+
 /**
  * @author Andres Almiray
  */
 public interface RepositoryStorageMonitorMXBean extends ObjectStorageMonitorMXBean {
+    /**
+     * Repositories created from a template are retired when evicted, along with their own metrics monitor.
+     */
+    Map<String, Long> getTemplateEvictionCounts();
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jmx;
+
+import griffon.core.env.Metadata;
+import griffon.plugins.carbonado.CarbonadoThrottleProvider;
+import org.codehaus.griffon.runtime.monitor.AbstractMBeanRegistration;
+
+import javax.annotation.Nonnull;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class RepositoryThrottleMonitor extends AbstractMBeanRegistration implements RepositoryThrottleMonitorMXBean {
+    private final String repositoryName;
+    private final CarbonadoThrottleProvider throttleProvider;
+
+    public RepositoryThrottleMonitor(@Nonnull Metadata metadata, @Nonnull String repositoryName, @Nonnull CarbonadoThrottleProvider throttleProvider) {
+        super(metadata);
+        this.repositoryName = requireNonBlank(repositoryName, "Argument 'repositoryName' must not be blank");
+        this.throttleProvider = requireNonNull(throttleProvider, "Argument 'throttleProvider' must not be null");
+    }
+
+    @Override
+    public ObjectName preRegister(MBeanServer server, ObjectName name) throws Exception {
+        return new ObjectName("griffon.core:type=Carbonado,application=" + metadata.getApplicationName() + ",name=" + repositoryName + ",monitor=throttle");
+    }
+
+    @Override
+    public String getRepositoryName() {
+        return repositoryName;
+    }
+
+    @Override
+    public int getMaxConcurrent() {
+        return throttleProvider.getThrottle(repositoryName).getMaxConcurrent();
+    }
+
+    @Override
+    public int getQueueSize() {
+        return throttleProvider.getThrottle(repositoryName).getQueueSize();
+    }
+
+    @Override
+    public long getAcquireTimeout() {
+        return throttleProvider.getThrottle(repositoryName).getAcquireTimeout();
+    }
+
+    @Override
+    public int getActiveCount() {
+        return throttleProvider.getThrottle(repositoryName).getActiveCount();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return throttleProvider.getThrottle(repositoryName).getQueueDepth();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return throttleProvider.getThrottle(repositoryName).getRejectedCount();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return throttleProvider.getThrottle(repositoryName).getTimeoutCount();
+    }
+}
@@ -16,17 +16,40 @@
 package griffon.plugins.carbonado
 
 import com.amazon.carbonado.Cursor
+import com.amazon.carbonado.OptimisticLockException
+import com.amazon.carbonado.PersistException
 import com.amazon.carbonado.Repository
 import com.amazon.carbonado.Storage
+import com.amazon.carbonado.SupportException
+import com.amazon.carbonado.Transaction
+import com.amazon.carbonado.repo.jdbc.JDBCConnectionCapability
+import com.amazon.carbonado.repo.sleepycat.EnvironmentCapability
+import com.sleepycat.je.Environment
 import griffon.core.CallableWithArgs
 import griffon.core.GriffonApplication
+import griffon.core.addon.GriffonAddon
 import griffon.core.test.GriffonUnitRule
+import griffon.exceptions.GriffonException
 import griffon.inject.BindTo
+import org.codehaus.griffon.runtime.carbonado.CarbonadoAddon
+import org.codehaus.griffon.runtime.carbonado.DefaultRepositoryHealth
 import org.junit.Rule
 import spock.lang.Specification
 import spock.lang.Unroll
 
 import javax.inject.Inject
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.sql.Connection
+import java.sql.SQLException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.stream.Collectors
 
 @Unroll
 class CarbonadoSpec extends Specification {
@@ -40,6 +63,36 @@ class CarbonadoSpec extends Specification {
     @Inject
     private CarbonadoHandler carbonadoHandler
 
+    @Inject
+    private CarbonadoMetricsProvider metricsProvider
+
+    @Inject
+    private CarbonadoExecutorProvider executorProvider
+
+    @Inject
+    private CarbonadoBatchWriter batchWriter
+
+    @Inject
+    private CarbonadoCacheProvider cacheProvider
+
+    @Inject
+    private CarbonadoIndexProvider indexProvider
+
+    @Inject
+    private CarbonadoSlowLogProvider slowLogProvider
+
+    @Inject
+    private CarbonadoTransfer transfer
+
+    @Inject
+    private CarbonadoHealthProvider healthProvider
+
+    @Inject
+    private RepositoryStorage repositoryStorage
+
+    @Inject
+    private RepositoryFactory repositoryFactory
+
     @Inject
     private GriffonApplication application
 
@@ -102,12 +155,165 @@ class CarbonadoSpec extends Specification {
         bootstrap.destroyWitness
     }
 
+    void 'Startup connects repositories in parallel and blocks until they are connected'() {
+        given:
+        List events = warmupEvents()
+
+        when:
+        CompletableFuture<Void> warmup = carbonadoAddon.warmup(application, ['default', 'internal'], [mode: 'blocking', poolSize: 2])
+
+        then:
+        warmup.done
+        events.findAll { it.name == 'CarbonadoWarmupStart' }*.args*.getAt(0) as Set == ['default', 'internal'] as Set
+        events.findAll { it.name == 'CarbonadoWarmupEnd' }*.args*.getAt(0) as Set == ['default', 'internal'] as Set
+        repositoryStorage.get('default')
+        repositoryStorage.get('internal')
+
+        cleanup:
+        carbonadoHandler.closeCarbonado('default')
+        carbonadoHandler.closeCarbonado('internal')
+    }
+
+    void 'Startup in background mode does not wait for repositories'() {
+        given:
+        List events = warmupEvents()
+        bootstrap.initDelay = 300
+
+        when:
+        CompletableFuture<Void> warmup = carbonadoAddon.warmup(application, ['internal'], [mode: 'background'])
+
+        then:
+        !warmup.done
+        !events.find { it.name == 'CarbonadoWarmupEnd' }
+
+        when:
+        warmup.get(5, TimeUnit.SECONDS)
+
+        then:
+        events.find { it.name == 'CarbonadoWarmupEnd' }.args[0] == 'internal'
+
+        cleanup:
+        bootstrap.initDelay = 0
+        carbonadoHandler.closeCarbonado('internal')
+    }
+
+    void 'Startup fails when repositories are not connected within the timeout'() {
+        given:
+        bootstrap.initDelay = 500
+
+        when:
+        carbonadoAddon.warmup(application, ['internal'], [mode: 'blocking', timeout: 50])
+
+        then:
+        GriffonException e = thrown()
+        e.message == 'Timed out after 50 ms while connecting carbonado repositories on startup'
+
+        cleanup:
+        sleep(500)
+        bootstrap.initDelay = 0
+        carbonadoHandler.closeCarbonado('internal')
+    }
+
+    void 'Startup fails and publishes an error event when a repository can not be connected'() {
+        given:
+        List events = warmupEvents()
+
+        when:
+        carbonadoAddon.warmup(application, ['mistuned'], [mode: 'blocking'])
+
+        then:
+        GriffonException e = thrown()
+        e.message == 'Could not connect carbonado repositories on startup'
+        events.name == ['CarbonadoWarmupStart', 'CarbonadoWarmupError']
+        events[1].args[0] == 'mistuned'
+    }
+
+    void 'Startup rejects unknown modes'() {
+        when:
+        carbonadoAddon.warmup(application, ['internal'], [mode: 'eager'])
+
+        then:
+        IllegalArgumentException e = thrown()
+        e.message == "Unknown startup mode 'eager'. Valid values are blocking, background"
+    }
+
     void 'Can connect to #name repository'() {
         expect:
         carbonadoHandler.withCarbonado(name) { String repositoryName, Repository repository ->
             repositoryName == name && repository
         }
 
+        where:
+        name       | _
+        'default'  | _
+        'internal' | _
+        'people'   | _
+        'replicated' | _
+    }
+
+    void 'Replicated repository is resynced when opened'() {
+        given:
+        List events = []
+        ['CarbonadoResyncStart', 'CarbonadoResyncEnd'].each { name ->
+            application.eventRouter.addEventListener(name, { Object... args ->
+                events << [name: name, args: args]
+            } as CallableWithArgs)
+        }
+
+        when:
+        carbonadoHandler.withCarbonado('replicated') { String repositoryName, Repository repository ->
+            Person person = repository.storageFor(Person).prepare()
+            person.id = 1
+            person.name = 'Danno'
+            person.lastname = 'Ferrin'
+            person.insert()
+        }
+
+        then:
+        events.name == ['CarbonadoResyncStart', 'CarbonadoResyncEnd']
+        events[0].args[0] == 'replicated'
+        events[0].args[1] == Person
+        carbonadoHandler.withCarbonado('replicated') { String repositoryName, Repository repository ->
+            repository.storageFor(Person).query().count()
+        } == 1
+    }
+
+    void 'Declared indexes are built when the repository is opened'() {
+        given:
+        List events = []
+        application.eventRouter.addEventListener('CarbonadoIndexBuild', { Object... args ->
+            events << args
+        } as CallableWithArgs)
+
+        when:
+        long count = carbonadoHandler.withCarbonado('indexed') { String repositoryName, Repository repository ->
+            Storage<Country> countries = repository.storageFor(Country)
+            Country country = countries.prepare()
+            country.code = 'CH'
+            country.name = 'Switzerland'
+            country.insert()
+            countries.query('name = ?').with('Switzerland').count()
+        }
+        RepositoryIndexes indexes = indexProvider.getIndexes('indexed')
+
+        then:
+        count == 1
+        events.size() == 1
+        events[0][0] == 'indexed'
+        indexes.indexCount == 1
+        indexes.indexReport.size() == 1
+        indexes.indexReport[0].startsWith('griffon.plugins.carbonado.Country [name]')
+    }
+
+    void 'Can connect asynchronously to #name repository'() {
+        when:
+        String result = carbonadoHandler.withCarbonadoAsync(name) { String repositoryName, Repository repository ->
+            repositoryName + ':' + Thread.currentThread().name
+        }.get(30, TimeUnit.SECONDS)
+
+        then:
+        result.startsWith(name + ':carbonado-' + name)
+
         where:
         name       | _
         'default'  | _
@@ -131,6 +337,17 @@ class CarbonadoSpec extends Specification {
         'bogus' | _
     }
 
+    void 'Bogus repository name results in error before an executor is created'() {
+        when:
+        carbonadoHandler.withCarbonadoAsync('bogus') { String repositoryName, Repository repository ->
+            true
+        }
+
+        then:
+        thrown(IllegalArgumentException)
+        !executorProvider.@executors.containsKey('bogus')
+    }
+
     void 'Execute statements on people repository'() {
         when:
         List peopleIn = carbonadoHandler.withCarbonado('people') { String repositoryName, Repository repository ->
@@ -168,6 +385,1021 @@ class CarbonadoSpec extends Specification {
         carbonadoHandler.closeCarbonado()
     }
 
-    @BindTo(CarbonadoBootstrap)
-    private TestCarbonadoBootstrap bootstrap = new TestCarbonadoBootstrap()
+    void 'Concurrent access to #name repository connects only once'() {
+        given:
+        int threads = 16
+        List events = [].asSynchronized()
+        application.eventRouter.addEventListener('CarbonadoConnectStart', { Object... args ->
+            events << args[0]
+        } as CallableWithArgs)
+        ExecutorService executor = Executors.newFixedThreadPool(threads)
+        CountDownLatch start = new CountDownLatch(1)
+
+        when:
+        List<Future> futures = (1..threads * 4).collect {
+            executor.submit({
+                start.await()
+                carbonadoHandler.withCarbonado(name) { String repositoryName, Repository repository ->
+                    repository
+                }
+            })
+        }
+        start.countDown()
+        List repositories = futures*.get(30, TimeUnit.SECONDS)
+
+        then:
+        events == [name]
+        repositories.unique(false) { System.identityHashCode(it) }.size() == 1
+
+        cleanup:
+        executor.shutdownNow()
+        carbonadoHandler.closeCarbonado(name)
+
+        where:
+        name       | _
+        'internal' | _
+        'people'   | _
+    }
+
+    void 'Callbacks exceeding the concurrency limit of a repository are rejected'() {
+        given:
+        CountDownLatch entered = new CountDownLatch(1)
+        CountDownLatch release = new CountDownLatch(1)
+        Future running = carbonadoHandler.withCarbonadoAsync('throttled') { String repositoryName, Repository repository ->
+            entered.countDown()
+            release.await()
+            true
+        }
+        entered.await(30, TimeUnit.SECONDS)
+
+        when:
+        carbonadoHandler.withCarbonado('throttled') { String repositoryName, Repository repository ->
+            true
+        }
+
+        then:
+        thrown(RepositoryOverloadException)
+
+        cleanup:
+        release.countDown()
+        running.get(30, TimeUnit.SECONDS)
+        carbonadoHandler.closeCarbonado('throttled')
+    }
+
+    void 'Transactional callbacks are retried on optimistic lock failures'() {
+        given:
+        int calls = 0
+
+        when:
+        Person person = carbonadoHandler.withCarbonadoTransaction('internal') { String repositoryName, Repository repository ->
+            if (++calls == 1) {
+                throw new OptimisticLockException('conflict')
+            }
+            Person p = repository.storageFor(Person).prepare()
+            p.id = 1
+            p.name = 'Andres'
+            p.lastname = 'Almiray'
+            p.insert()
+            p
+        }
+
+        then:
+        calls == 2
+        person.id == 1
+        metricsProvider.getMetrics('internal').transactionAttemptCount == 2
+        metricsProvider.getMetrics('internal').transactionRetryCount == 1
+        metricsProvider.getMetrics('internal').transactionCommitCount == 1
+
+        cleanup:
+        carbonadoHandler.closeCarbonado('internal')
+    }
+
+    void 'Callback invocations and failures are measured'() {
+        given:
+        RepositoryMetrics metrics = metricsProvider.getMetrics('internal')
+
+        when:
+        3.times {
+            carbonadoHandler.withCarbonado('internal') { String repositoryName, Repository repository -> true }
+        }
+        carbonadoHandler.withCarbonado('internal') { String repositoryName, Repository repository ->
+            throw new IllegalStateException('boom')
+        }
+
+        then:
+        thrown(IllegalStateException)
+        metrics.callbackCount == 4
+        metrics.callbackErrorCount == 1
+        metrics.inFlightCallbacks == 0
+        metrics.exceptionCounts == [(IllegalStateException.name): 1L]
+        metrics.callbackMaxLatency >= metrics.getCallbackLatency(50d)
+        metrics.openCount == 1
+
+        when:
+        carbonadoHandler.closeCarbonado('internal')
+
+        then:
+        metrics.closeCount == 1
+    }
+
+    void 'Storage timings are sent to metrics exporters'() {
+        when:
+        carbonadoHandler.withCarbonado('people') { String repositoryName, Repository repository ->
+            repository.storageFor(Person).query().count()
+        }
+        carbonadoHandler.withCarbonadoTransaction('people') { String repositoryName, Repository repository ->
+            repository.storageFor(Person).query('name = ?').with('Danno').count()
+        }
+        carbonadoHandler.closeCarbonado('people')
+
+        then:
+        exporter.callbacks == ['people', 'people']
+        exporter.transactions == ['people']
+        exporter.creations == ['people']
+        exporter.destructions == ['people']
+        exporter.queries.any { it.toUpperCase().contains('PERSON') }
+        metricsProvider.getMetrics('people').queryCount == exporter.queries.size()
+    }
+
+    void 'Listed storables are prepared in the background'() {
+        given:
+        CountDownLatch latch = new CountDownLatch(1)
+        List events = []
+        application.eventRouter.addEventListener('CarbonadoStorablesPrepared', { Object... args ->
+            events << args
+            latch.countDown()
+        } as CallableWithArgs)
+
+        when:
+        carbonadoHandler.withCarbonado('internal') { String repositoryName, Repository repository -> true }
+        latch.await(30, TimeUnit.SECONDS)
+
+        then:
+        events.size() == 1
+        events[0][0] == 'internal'
+        events[0][1].keySet() == [Person.name] as Set
+        metricsProvider.getMetrics('internal').storagePreparationTimes.containsKey(Person.name)
+    }
+
+    void 'Slow callbacks are kept in a bounded log'() {
+        given:
+        RepositorySlowLog slowLog = slowLogProvider.getSlowLog('internal')
+
+        when:
+        carbonadoHandler.withCarbonado('internal') { String repositoryName, Repository repository -> true }
+        3.times {
+            carbonadoHandler.withCarbonado('internal') { String repositoryName, Repository repository -> sleep(60) }
+        }
+
+        then:
+        slowLog.slowOperationCount == 3
+        slowLog.slowOperations.size() == 2
+        slowLog.slowOperations.every { it.repositoryName == 'internal' && it.duration >= 50 }
+    }
+
+    void 'Slow callbacks on JDBC repositories include their statements'() {
+        given:
+        RepositorySlowLog slowLog = slowLogProvider.getSlowLog('people')
+        slowLog.threshold = 1
+
+        when:
+        carbonadoHandler.withCarbonado('people') { String repositoryName, Repository repository ->
+            repository.storageFor(Person).query('name = ?').with('Danno').count()
+            sleep(10)
+        }
+
+        then:
+        slowLog.slowOperations.size() == 1
+        slowLog.slowOperations[0].statements.any { it.toUpperCase().startsWith('SELECT') }
+
+        cleanup:
+        carbonadoHandler.closeCarbonado('people')
+    }
+
+    void 'Slow logs enabled after a JDBC repository is open include its statements'() {
+        given:
+        carbonadoHandler.withCarbonado('people') { String repositoryName, Repository repository -> true }
+        RepositorySlowLog slowLog = slowLogProvider.getSlowLog('people')
+
+        when:
+        slowLog.threshold = 1
+        carbonadoHandler.withCarbonado('people') { String repositoryName, Repository repository ->
+            repository.storageFor(Person).query('name = ?').with('Danno').count()
+            sleep(10)
+        }
+
+        then:
+        slowLog.slowOperations.size() == 1
+        slowLog.slowOperations[0].statements.any { it.toUpperCase().startsWith('SELECT') }
+
+        cleanup:
+        carbonadoHandler.closeCarbonado('people')
+    }
+
+    void 'Batched inserts are committed'() {
+        given:
+        List<Person> people = carbonadoHandler.withCarbonado('internal') { String repositoryName, Repository repository ->
+            Storage<Person> storage = repository.storageFor(Person)
+            (1..50).collect { int id ->
+                Person person = storage.prepare()
+                person.id = id
+                person.name = 'name' + id
+                person.lastname = 'lastname' + id
+                person
+            }
+        }
+
+        when:
+        List futures = people.collect { batchWriter.insert('internal', it) }
+        batchWriter.flush('internal').get(30, TimeUnit.SECONDS)
+        futures*.get(30, TimeUnit.SECONDS)
+
+        then:
+        50L == carbonadoHandler.withCarbonado('internal') { String repositoryName, Repository repository ->
+            repository.storageFor(Person).query().count()
+        }
+
+        cleanup:
+        carbonadoHandler.closeCarbonado('internal')
+    }
+
+    void 'Batched writes are bound to the repository that is open when they are flushed'() {
+        given:
+        List<Person> people = carbonadoHandler.withCarbonado('internal') { String repositoryName, Repository repository ->
+            Storage<Person> storage = repository.storageFor(Person)
+            (1..3).collect { int id ->
+                Person person = storage.prepare()
+                person.id = id
+                person.name = 'name' + id
+                person.lastname = 'lastname' + id
+                person
+            }
+        }
+        carbonadoHandler.closeCarbonado('internal')
+
+        when:
+        List futures = people.collect { batchWriter.insert('internal', it) }
+        batchWriter.flush('internal').get(30, TimeUnit.SECONDS)
+        futures*.get(30, TimeUnit.SECONDS)
+
+        then:
+        3L == carbonadoHandler.withCarbonado('internal') { String repositoryName, Repository repository ->
+            repository.storageFor(Person).query().count()
+        }
+
+        cleanup:
+        carbonadoHandler.closeCarbonado('internal')
+    }
+
+    void 'Failed batches are not retried one write at a time unless a write failed'() {
+        given:
+        List<Person> people = carbonadoHandler.withCarbonado('internal') { String repositoryName, Repository repository ->
+            Storage<Person> storage = repository.storageFor(Person)
+            (1..3).collect { int id ->
+                Person person = storage.prepare()
+                person.id = id
+                person.name = 'name' + id
+                person.lastname = 'lastname' + id
+                person
+            }
+        }
+        List events = [].asSynchronized()
+        application.eventRouter.addEventListener('CarbonadoConnectStart', { Object... args ->
+            events << args[0]
+        } as CallableWithArgs)
+
+        when:
+        List futures = people.collect { batchWriter.insert('mistuned', it) }
+        batchWriter.flush('mistuned').get(30, TimeUnit.SECONDS)
+
+        then:
+        futures.every { it.completedExceptionally }
+        events.count { it == 'mistuned' } == 1
+
+        cleanup:
+        carbonadoHandler.closeCarbonado('internal')
+    }
+
+    void 'Query results are streamed in chunks'() {
+        given:
+        carbonadoHandler.withCarbonado('internal') { String repositoryName, Repository repository ->
+            Storage<Person> storage = repository.storageFor(Person)
+            (1..30).each { int id ->
+                Person person = storage.prepare()
+                person.id = id
+                person.name = 'name' + id
+                person.lastname = 'lastname' + id
+                person.insert()
+            }
+        }
+
+        when:
+        List<Integer> ids = carbonadoHandler.streamCarbonado('internal') { String repositoryName, Repository repository ->
+            repository.storageFor(Person).query().orderBy('id')
+        }.withCloseable { stream -> stream.map { Person p -> p.id }.collect(Collectors.toList()) }
+        long evens = carbonadoHandler.streamCarbonado('internal') { String repositoryName, Repository repository ->
+            repository.storageFor(Person).query()
+        }.withCloseable { stream -> stream.parallel().filter { Person p -> p.id % 2 == 0 }.count() }
+
+        then:
+        ids == (1..30).toList()
+        evens == 15L
+
+        cleanup:
+        carbonadoHandler.closeCarbonado('internal')
+    }
+
+    void 'Repositories are exported, imported and copied in bulk'() {
+        given:
+        carbonadoHandler.withCarbonado('internal') { String repositoryName, Repository repository ->
+            Storage<Person> storage = repository.storageFor(Person)
+            (1..25).each { int id ->
+                Person person = storage.prepare()
+                person.id = id
+                person.name = 'name' + id
+                person.lastname = 'lastname' + id
+                person.insert()
+            }
+        }
+        Path archive = Files.createTempFile('carbonado', '.bin')
+        List events = []
+        application.eventRouter.addEventListener('CarbonadoTransferEnd', { Object... args -> events << args } as CallableWithArgs)
+
+        when:
+        Map<String, Long> exported = transfer.exportTo('internal', archive)
+        Map<String, Long> imported = transfer.importFrom('default', archive)
+
+        then:
+        exported == [(Person.name): 25L]
+        imported == exported
+        events*.getAt(1) == ['export', 'import']
+        'name25' == carbonadoHandler.withCarbonado { String repositoryName, Repository repository ->
+            Person person = repository.storageFor(Person).prepare()
+            person.id = 25
+            person.load()
+            person.name
+        }
+
+        when:
+        carbonadoHandler.closeCarbonado()
+        Map<String, Long> copied = transfer.copy('internal', 'default')
+
+        then:
+        copied == exported
+        25L == carbonadoHandler.withCarbonado { String repositoryName, Repository repository ->
+            repository.storageFor(Person).query().count()
+        }
+
+        cleanup:
+        Files.deleteIfExists(archive)
+        carbonadoHandler.closeCarbonado()
+        carbonadoHandler.closeCarbonado('internal')
+    }
+
+    void 'Unavailable repositories fail fast until they are reconnected'() {
+        given:
+        carbonadoHandler.withCarbonado('monitored') { String repositoryName, Repository repository -> true }
+        DefaultRepositoryHealth health = (DefaultRepositoryHealth) healthProvider.getHealth('monitored')
+
+        when:
+        health.recordFailure(new IllegalStateException('database restarted'))
+        carbonadoHandler.withCarbonado('monitored') { String repositoryName, Repository repository -> true }
+
+        then:
+        RepositoryUnavailableException e = thrown()
+        e.cause.message == 'database restarted'
+
+        when:
+        long deadline = System.currentTimeMillis() + 5000
+        while (!health.available && System.currentTimeMillis() < deadline) {
+            sleep(10)
+        }
+
+        then:
+        health.available
+        health.reconnectCount == 1
+        carbonadoHandler.withCarbonado('monitored') { String repositoryName, Repository repository -> true }
+
+        cleanup:
+        carbonadoHandler.closeCarbonado('monitored')
+    }
+
+    void 'Reconnects wait for running callbacks before closing the repository'() {
+        given:
+        CountDownLatch running = new CountDownLatch(1)
+        DefaultRepositoryHealth health = (DefaultRepositoryHealth) healthProvider.getHealth('monitored')
+
+        when:
+        CompletableFuture<Boolean> callback = CompletableFuture.supplyAsync {
+            carbonadoHandler.withCarbonado('monitored') { String repositoryName, Repository repository ->
+                running.countDown()
+                sleep(300)
+                repositoryStorage.get('monitored').is(repository)
+            }
+        }
+        running.await()
+        health.recordFailure(new IllegalStateException('database restarted'))
+        long deadline = System.currentTimeMillis() + 5000
+        while (!health.available && System.currentTimeMillis() < deadline) {
+            sleep(10)
+        }
+
+        then:
+        callback.get()
+        health.available
+
+        cleanup:
+        carbonadoHandler.closeCarbonado('monitored')
+    }
+
+    void 'Idle repositories are closed and reopened on demand'() {
+        given:
+        RepositoryMetrics metrics = metricsProvider.getMetrics('ephemeral')
+
+        when: 'a callback outlives the idle timeout'
+        boolean openWhileBusy = carbonadoHandler.withCarbonado('ephemeral') { String repositoryName, Repository repository ->
+            sleep(300)
+            repositoryStorage.get('ephemeral') != null
+        }
+        long deadline = System.currentTimeMillis() + 5000
+        while (repositoryStorage.get('ephemeral') != null && System.currentTimeMillis() < deadline) {
+            sleep(10)
+        }
+
+        then:
+        openWhileBusy
+        !repositoryStorage.get('ephemeral')
+        metrics.evictionCount == 1
+
+        when:
+        carbonadoHandler.withCarbonado('ephemeral') { String repositoryName, Repository repository -> true }
+
+        then:
+        metrics.openCount == 2
+
+        cleanup:
+        carbonadoHandler.closeCarbonado('ephemeral')
+    }
+
+    void 'Idle evictions of template repositories are counted per template'() {
+        when:
+        ['idle-a', 'idle-b'].each { String name ->
+            carbonadoHandler.withCarbonado(name) { String repositoryName, Repository repository -> true }
+        }
+        long deadline = System.currentTimeMillis() + 5000
+        while (metricsProvider.templateEvictionCounts['idle-*'] != 2L && System.currentTimeMillis() < deadline) {
+            sleep(10)
+        }
+
+        then:
+        metricsProvider.templateEvictionCounts['idle-*'] == 2L
+        !metricsProvider.@metrics.containsKey('idle-a')
+    }
+
+    void 'Repositories are created on demand from a template'() {
+        expect:
+        !repositoryFactory.repositoryNames.contains('tenant-*')
+        repositoryFactory.getConfigurationFor('tenant-acme').bdb.environmentHomeFile == new File('build/tenants/acme')
+
+        when:
+        ['tenant-a', 'tenant-b'].each { String name ->
+            carbonadoHandler.withCarbonado(name) { String repositoryName, Repository repository -> true }
+        }
+        carbonadoHandler.withCarbonado('tenant-c') { String repositoryName, Repository repository -> true }
+
+        then:
+        thrown(RepositoryOverloadException)
+
+        when:
+        carbonadoHandler.closeCarbonado('tenant-a')
+        boolean opened = carbonadoHandler.withCarbonado('tenant-c') { String repositoryName, Repository repository -> true }
+
+        then:
+        opened
+
+        cleanup:
+        ['tenant-a', 'tenant-b', 'tenant-c'].each { carbonadoHandler.closeCarbonado(it) }
+    }
+
+    void 'Closing repositories created from a template releases their state'() {
+        when:
+        (1..100).each { int i ->
+            String name = 'tenant-' + i
+            carbonadoHandler.withCarbonadoTransaction(name) { String repositoryName, Repository repository -> true }
+            carbonadoHandler.withCarbonadoAsync(name) { String repositoryName, Repository repository -> true }.get()
+            Person person = carbonadoHandler.withCarbonado(name) { String repositoryName, Repository repository ->
+                Person p = repository.storageFor(Person).prepare()
+                p.id = i
+                p.name = 'name' + i
+                p.lastname = 'lastname' + i
+                p
+            }
+            batchWriter.insert(name, person).get(30, TimeUnit.SECONDS)
+            carbonadoHandler.closeCarbonado(name)
+        }
+
+        then:
+        repositoryStorage.keys.every { !it.startsWith('tenant-') }
+        repositoryFactory.@templateConfigs.isEmpty()
+        [carbonadoHandler.@leases, carbonadoHandler.@retryPolicies, metricsProvider.@metrics, slowLogProvider.@slowLogs, healthProvider.@healths,
+         cacheProvider.@caches, indexProvider.@indexes, batchWriter.@queues].every { Map state ->
+            state.keySet().every { !it.startsWith('tenant-') }
+        }
+    }
+
+    void 'BDB repositories apply tuning profiles and reject unknown properties'() {
+        when:
+        boolean opened = carbonadoHandler.withCarbonado('tuned') { String repositoryName, Repository repository ->
+            repository.getCapability(EnvironmentCapability) != null
+        }
+
+        then:
+        opened
+
+        when:
+        carbonadoHandler.withCarbonado('mistuned') { String repositoryName, Repository repository -> true }
+
+        then:
+        GriffonException e = thrown()
+        Throwable cause = e
+        while (cause && !(cause instanceof IllegalArgumentException)) {
+            cause = cause.cause
+        }
+        cause.message.contains("Unknown bdb property 'cacheSise'")
+
+        cleanup:
+        carbonadoHandler.closeCarbonado('tuned')
+    }
+
+    void 'BDB repositories share the cache of a shared environment'() {
+        given:
+        List events = []
+        ['CarbonadoSharedEnvironmentOpen', 'CarbonadoSharedEnvironmentClose'].each { name ->
+            application.eventRouter.addEventListener(name, { Object... args ->
+                events << [name: name, args: args]
+            } as CallableWithArgs)
+        }
+
+        when:
+        List<Boolean> sharedCaches = ['local-a', 'local-b'].collect { String name ->
+            carbonadoHandler.withCarbonado(name) { String repositoryName, Repository repository ->
+                Environment environment = (Environment) repository.getCapability(EnvironmentCapability).environment
+                environment.config.sharedCache
+            }
+        }
+        carbonadoHandler.closeCarbonado('local-a')
+
+        then:
+        sharedCaches == [true, true]
+        events.name == ['CarbonadoSharedEnvironmentOpen']
+        events[0].args[0] == 'local'
+
+        when:
+        carbonadoHandler.closeCarbonado('local-b')
+
+        then:
+        events.name == ['CarbonadoSharedEnvironmentOpen', 'CarbonadoSharedEnvironmentClose']
+    }
+
+    void 'Offheap repositories store storables outside of the heap'() {
+        when:
+        File home = null
+        String name = carbonadoHandler.withCarbonado('lookup') { String repositoryName, Repository repository ->
+            home = ((Environment) repository.getCapability(EnvironmentCapability).environment).home
+            Person person = repository.storageFor(Person).prepare()
+            person.id = 1
+            person.name = 'Danno'
+            person.lastname = 'Ferrin'
+            person.insert()
+
+            Person loaded = repository.storageFor(Person).prepare()
+            loaded.id = 1
+            loaded.load()
+            loaded.name
+        }
+        carbonadoHandler.closeCarbonado('lookup')
+
+        then:
+        name == 'Danno'
+        home.parentFile.absoluteFile == new File('build/offheap').absoluteFile
+        !home.exists()
+
+        when:
+        carbonadoHandler.withCarbonado('bounded') { String repositoryName, Repository repository ->
+            Person person = repository.storageFor(Person).prepare()
+            person.id = 1
+            person.name = 'Danno'
+            person.lastname = 'Ferrin'
+            person.insert()
+        }
+
+        then:
+        PersistException e = thrown()
+        e.message.contains("Offheap repository 'bounded' is full")
+
+        cleanup:
+        carbonadoHandler.closeCarbonado('bounded')
+    }
+
+    void 'Persistent map repositories are restored from their snapshot and journal'() {
+        given:
+        new File('build/persistent').deleteDir()
+        List events = []
+        ['CarbonadoRestore', 'CarbonadoSnapshot'].each { name ->
+            application.eventRouter.addEventListener(name, { Object... args ->
+                events << [name: name, args: args]
+            } as CallableWithArgs)
+        }
+        Closure insert = { Repository repository, int id, String name ->
+            Person person = repository.storageFor(Person).prepare()
+            person.id = id
+            person.name = name
+            person.lastname = 'Ferrin'
+            person.insert()
+        }
+
+        when:
+        carbonadoHandler.withCarbonado('persistent') { String repositoryName, Repository repository ->
+            insert(repository, 1, 'Danno')
+            insert(repository, 2, 'Andres')
+        }
+        carbonadoHandler.withCarbonadoTransaction('persistent') { String repositoryName, Repository repository ->
+            insert(repository, 3, 'Brian')
+        }
+        try {
+            carbonadoHandler.withCarbonadoTransaction('persistent') { String repositoryName, Repository repository ->
+                insert(repository, 4, 'Ghost')
+                throw new IllegalStateException('rollback')
+            }
+        } catch (IllegalStateException ignored) {
+            // expected
+        }
+        carbonadoHandler.closeCarbonado('persistent')
+
+        then:
+        events.name == ['CarbonadoRestore', 'CarbonadoSnapshot']
+        events[1].args[1] == ['griffon.plugins.carbonado.Person': 3L]
+
+        when: 'writes made after reopening only reach the journal'
+        List<Integer> ids = carbonadoHandler.withCarbonado('persistent') { String repositoryName, Repository repository ->
+            Person person = repository.storageFor(Person).prepare()
+            person.id = 2
+            person.delete()
+            insert(repository, 5, 'Tom')
+            repository.storageFor(Person).query().orderBy('id').fetch().toList()*.id
+        }
+        sleep(200)
+
+        then:
+        events[2].args[1] == ['griffon.plugins.carbonado.Person': 3L]
+        ids == [1, 3, 5]
+        Files.size(new File('build/persistent/griffon.plugins.carbonado.Person.journal').toPath()) > 5L
+
+        cleanup:
+        carbonadoHandler.closeCarbonado('persistent')
+    }
+
+    void 'Journals are replayed up to the first corrupted entry'() {
+        given:
+        new File('build/persistent').deleteDir()
+        String prefix = 'build/persistent/griffon.plugins.carbonado.Person'
+        Path journal = new File(prefix + '.journal').toPath()
+        Path copy = new File('build/persistent.journal').toPath()
+
+        when:
+        carbonadoHandler.withCarbonado('persistent') { String repositoryName, Repository repository ->
+            (1..2).each { int id ->
+                Person person = repository.storageFor(Person).prepare()
+                person.id = id
+                person.name = 'name' + id
+                person.lastname = 'lastname' + id
+                person.insert()
+            }
+        }
+        sleep(200)
+        Files.copy(journal, copy, StandardCopyOption.REPLACE_EXISTING)
+        carbonadoHandler.closeCarbonado('persistent')
+        // leaves the journal as a crash would, followed by a garbage entry length and a zero-filled tail
+        Files.deleteIfExists(new File(prefix + '.snapshot').toPath())
+        Files.deleteIfExists(new File(prefix + '.journal.old').toPath())
+        Files.copy(copy, journal, StandardCopyOption.REPLACE_EXISTING)
+        journal.toFile().append([1, 127, -1, -1, -1] as byte[])
+        journal.toFile().append(new byte[4096])
+        List<Integer> ids = carbonadoHandler.withCarbonado('persistent') { String repositoryName, Repository repository ->
+            repository.storageFor(Person).query().orderBy('id').fetch().toList()*.id
+        }
+
+        then:
+        ids == [1, 2]
+
+        cleanup:
+        carbonadoHandler.closeCarbonado('persistent')
+    }
+
+    void 'Writes rolled back in transactions entered directly are not journaled'() {
+        given:
+        new File('build/persistent').deleteDir()
+        Path journal = new File('build/persistent/griffon.plugins.carbonado.Person.journal').toPath()
+        Closure insert = { Repository repository, boolean commit ->
+            Transaction transaction = repository.enterTransaction()
+            try {
+                Person person = repository.storageFor(Person).prepare()
+                person.id = 1
+                person.name = 'Danno'
+                person.lastname = 'Ferrin'
+                person.insert()
+                if (commit) {
+                    transaction.commit()
+                }
+            } finally {
+                transaction.exit()
+            }
+        }
+
+        when:
+        carbonadoHandler.withCarbonado('persistent') { String repositoryName, Repository repository -> insert(repository, false) }
+        sleep(200)
+
+        then:
+        Files.size(journal) == 5L
+
+        when:
+        carbonadoHandler.withCarbonado('persistent') { String repositoryName, Repository repository -> insert(repository, true) }
+        sleep(200)
+
+        then:
+        Files.size(journal) > 5L
+
+        cleanup:
+        carbonadoHandler.closeCarbonado('persistent')
+    }
+
+    void 'Sharded repositories route keys to a single shard and merge queries across shards'() {
+        when:
+        carbonadoHandler.withCarbonadoTransaction('partitioned') { String repositoryName, Repository repository ->
+            ShardedRepository sharded = (ShardedRepository) repository
+            (1..9).each { int id ->
+                Person person = sharded.prepare(Person)
+                person.id = id
+                person.name = 'Person ' + id
+                person.lastname = id % 2 ? 'Odd' : 'Even'
+                sharded.route(person).insert()
+            }
+        }
+        Map result = carbonadoHandler.withCarbonado('partitioned') { String repositoryName, Repository repository ->
+            ShardedRepository sharded = (ShardedRepository) repository
+            Person key = sharded.prepare(Person)
+            key.id = 4
+            Person person = sharded.route(key)
+            person.load()
+            [
+                name    : person.name,
+                perShard: sharded.shards.collect { Repository shard -> shard.storageFor(Person).query().count() },
+                odd     : sharded.query({ String shardName, Repository shard ->
+                    shard.storageFor(Person).query('lastname = ?').with('Odd')
+                }, '-id')*.id,
+                count   : sharded.count { String shardName, Repository shard -> shard.storageFor(Person).query() },
+                lowest  : sharded.fetch({ String shardName, Repository shard ->
+                    shard.storageFor(Person).query()
+                }, 'id').with { Cursor<Person> cursor ->
+                    try {
+                        [cursor.next().id, cursor.next().id, cursor.next().id]
+                    } finally {
+                        cursor.close()
+                    }
+                }
+            ]
+        }
+
+        then:
+        result.name == 'Person 4'
+        result.perShard == [3L, 3L, 3L]
+        result.odd == [9, 7, 5, 3, 1]
+        result.count == 9L
+        result.lowest == [1, 2, 3]
+
+        when:
+        carbonadoHandler.withCarbonado('partitioned') { String repositoryName, Repository repository ->
+            repository.storageFor(Person)
+        }
+
+        then:
+        SupportException e = thrown()
+        e.message.contains("Sharded repository 'partitioned' has no storage of its own")
+
+        cleanup:
+        carbonadoHandler.closeCarbonado('partitioned')
+    }
+
+    void 'Sharded queries within a transaction see its writes'() {
+        when:
+        Map result = carbonadoHandler.withCarbonadoTransaction('partitioned') { String repositoryName, Repository repository ->
+            ShardedRepository sharded = (ShardedRepository) repository
+            (1..4).each { int id ->
+                Person person = sharded.prepare(Person)
+                person.id = id
+                person.name = 'Person ' + id
+                person.lastname = 'Pending'
+                sharded.route(person).insert()
+            }
+            [
+                ids  : sharded.query({ String shardName, Repository shard ->
+                    shard.storageFor(Person).query('lastname = ?').with('Pending')
+                }, 'id')*.id,
+                count: sharded.count { String shardName, Repository shard -> shard.storageFor(Person).query() }
+            ]
+        }
+
+        then:
+        result.ids == [1, 2, 3, 4]
+        result.count == 4L
+
+        cleanup:
+        carbonadoHandler.closeCarbonado('partitioned')
+    }
+
+    void 'Read-only callbacks are routed to read replicas'() {
+        given:
+        carbonadoHandler.withCarbonado('people') { String repositoryName, Repository repository ->
+            Person person = repository.storageFor(Person).prepare()
+            person.id = 200
+            person.name = 'Primary'
+            person.lastname = 'Only'
+            person.insert()
+        }
+
+        when:
+        long primaryCount = carbonadoHandler.withCarbonado('people') { String repositoryName, Repository repository ->
+            repository.storageFor(Person).query('id = ?').with(200).count()
+        }
+        long replicaCount = carbonadoHandler.withCarbonadoReadOnly('people') { String repositoryName, Repository repository ->
+            repository.storageFor(Person).query('id = ?').with(200).count()
+        }
+
+        then:
+        primaryCount == 1L
+        replicaCount == 0L
+
+        cleanup:
+        carbonadoHandler.closeCarbonado('people')
+    }
+
+    void 'Writes are rejected inside read-only callbacks'() {
+        when:
+        carbonadoHandler.withCarbonadoReadOnly('people') { String repositoryName, Repository repository ->
+            Person person = repository.storageFor(Person).prepare()
+            person.id = 300
+            person.name = 'Read'
+            person.lastname = 'Only'
+            person.insert()
+        }
+
+        then:
+        thrown(PersistException)
+        0L == carbonadoHandler.withCarbonadoReadOnly('people') { String repositoryName, Repository repository ->
+            repository.storageFor(Person).query('id = ?').with(300).count()
+        }
+
+        cleanup:
+        carbonadoHandler.closeCarbonado('people')
+    }
+
+    void 'Connections reached through statements of read-only callbacks stay read-only'() {
+        when:
+        List<String> states = carbonadoHandler.withCarbonadoReadOnly('people') { String repositoryName, Repository repository ->
+            JDBCConnectionCapability capability = repository.getCapability(JDBCConnectionCapability)
+            Connection connection = capability.connection
+            try {
+                [
+                    connection.createStatement().connection,
+                    connection.metaData.connection
+                ].collect { Connection reached ->
+                    try {
+                        reached.createStatement().executeUpdate("INSERT INTO person (id, name, lastname) VALUES (301, 'Read', 'Only')")
+                        null
+                    } catch (SQLException e) {
+                        e.SQLState
+                    }
+                }
+            } finally {
+                capability.yieldConnection(connection)
+            }
+        }
+
+        then:
+        states == ['25006', '25006']
+
+        cleanup:
+        carbonadoHandler.closeCarbonado('people')
+    }
+
+    void 'Primary key loads are served from the cache until the storable is written'() {
+        given:
+        RepositoryCache cache = cacheProvider.getCache('people')
+        Person key = carbonadoHandler.withCarbonado('people') { String repositoryName, Repository repository ->
+            Storage<Person> people = repository.storageFor(Person)
+            Person person = people.prepare()
+            person.id = 100
+            person.name = 'Andres'
+            person.lastname = 'Almiray'
+            person.insert()
+            Person k = people.prepare()
+            k.id = 100
+            k
+        }
+
+        when:
+        Person first = cache.load(key)
+        Person second = cache.load(key)
+        carbonadoHandler.withCarbonado('people') { String repositoryName, Repository repository ->
+            Person person = repository.storageFor(Person).prepare()
+            person.id = 100
+            person.load()
+            person.lastname = 'Ferrin'
+            person.update()
+        }
+        Person third = cache.load(key)
+
+        then:
+        first.lastname == 'Almiray'
+        second.lastname == 'Almiray'
+        third.lastname == 'Ferrin'
+        cache.hitCount == 1
+        cache.missCount == 2
+        cache.invalidationCount > 0
+
+        cleanup:
+        carbonadoHandler.closeCarbonado('people')
+    }
+
+    void 'Template repositories that fail to initialize release their slot'() {
+        when:
+        List<Throwable> failures = (1..3).collect { int id ->
+            try {
+                carbonadoHandler.withCarbonado('broken-' + id) { String repositoryName, Repository repository -> null }
+                null
+            } catch (Throwable t) {
+                t
+            }
+        }
+
+        then:
+        failures.every { it != null && !(it instanceof RepositoryOverloadException) }
+        repositoryFactory.@templateConfigs.isEmpty()
+    }
+
+    void 'Rows loaded while an update has not committed yet are not left in the cache'() {
+        given:
+        RepositoryCache cache = cacheProvider.getCache('people')
+        Person key = carbonadoHandler.withCarbonado('people') { String repositoryName, Repository repository ->
+            Storage<Person> people = repository.storageFor(Person)
+            Person person = people.prepare()
+            person.id = 101
+            person.name = 'Andres'
+            person.lastname = 'Almiray'
+            person.insert()
+            Person k = people.prepare()
+            k.id = 101
+            k
+        }
+
+        when:
+        Person concurrent = carbonadoHandler.withCarbonadoTransaction('people') { String repositoryName, Repository repository ->
+            Person person = repository.storageFor(Person).prepare()
+            person.id = 101
+            person.load()
+            person.lastname = 'Ferrin'
+            person.update()
+            // loads the committed row from another thread while the update is pending
+            CompletableFuture.supplyAsync { cache.load(key) }.get()
+        }
+        Person after = cache.load(key)
+
+        then:
+        concurrent.lastname == 'Almiray'
+        after.lastname == 'Ferrin'
+
+        cleanup:
+        carbonadoHandler.closeCarbonado('people')
+    }
+
+    private CarbonadoAddon getCarbonadoAddon() {
+        (CarbonadoAddon) application.injector.getInstances(GriffonAddon).find { it instanceof CarbonadoAddon }
+    }
+
+    private List warmupEvents() {
+        List events = [].asSynchronized()
+        ['CarbonadoWarmupStart', 'CarbonadoWarmupEnd', 'CarbonadoWarmupError'].each { name ->
+            application.eventRouter.addEventListener(name, { Object... args ->
+                events << [name: name, args: args]
+            } as CallableWithArgs)
+        }
+        events
+    }
+
+    @BindTo(CarbonadoBootstrap)
+    private TestCarbonadoBootstrap bootstrap = new TestCarbonadoBootstrap()
+
+    @BindTo(CarbonadoMetricsExporter)
+    private TestCarbonadoMetricsExporter exporter = new TestCarbonadoMetricsExporter()
 }
@@ -22,10 +22,14 @@ import javax.annotation.Nonnull
 class TestCarbonadoBootstrap implements CarbonadoBootstrap {
     boolean initWitness
     boolean destroyWitness
+    long initDelay
 
     @Override
     void init(@Nonnull String repositoryName, @Nonnull Repository repository) {
         initWitness = true
+        if (initDelay > 0) {
+            sleep(initDelay)
+        }
     }
 
     @Override
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado
+
+import javax.annotation.Nonnull
+import javax.annotation.Nullable
+import java.util.concurrent.CopyOnWriteArrayList
+
+class TestCarbonadoMetricsExporter implements CarbonadoMetricsExporter {
+    final List<String> callbacks = new CopyOnWriteArrayList<>()
+    final List<String> transactions = new CopyOnWriteArrayList<>()
+    final List<String> creations = new CopyOnWriteArrayList<>()
+    final List<String> destructions = new CopyOnWriteArrayList<>()
+    final List<String> queries = new CopyOnWriteArrayList<>()
+
+    @Override
+    void onCallback(@Nonnull String repositoryName, long duration, @Nullable Throwable failure) {
+        callbacks << repositoryName
+    }
+
+    @Override
+    void onTransaction(@Nonnull String repositoryName, long duration, int attempts, @Nullable Throwable failure) {
+        transactions << repositoryName
+    }
+
+    @Override
+    void onRepositoryCreated(@Nonnull String repositoryName, long duration) {
+        creations << repositoryName
+    }
+
+    @Override
+    void onRepositoryDestroyed(@Nonnull String repositoryName, long duration) {
+        destructions << repositoryName
+    }
+
+    @Override
+    void onQuery(@Nonnull String repositoryName, @Nonnull String query, long duration, @Nullable Throwable failure) {
+        queries << query
+    }
+}
@@ -50,11 +50,150 @@ environments {
     }
 }
 
+sharedEnvironments {
+    local {
+        cacheSize = 8 * 1024 * 1024
+    }
+}
+
 repositories {
     internal {
         type = 'map'
+        storables = ['griffon.plugins.carbonado.Person']
+        slowLog {
+            threshold = 50
+            capacity = 2
+        }
+        stream {
+            chunkSize = 7
+        }
     }
     people {
         type = 'jdbc'
+        jdbc {
+            readDataSources = ['people-replica']
+        }
+        cache {
+            maxEntries = 100
+            expireAfterWrite = 60000
+            storables = ['griffon.plugins.carbonado.Person']
+        }
+    }
+    'tenant-*' {
+        type = 'map'
+        maxOpen = 2
+        bdb {
+            environmentHomeFile = new File('build/tenants/{id}')
+        }
+    }
+    'idle-*' {
+        type = 'map'
+        idleTimeout = 100
+    }
+    'broken-*' {
+        type = 'sharded'
+        maxOpen = 1
+        sharded {
+            count = 2
+            shard {
+                type = 'map'
+            }
+        }
+        cache {
+            storables = ['griffon.plugins.carbonado.Person']
+        }
+    }
+    tuned {
+        type = 'bdb'
+        bdb {
+            profile = 'low-memory'
+            environmentHomeFile = new File('build/carbonado-tuned')
+            environment {
+                je.cleaner.minUtilization = 60
+            }
+        }
+    }
+    mistuned {
+        type = 'bdb'
+        bdb {
+            cacheSise = 1024
+            environmentHomeFile = new File('build/carbonado-mistuned')
+        }
+    }
+    'local-*' {
+        type = 'bdb'
+        bdb {
+            sharedEnvironment = 'local'
+            environmentHomeFile = new File('build/carbonado-{name}')
+        }
+    }
+    lookup {
+        type = 'offheap'
+        offheap {
+            directory = new File('build/offheap')
+        }
+    }
+    bounded {
+        type = 'offheap'
+        storables = ['griffon.plugins.carbonado.Person']
+        offheap {
+            directory = new File('build/offheap')
+            capacity = 1
+        }
+    }
+    persistent {
+        type = 'map'
+        storables = ['griffon.plugins.carbonado.Person']
+        persistence {
+            directory = new File('build/persistent')
+        }
+    }
+    partitioned {
+        type = 'sharded'
+        storables = ['griffon.plugins.carbonado.Person']
+        sharded {
+            count = 3
+            shard {
+                type = 'map'
+            }
+        }
+    }
+    ephemeral {
+        type = 'map'
+        idleTimeout = 100
+    }
+    monitored {
+        type = 'map'
+        health {
+            interval = 50
+            initialBackoff = 10
+        }
+    }
+    throttled {
+        type = 'map'
+        maxConcurrent = 1
+        queueSize = 0
+    }
+    indexed {
+        type = 'map'
+        indexed {
+            enabled = true
+            indexes = ['griffon.plugins.carbonado.Country': ['name']]
+        }
+    }
+    replicated {
+        type = 'replicated'
+        replicated {
+            master {
+                type = 'map'
+            }
+            replica {
+                type = 'map'
+            }
+            resync {
+                onOpen = 'blocking'
+                storables = ['griffon.plugins.carbonado.Person']
+            }
+        }
     }
 }
\ No newline at end of file
@@ -32,4 +32,11 @@ dataSources {
         dbCreate = 'create'
         url = 'jdbc:h2:mem:@application.name@-people'
     }
+    'people-replica' {
+        driverClassName = 'org.h2.Driver'
+        username = 'sa'
+        password = ''
+        dbCreate = 'create'
+        url = 'jdbc:h2:mem:@application.name@-people-replica'
+    }
 }
\ No newline at end of file
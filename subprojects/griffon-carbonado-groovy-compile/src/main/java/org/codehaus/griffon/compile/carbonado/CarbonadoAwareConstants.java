@@ -32,13 +32,22 @@ import static org.codehaus.griffon.compile.core.MethodDescriptor.types;
  */
 public interface CarbonadoAwareConstants extends BaseConstants {
     String REPOSITORY_TYPE = "com.amazon.carbonado.Repository";
+    String ISOLATION_LEVEL_TYPE = "com.amazon.carbonado.IsolationLevel";
     String CARBONADO_HANDLER_TYPE = "griffon.plugins.carbonado.CarbonadoHandler";
     String REPOSITORY_CALLBACK_TYPE = "griffon.plugins.carbonado.RepositoryCallback";
+    String COMPLETABLE_FUTURE_TYPE = "java.util.concurrent.CompletableFuture";
+    String QUERY_CALLBACK_TYPE = "griffon.plugins.carbonado.QueryCallback";
+    String STREAM_TYPE = "java.util.stream.Stream";
     String CARBONADO_HANDLER_PROPERTY = "carbonadoHandler";
     String CARBONADO_HANDLER_FIELD_NAME = "this$" + CARBONADO_HANDLER_PROPERTY;
 
     String METHOD_WITH_CARBONADO = "withCarbonado";
+    String METHOD_WITH_CARBONADO_ASYNC = "withCarbonadoAsync";
+    String METHOD_WITH_CARBONADO_TRANSACTION = "withCarbonadoTransaction";
+    String METHOD_WITH_CARBONADO_READ_ONLY = "withCarbonadoReadOnly";
+    String METHOD_STREAM_CARBONADO = "streamCarbonado";
     String METHOD_CLOSE_CARBONADO = "closeCarbonado";
+    String S = "S";
     String REPOSITORY_NAME = "repositoryName";
     String CALLBACK = "callback";
 
@@ -68,6 +77,84 @@ public interface CarbonadoAwareConstants extends BaseConstants {
             args(
                 annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
                 annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), REPOSITORY_CALLBACK_TYPE, R))
+        ),
+
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(COMPLETABLE_FUTURE_TYPE, R),
+            typeParams(R),
+            METHOD_WITH_CARBONADO_ASYNC,
+            args(annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), REPOSITORY_CALLBACK_TYPE, R))
+        ),
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(COMPLETABLE_FUTURE_TYPE, R),
+            typeParams(R),
+            METHOD_WITH_CARBONADO_ASYNC,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), REPOSITORY_CALLBACK_TYPE, R))
+        ),
+
+        annotatedMethod(
+            types(type(JAVAX_ANNOTATION_NONNULL)),
+            type(R),
+            typeParams(R),
+            METHOD_WITH_CARBONADO_TRANSACTION,
+            args(annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), REPOSITORY_CALLBACK_TYPE, R))
+        ),
+        annotatedMethod(
+            types(type(JAVAX_ANNOTATION_NONNULL)),
+            type(R),
+            typeParams(R),
+            METHOD_WITH_CARBONADO_TRANSACTION,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), REPOSITORY_CALLBACK_TYPE, R))
+        ),
+        annotatedMethod(
+            types(type(JAVAX_ANNOTATION_NONNULL)),
+            type(R),
+            typeParams(R),
+            METHOD_WITH_CARBONADO_TRANSACTION,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(JAVAX_ANNOTATION_NULLABLE), ISOLATION_LEVEL_TYPE),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), REPOSITORY_CALLBACK_TYPE, R))
+        ),
+
+        annotatedMethod(
+            types(type(JAVAX_ANNOTATION_NONNULL)),
+            type(R),
+            typeParams(R),
+            METHOD_WITH_CARBONADO_READ_ONLY,
+            args(annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), REPOSITORY_CALLBACK_TYPE, R))
+        ),
+        annotatedMethod(
+            types(type(JAVAX_ANNOTATION_NONNULL)),
+            type(R),
+            typeParams(R),
+            METHOD_WITH_CARBONADO_READ_ONLY,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), REPOSITORY_CALLBACK_TYPE, R))
+        ),
+
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(STREAM_TYPE, S),
+            typeParams(S),
+            METHOD_STREAM_CARBONADO,
+            args(annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), QUERY_CALLBACK_TYPE, S))
+        ),
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(STREAM_TYPE, S),
+            typeParams(S),
+            METHOD_STREAM_CARBONADO,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), QUERY_CALLBACK_TYPE, S))
         )
     };
 }
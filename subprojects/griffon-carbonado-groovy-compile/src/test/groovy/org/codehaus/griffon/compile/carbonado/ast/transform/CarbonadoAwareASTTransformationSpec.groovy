@@ -52,11 +52,17 @@ class CarbonadoAwareASTTransformationSpec extends Specification {
         GroovyShell shell = new GroovyShell()
 
         when:
-        def bean = shell.evaluate('''import griffon.plugins.carbonado.RepositoryCallback
+        def bean = shell.evaluate('''import com.amazon.carbonado.IsolationLevel
+        import com.amazon.carbonado.Storable
+        import griffon.plugins.carbonado.QueryCallback
+        import griffon.plugins.carbonado.RepositoryCallback
         import griffon.plugins.carbonado.CarbonadoHandler
         import griffon.transform.CarbonadoAware
 
         import javax.annotation.Nonnull
+        import javax.annotation.Nullable
+        import java.util.concurrent.CompletableFuture
+        import java.util.stream.Stream
         @CarbonadoAware
         class CarbonadoHandlerBean implements CarbonadoHandler {
             @Override
@@ -68,6 +74,42 @@ class CarbonadoAwareASTTransformationSpec extends Specification {
                  return null
             }
             @Override
+            public <R> CompletableFuture<R> withCarbonadoAsync(@Nonnull RepositoryCallback<R> callback)  {
+                return null
+            }
+            @Override
+            public <R> CompletableFuture<R> withCarbonadoAsync(@Nonnull String repositoryName, @Nonnull RepositoryCallback<R> callback) {
+                 return null
+            }
+            @Override
+            public <R> R withCarbonadoTransaction(@Nonnull RepositoryCallback<R> callback)  {
+                return null
+            }
+            @Override
+            public <R> R withCarbonadoTransaction(@Nonnull String repositoryName, @Nonnull RepositoryCallback<R> callback) {
+                 return null
+            }
+            @Override
+            public <R> R withCarbonadoTransaction(@Nonnull String repositoryName, @Nullable IsolationLevel isolationLevel, @Nonnull RepositoryCallback<R> callback) {
+                 return null
+            }
+            @Override
+            public <R> R withCarbonadoReadOnly(@Nonnull RepositoryCallback<R> callback)  {
+                return null
+            }
+            @Override
+            public <R> R withCarbonadoReadOnly(@Nonnull String repositoryName, @Nonnull RepositoryCallback<R> callback) {
+                 return null
+            }
+            @Override
+            public <S extends Storable> Stream<S> streamCarbonado(@Nonnull QueryCallback<S> callback) {
+                return null
+            }
+            @Override
+            public <S extends Storable> Stream<S> streamCarbonado(@Nonnull String repositoryName, @Nonnull QueryCallback<S> callback) {
+                return null
+            }
+            @Override
             void closeCarbonado(){}
             @Override
             void closeCarbonado(@Nonnull String repositoryName){}